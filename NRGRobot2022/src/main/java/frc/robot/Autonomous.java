@@ -19,16 +19,19 @@ import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.InstantCommand;
 import edu.wpi.first.wpilibj2.command.WaitCommand;
 import edu.wpi.first.wpilibj2.command.WaitUntilCommand;
-import frc.robot.commands.AutoClaw;
 import frc.robot.commands.CharacterizeArm;
 import frc.robot.commands.CharacterizeSwerveDrive;
 import frc.robot.commands.CommandUtils;
 import frc.robot.commands.DriveStraightDistance;
 import frc.robot.commands.DriveStraightTo;
+import frc.robot.commands.OuttakeCargo;
 import frc.robot.commands.ResetSubsystems;
 import frc.robot.commands.RotateArmToResting;
 import frc.robot.commands.RotateArmToScoring;
 import frc.robot.commands.RotateArmToStowed;
+import frc.robot.commands.TrajectoryMarker;
+import frc.robot.commands.WaitForArmArrival;
+import frc.robot.logging.MatchLog;
 import frc.robot.preferences.RobotPreferencesLayout;
 import frc.robot.preferences.RobotPreferencesValue;
 import frc.robot.preferences.RobotPreferences.BooleanValue;
@@ -43,6 +46,18 @@ public class Autonomous {
     private static SendableChooser<ChooseAutoPath> chooseAutoPath = new SendableChooser<>();
     private static SendableChooser<ChooseAutoDelay> chooseAutoDelay = new SendableChooser<>();
 
+    // The claw starts this long before the arm is predicted to reach the scoring
+    // position, so the rollers are up to speed as it arrives.
+    private static final double CLAW_LEAD_TIME = 0.1; // seconds
+
+    // When following a trajectory to a cargo, the arm is lowered and the claw
+    // started this long before the end of the path, which is about how long the
+    // arm takes to move from stowed to resting.
+    private static final double INTAKE_LEAD_TIME = 1.25; // seconds
+
+    private static final int autoPathChannel = MatchLog.registerInput("Autonomous/Path");
+    private static final int autoDelayChannel = MatchLog.registerInput("Autonomous/Delay");
+
     private static enum ChooseAutoPath {
         NONE,
         PROFILE_DRIVE,
@@ -176,7 +191,9 @@ public class Autonomous {
 
     /** Returns the autonmous command selected in the Shuffleboard tab. */
     private static Command getSelectedAutonomousCommand() {
-        switch (chooseAutoPath.getSelected()) {
+        int selectedPath = (int) MatchLog.input(autoPathChannel, chooseAutoPath.getSelected().ordinal());
+
+        switch (ChooseAutoPath.values()[selectedPath]) {
             case NONE:
                 return new InstantCommand(() -> System.out.println("NO AUTONOMOUS COMMAND SELECTED"));
 
@@ -200,18 +217,17 @@ public class Autonomous {
                         new InstantCommand(
                                 () -> RobotContainer.swerveDrive.resetOdometry(RIGHT_TARMAC_RIGHT_START_POSE)),
                         new RotateArmToScoring(RobotContainer.arm),
-                        new WaitUntilCommand(() -> RobotContainer.arm.isAtScoringPosition()).withTimeout(0.5),
-                        new AutoClaw(0.75, 1, RobotContainer.claw),
+                        new WaitForArmArrival(RobotContainer.arm, CLAW_LEAD_TIME),
+                        new OuttakeCargo(RobotContainer.claw, 1, 0.75),
                         new RotateArmToStowed(RobotContainer.arm),
                         CommandUtils.newFollowWaypointsCommand(RobotContainer.swerveDrive,
                                 RIGHT_TARMAC_RIGHT_START_POSE,
                                 List.of(RIGHT_TARMAC_RIGHT_WAYPOINT),
                                 TARGET_RIGHT_POSE,
-                                true)
-                                .alongWith(new WaitUntilCommand(
-                                        () -> RobotContainer.swerveDrive.getHeadingDegrees() <= 15.0)
-                                                .andThen(new RotateArmToResting(RobotContainer.arm))
-                                                .andThen(() -> RobotContainer.claw.activateClaw(-1.0))),
+                                true,
+                                TrajectoryMarker.atTimeFromEnd(INTAKE_LEAD_TIME,
+                                        new RotateArmToResting(RobotContainer.arm)
+                                                .andThen(() -> RobotContainer.claw.activateClaw(-1.0)))),
                         new InstantCommand(() -> RobotContainer.claw.stopMotor()),
                         CommandUtils.newFollowWaypointsCommand(RobotContainer.swerveDrive,
                                 TARGET_RIGHT_POSE,
@@ -219,8 +235,8 @@ public class Autonomous {
                                 RIGHT_TARMAC_RIGHT_START_POSE,
                                 true)
                                 .alongWith(new RotateArmToScoring(RobotContainer.arm)),
-                        new WaitUntilCommand(() -> RobotContainer.arm.isAtScoringPosition()).withTimeout(0.5),
-                        new AutoClaw(0.75, 1, RobotContainer.claw),
+                        new WaitForArmArrival(RobotContainer.arm, CLAW_LEAD_TIME),
+                        new OuttakeCargo(RobotContainer.claw, 1, 0.75),
                         new RotateArmToStowed(RobotContainer.arm));
             //
 
@@ -229,8 +245,8 @@ public class Autonomous {
                         new InstantCommand(
                                 () -> RobotContainer.swerveDrive.resetOdometry(RIGHT_TARMAC_RIGHT_START_POSE)),
                         new RotateArmToScoring(RobotContainer.arm),
-                        new WaitUntilCommand(() -> RobotContainer.arm.isAtScoringPosition()).withTimeout(0.5),
-                        new AutoClaw(0.75, 1, RobotContainer.claw),
+                        new WaitForArmArrival(RobotContainer.arm, CLAW_LEAD_TIME),
+                        new OuttakeCargo(RobotContainer.claw, 1, 0.75),
                         new RotateArmToStowed(RobotContainer.arm),
                         new DriveStraightTo(RobotContainer.swerveDrive, 0.4, WAYPOINT_TWO)
                                 .alongWith(new WaitUntilCommand(
@@ -241,8 +257,8 @@ public class Autonomous {
                         new WaitCommand(0.5),
                         new DriveStraightTo(RobotContainer.swerveDrive, 0.4, WAYPOINT_THREE)
                                 .alongWith(new RotateArmToScoring(RobotContainer.arm)),
-                        new WaitUntilCommand(() -> RobotContainer.arm.isAtScoringPosition()).withTimeout(0.5),
-                        new AutoClaw(0.75, 1, RobotContainer.claw),
+                        new WaitForArmArrival(RobotContainer.arm, CLAW_LEAD_TIME),
+                        new OuttakeCargo(RobotContainer.claw, 1, 0.75),
                         new RotateArmToStowed(RobotContainer.arm),
                         new DriveStraightTo(RobotContainer.swerveDrive, 0.4, WAYPOINT_FOUR)
                                 .alongWith(new WaitUntilCommand(
@@ -260,8 +276,8 @@ public class Autonomous {
                                 new InstantCommand(
                                         () -> RobotContainer.swerveDrive.resetOdometry(RIGHT_TARMAC_RIGHT_START_POSE)),
                                 new RotateArmToScoring(RobotContainer.arm),
-                                new WaitUntilCommand(() -> RobotContainer.arm.isAtScoringPosition()).withTimeout(0.5),
-                                new AutoClaw(0.75, 1, RobotContainer.claw),
+                                new WaitForArmArrival(RobotContainer.arm, CLAW_LEAD_TIME),
+                                new OuttakeCargo(RobotContainer.claw, 1, 0.75),
                                 new RotateArmToStowed(RobotContainer.arm),
                                 new DriveStraightTo(RobotContainer.swerveDrive, 0.4, TARGET_RIGHT_POSE)
                                         .alongWith(new WaitUntilCommand(
@@ -272,8 +288,8 @@ public class Autonomous {
                                 new WaitCommand(0.5),
                                 new DriveStraightTo(RobotContainer.swerveDrive, 0.3, RIGHT_TARMAC_RIGHT_START_POSE)
                                         .alongWith(new RotateArmToScoring(RobotContainer.arm)),
-                                new WaitUntilCommand(() -> RobotContainer.arm.isAtScoringPosition()).withTimeout(0.5),
-                                new AutoClaw(0.75, 1, RobotContainer.claw),
+                                new WaitForArmArrival(RobotContainer.arm, CLAW_LEAD_TIME),
+                                new OuttakeCargo(RobotContainer.claw, 1, 0.75),
                                 new RotateArmToStowed(RobotContainer.arm));
 
             case DOWN_TARMAC_TWO_BALLS:
@@ -281,18 +297,17 @@ public class Autonomous {
                         new InstantCommand(
                                 () -> RobotContainer.swerveDrive.resetOdometry(DOWN_TARMAC_LEFT_START_POSE)),
                         new RotateArmToScoring(RobotContainer.arm),
-                        new WaitUntilCommand(() -> RobotContainer.arm.isAtScoringPosition()).withTimeout(0.5),
-                        new AutoClaw(0.75, 1, RobotContainer.claw),
+                        new WaitForArmArrival(RobotContainer.arm, CLAW_LEAD_TIME),
+                        new OuttakeCargo(RobotContainer.claw, 1, 0.75),
                         new RotateArmToStowed(RobotContainer.arm),
                         CommandUtils.newFollowWaypointsCommand(RobotContainer.swerveDrive,
                                 DOWN_TARMAC_LEFT_START_POSE,
                                 List.of(new Translation2d(5.919, 5.362)),
                                 TARGET_DOWN_POSE,
-                                true)
-                                .alongWith(new WaitUntilCommand(
-                                        () -> RobotContainer.swerveDrive.getHeadingDegrees() <= -45.0)
-                                                .andThen(new RotateArmToResting(RobotContainer.arm))
-                                                .andThen(() -> RobotContainer.claw.activateClaw(-1.0))),
+                                true,
+                                TrajectoryMarker.atTimeFromEnd(INTAKE_LEAD_TIME,
+                                        new RotateArmToResting(RobotContainer.arm)
+                                                .andThen(() -> RobotContainer.claw.activateClaw(-1.0)))),
                         new InstantCommand(() -> RobotContainer.claw.stopMotor()),
                         CommandUtils.newFollowWaypointsCommand(RobotContainer.swerveDrive,
                                 TARGET_DOWN_POSE,
@@ -300,8 +315,8 @@ public class Autonomous {
                                 DOWN_TARMAC_LEFT_START_POSE,
                                 true)
                                 .alongWith(new RotateArmToScoring(RobotContainer.arm)),
-                        new WaitUntilCommand(() -> RobotContainer.arm.isAtScoringPosition()).withTimeout(0.5),
-                        new AutoClaw(0.75, 1, RobotContainer.claw),
+                        new WaitForArmArrival(RobotContainer.arm, CLAW_LEAD_TIME),
+                        new OuttakeCargo(RobotContainer.claw, 1, 0.75),
                         new RotateArmToStowed(RobotContainer.arm));
 
 
@@ -310,8 +325,8 @@ public class Autonomous {
                         new InstantCommand(
                                 () -> RobotContainer.swerveDrive.resetOdometry(RIGHT_TARMAC_RIGHT_START_POSE)),
                         new RotateArmToScoring(RobotContainer.arm),
-                        new WaitUntilCommand(() -> RobotContainer.arm.isAtScoringPosition()).withTimeout(0.5),
-                        new AutoClaw(1.0, 1, RobotContainer.claw),
+                        new WaitForArmArrival(RobotContainer.arm, CLAW_LEAD_TIME),
+                        new OuttakeCargo(RobotContainer.claw, 1, 1.0),
                         new RotateArmToStowed(RobotContainer.arm),
                         CommandUtils.newFollowWaypointsCommand(RobotContainer.swerveDrive,
                                 RIGHT_TARMAC_RIGHT_START_POSE,
@@ -337,9 +352,9 @@ public class Autonomous {
                 // Moving arm up
                 new RotateArmToScoring(RobotContainer.arm),
                 // Waiting till command finishes
-                new WaitUntilCommand(() -> RobotContainer.arm.isAtScoringPosition()).withTimeout(0.5),
+                new WaitForArmArrival(RobotContainer.arm, CLAW_LEAD_TIME),
                 // Outake cargo
-                new AutoClaw(0.75, 1, RobotContainer.claw),
+                new OuttakeCargo(RobotContainer.claw, 1, 0.75),
                 // Rotate arm down
                 new RotateArmToStowed(RobotContainer.arm),
                 // Going to first point (first cargo)
@@ -368,9 +383,9 @@ public class Autonomous {
                 // Raise arm
                         .alongWith(new RotateArmToScoring(RobotContainer.arm)),
                 // Wait until arm is at scoring position
-                new WaitUntilCommand(() -> RobotContainer.arm.isAtScoringPosition()).withTimeout(0.5),
+                new WaitForArmArrival(RobotContainer.arm, CLAW_LEAD_TIME),
                 // Outake, end of auto
-                new AutoClaw(0.75, 1, RobotContainer.claw));
+                new OuttakeCargo(RobotContainer.claw, 1, 0.75));
 
            
             case DOWN_TARMAC_SHOOT_BACKUP:
@@ -378,8 +393,8 @@ public class Autonomous {
                         new InstantCommand(
                                 () -> RobotContainer.swerveDrive.resetOdometry(DOWN_TARMAC_LEFT_START_POSE)),
                         new RotateArmToScoring(RobotContainer.arm),
-                        new WaitUntilCommand(() -> RobotContainer.arm.isAtScoringPosition()).withTimeout(0.5),
-                        new AutoClaw(1.0, 1, RobotContainer.claw),
+                        new WaitForArmArrival(RobotContainer.arm, CLAW_LEAD_TIME),
+                        new OuttakeCargo(RobotContainer.claw, 1, 1.0),
                         new RotateArmToStowed(RobotContainer.arm)
                        // CommandUtils.newFollowWaypointsCommand(RobotContainer.swerveDrive,
                                 // DOWN_TARMAC_LEFT_START_POSE,
@@ -413,7 +428,8 @@ public class Autonomous {
      * tab, or null if no delay is selected.
      */
     private static Command getSelectedDelayCommand() {
-        ChooseAutoDelay delayChoice = chooseAutoDelay.getSelected();
+        int selectedDelay = (int) MatchLog.input(autoDelayChannel, chooseAutoDelay.getSelected().ordinal());
+        ChooseAutoDelay delayChoice = ChooseAutoDelay.values()[selectedDelay];
 
         if (delayChoice.getDelay() == 0) {
             return null;
@@ -30,6 +30,17 @@ public final class Constants {
         public static final double kEncoderDistancePerRotation = 2.0 * Math.PI;
     }
 
+    public static final class ClawConstants {
+        // The PDP channel powering the claw motor controller, or -1 if it is
+        // not known. TODO: Set this once the electrical team has confirmed the
+        // channel; until then the claw cannot sense cargo by its current.
+        public static final int kPdpChannel = -1;
+
+        // The DIO channel of a beam break across the claw, or -1 if none is
+        // fitted.
+        public static final int kBeamBreakChannel = -1;
+    }
+
     public static final class ClimberConstants {
         public static final int kClimberRotatorMotor1 = 13;
         public static final int kClimberRotatorMotor2 = 14;
@@ -38,5 +49,18 @@ public final class Constants {
          *
          */
         public static final int PH_ID = 0;
+
+        // The DIO channels of the reed switches at each end of the extender
+        // stroke, or -1 where none is fitted.
+        public static final int kExtenderUpSwitch = -1;
+        public static final int kExtenderDownSwitch = -1;
+    }
+
+    public static final class VisionConstants {
+        // The location and direction of the camera relative to the center of the
+        // robot, in meters and degrees counter-clockwise from the robot's front.
+        public static final double kCameraOffsetX = 0.0;
+        public static final double kCameraOffsetY = 0.0;
+        public static final double kCameraYawDegrees = 0.0;
     }
 }
@@ -5,6 +5,7 @@
 package frc.robot;
 
 import edu.wpi.first.wpilibj.RobotBase;
+import frc.robot.logging.LogReplay;
 
 /**
  * Do NOT add any static variables to this class, or any initialization at all.
@@ -24,6 +25,13 @@ public final class Main {
    * If you change your main robot class, change the parameter type.
    */
   public static void main(String... args) {
+    // Replay a recorded match log instead of running the robot when requested.
+    String replayLog = System.getenv(LogReplay.REPLAY_LOG_ENV);
+    if (replayLog != null) {
+      LogReplay.run(replayLog);
+      System.exit(0);
+    }
+
     RobotBase.startRobot(Robot::new);
   }
 }
@@ -7,6 +7,12 @@ package frc.robot;
 import edu.wpi.first.wpilibj.TimedRobot;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import frc.robot.logging.CommandTracer;
+import frc.robot.logging.MatchLog;
+import frc.robot.logging.SchedulerProfiler;
+import frc.robot.simulation.SimulationSpeedup;
+import frc.robot.subsystems.SwerveDrive;
+import frc.robot.utilities.RealTimeLoop;
 
 /**
  * The VM is configured to automatically run this class, and to call the
@@ -18,7 +24,14 @@ import edu.wpi.first.wpilibj2.command.CommandScheduler;
  * project.
  */
 public class Robot extends TimedRobot {
+  // The control thread runs ahead of every normal thread, on the second core.
+  private static final int CONTROL_THREAD_PRIORITY = 15;
+  private static final int CONTROL_THREAD_CPU = 1;
+
+  private final int controlPeriodErrorChannel = MatchLog.registerOutput("Robot/ControlPeriodError");
+
   private Command m_autonomousCommand;
+  private RealTimeLoop controlLoop;
 
   private RobotContainer m_robotContainer;
 
@@ -33,6 +46,24 @@ public class Robot extends TimedRobot {
     // and put our
     // autonomous chooser on the dashboard.
     m_robotContainer = new RobotContainer();
+
+    // The drivetrain runs its control loop faster than the main loop, either
+    // alongside it or on a real-time thread of its own.
+    SwerveDrive swerveDrive = RobotContainer.swerveDrive;
+    if (swerveDrive.hasFastControlLoop()) {
+      if (SwerveDrive.enableRealTimeThread.getValue()) {
+        // Only the control thread is pinned, to the second core. Its real-time
+        // priority keeps the other threads, which may use either core, from
+        // delaying it.
+        controlLoop = new RealTimeLoop("SwerveControl", swerveDrive.getControlPeriod(),
+            CONTROL_THREAD_PRIORITY, isReal() ? CONTROL_THREAD_CPU : -1, swerveDrive::controlPeriodic);
+        controlLoop.start();
+      } else {
+        addPeriodic(swerveDrive::controlPeriodic, swerveDrive.getControlPeriod(), SwerveDrive.CONTROL_PERIOD_OFFSET);
+      }
+    }
+    CommandTracer.init();
+    SchedulerProfiler.init(getPeriod());
     // new KeepClimberRotatorVertical(m_robotContainer.climberRotator).schedule();
     
   }
@@ -57,7 +88,17 @@ public class Robot extends TimedRobot {
     // and running subsystem periodic() methods. This must be called from the
     // robot's periodic
     // block in order for anything in the Command-based framework to work.
+    SchedulerProfiler.beginCycle();
     CommandScheduler.getInstance().run();
+    SchedulerProfiler.endCycle();
+    CommandTracer.endCycle();
+
+    if (controlLoop != null) {
+      MatchLog.output(controlPeriodErrorChannel, controlLoop.takeMaxPeriodError());
+    }
+
+    // Records this cycle's sensor inputs and outputs to the match log.
+    MatchLog.endCycle();
   }
 
   /** This function is called once each time the robot enters Disabled mode. */
@@ -68,6 +109,9 @@ public class Robot extends TimedRobot {
     }
     CommandScheduler.getInstance().cancelAll();
     m_robotContainer.stopAllMotors();
+    MatchLog.flush();
+    SchedulerProfiler.printReport();
+    CommandTracer.export();
   }
 
   @Override
@@ -125,4 +169,10 @@ public class Robot extends TimedRobot {
   @Override
   public void testPeriodic() {
   }
+
+  /** This function is called once when the robot is first started up in simulation. */
+  @Override
+  public void simulationInit() {
+    SimulationSpeedup.startFromEnvironment();
+  }
 }
@@ -14,15 +14,19 @@ import edu.wpi.first.wpilibj2.command.InstantCommand;
 import edu.wpi.first.wpilibj2.command.Subsystem;
 import edu.wpi.first.wpilibj2.command.button.JoystickButton;
 import edu.wpi.first.wpilibj2.command.button.POVButton;
-import frc.robot.commands.AutoClaw;
+import edu.wpi.first.wpilibj2.command.button.Trigger;
+import frc.robot.commands.DriveToCargo;
 import frc.robot.commands.DriveWithController;
+import frc.robot.commands.IntakeCargo;
 import frc.robot.commands.ManualClaw;
 import frc.robot.commands.ManualClimber;
+import frc.robot.commands.OuttakeCargo;
 import frc.robot.commands.RotateArmToResting;
 import frc.robot.commands.RotateArmToScoring;
 import frc.robot.commands.RotateArmToScoring2;
 import frc.robot.commands.RotateArmToStowed;
 import frc.robot.commands.ToggleClimberExtender;
+import frc.robot.commands.TraversalClimb;
 import frc.robot.commands.TurnToAngle;
 import frc.robot.preferences.RobotPreferences;
 import frc.robot.subsystems.Arm;
@@ -80,7 +84,7 @@ public class RobotContainer {
 
   // Subsystems
   public static final SwerveDrive swerveDrive = new SwerveDrive();
-  public static final RaspberryPiVision raspberryPiVision = new RaspberryPiVision();
+  public static final RaspberryPiVision raspberryPiVision = new RaspberryPiVision(swerveDrive::getPoseAt);
   public static final Claw claw = new Claw(1); // Port 1
   public static final Arm arm = new Arm();
   public static final ClimberExtender climberExtender = new ClimberExtender();
@@ -94,63 +98,8 @@ public class RobotContainer {
   private final RotateArmToResting armToResting = new RotateArmToResting(arm);
   private final RotateArmToScoring armToScoring = new RotateArmToScoring(arm);
   // private final ManualClimber manualClimber = new ManualClimber(climberRotator, manipulatorController);
+  private final TraversalClimb traversalClimb = new TraversalClimb(swerveDrive, climberExtender, climberHooks, climberRotator, arm);
 
-  // // Raise the climber, drive to the MID RUNG & grab it when detected
-  // private static final SequentialCommandGroup climbSequencePart1 =
-  //     new InstantCommand(() -> swerveDrive.resetHeading())
-  //         .andThen(new InstantCommand(() -> climberExtender.setState(ClimberExtender.State.UP))
-  //           .alongWith(new InstantCommand(() -> {arm.setGoal(Math.toRadians(75)); arm.enable();})))
-  //         .andThen(new WaitCommand(3.0)) // wait for extender to go up
-  //         .andThen(new DriveStraight(swerveDrive, .15, 180) // Backup slowly into MID RUNG
-  //             .until(() -> climberHooks.isBarDetected(HookSelection.HOOK_1))
-  //         .andThen(new WaitCommand(.1)));
-
-  // Back up until arm passes vertical point, rotate the climber, grab HIGH RUNG
-  // private static final SequentialCommandGroup climbSequencePart2 =
-  //         new DriveStraight(swerveDrive, .1, 0) // Slowly moving forward
-  //             .until(() -> climberRotator.getRotatorPosition() > 800) // TBD
-  //         .andThen(new PerpetualCommand(new InstantCommand(() -> climberRotator.rotateMotor(), climberRotator))
-  //             .until(() -> climberHooks.isBarDetected(HookSelection.HOOK_2)))
-  //         .andThen(new PerpetualCommand(new InstantCommand(() -> climberRotator.rotateMotor(), climberRotator))
-  //             .until(() -> !climberHooks.isBarDetected(HookSelection.HOOK_2)))
-  //         .andThen(new InstantCommand(() -> climberRotator.stopMotor()));
-
-  // // Release MID RUNG, wait, climb to TRAVERSAL RUNG and grab it
-  // private static final SequentialCommandGroup climbSequencePart3 =
-  //         new InstantCommand(() -> climberRotator.backDriveMotor())
-  //         .andThen(new WaitCommand(0.3))
-  //         .andThen(new InstantCommand(() -> climberRotator.stopMotor())
-  //         .andThen(new WaitCommand(2)) // wait for robot to swing
-  //         .andThen(new PerpetualCommand(new InstantCommand(() -> climberRotator.rotateMotor(), climberRotator))
-  //             .until(() -> climberHooks.isBarDetected(HookSelection.HOOK_1)))
-  //         .andThen(new PerpetualCommand(new InstantCommand(() -> climberRotator.rotateMotor(), climberRotator))
-  //             .until(() -> !climberHooks.isBarDetected(HookSelection.HOOK_1)))
-  //         .andThen(new InstantCommand(() -> climberRotator.stopMotor())))
-  //         .andThen(new WaitCommand(1.0));
-
-  // // Release the High rung, wait 3/10s of a second, stop motor.        
-  // private static final SequentialCommandGroup climbSequencePart4 =
-  //     new InstantCommand(() -> climberRotator.backDriveMotor())
-  //         .andThen(new WaitCommand(0.3))
-  //         .andThen(new InstantCommand(() -> climberRotator.stopMotor()));
-          
-  // private static final SequentialCommandGroup climbUnlatch = 
-  //     new InstantCommand(() -> climberRotator.backDriveMotor())
-  //         .andThen(new WaitCommand(0.3))
-  //         .andThen(() -> climberRotator.stopMotor());
-
-  //         private static final SequentialCommandGroup climbUnlatchTwo = 
-  //     new InstantCommand(() -> climberRotator.backDriveMotor())
-  //         .andThen(new WaitCommand(0.6))
-  //         .andThen(() -> climberRotator.stopMotor());
-
-  // // Fully autonomous 3-stage traversal climb
-  // private static final SequentialCommandGroup climbSequenceFull = null;
-  //     // new SequentialCommandGroup(climbSequencePart1, climbSequencePart2, climbSequencePart3);
-
-  // private static final Command abortClimb = new InstantCommand(() -> {}, allSubsystems)
-  //   .andThen(new PerpetualCommand(new InstantCommand(() -> climberRotator.rotateMotor(-0.15), climberRotator)))
-  //     .until(() -> climberRotator.getRotatorPosition() <= 10);
 
   /**
    * The container for the robot. Contains subsystems, OI devices, and commands.
@@ -176,6 +125,7 @@ public class RobotContainer {
       ShuffleboardTab climberTab = Shuffleboard.getTab("Climber");
       // climberRotator.addShuffleboardLayout(climberTab);
       climberHooks.addShuffleboardLayout(climberTab);
+      climberExtender.addShuffleboardLayout(climberTab);
     }
   }
 
@@ -190,6 +140,8 @@ public class RobotContainer {
     driverMenuButton.whenPressed(new InstantCommand(() -> swerveDrive.resetHeading()));
     // driverLeftBumper.whenPressed(new KeepClimberRotatorVertical(climberRotator));
 
+    // Drive through the cargo in view with the claw intaking, while held.
+    driverButtonB.whenHeld(new DriveToCargo(swerveDrive, raspberryPiVision).alongWith(new IntakeCargo(claw, 1.0, 3.0)));
     // driverButtonB.whenPressed(new DriveStraight(swerveDrive, .25, 0)); // testing
     // driverButtonY.whenPressed(new DriveStraight(swerveDrive, .25, 180)); // testing
 
@@ -203,17 +155,25 @@ public class RobotContainer {
     manipulatorStartButton.whenPressed(new ManualClimber(climberRotator, manipulatorController));
     manipulatorDpadRight.whenPressed(new RotateArmToStowed(arm));
     manipulatorDpadLeft.whenPressed(new RotateArmToScoring2(arm));
-    manipulatorButtonA.whenPressed(new RotateArmToScoring2(arm).andThen(new AutoClaw(0.5, 1.0, claw), new RotateArmToResting(RobotContainer.arm))); // previous argument was arm.
+    manipulatorButtonA.whenPressed(new RotateArmToScoring2(arm).andThen(new OuttakeCargo(claw, 1.0, 0.5), new RotateArmToResting(RobotContainer.arm))); // previous argument was arm.
+    manipulatorButtonX.whenPressed(new RotateArmToResting(arm).alongWith(new IntakeCargo(claw, 1.0, 3.0)));
+
+    // Stow the arm as soon as a cargo is picked up off the floor, if enabled.
+    new Trigger(() -> Claw.autoStow.getValue()
+        && DriverStation.isTeleopEnabled()
+        && claw.isIntaking()
+        && claw.isLoaded()
+        && arm.isAtRestingPosition())
+        .whenActive(new RotateArmToStowed(arm));
 
     // manipulatorDpadLeft.whenPressed(new DriveStraight(swerveDrive, .2, -90)); // testing
     manipulatorDpadUp.whenHeld(new InstantCommand(() -> climberRotator.rotateMotor(), climberRotator));
     manipulatorDpadUp.whenReleased(new InstantCommand(() -> climberRotator.stopMotor()));
     manipulatorDpadDown.whenHeld(new InstantCommand(() -> climberRotator.backDriveMotor(), climberRotator));
     manipulatorDpadDown.whenReleased(new InstantCommand(() -> climberRotator.stopMotor()));
-    // manipulatorButtonA.whenPressed(climbSequencePart1);
-    // manipulatorButtonB.whenPressed(climbSequencePart2);
-    // manipulatorButtonX.whenPressed(climbSequencePart3);
-    // manipulatorButtonY.whenPressed(abortClimb);
+    manipulatorButtonB.whenPressed(traversalClimb);
+    // Interrupting the climb aborts it, holding the rotator where it is.
+    manipulatorButtonY.whenPressed(new InstantCommand(() -> {}, swerveDrive, climberExtender, climberRotator, arm));
     manipulatorMenuButton.whenPressed(new ToggleClimberExtender(climberExtender));
 
   }
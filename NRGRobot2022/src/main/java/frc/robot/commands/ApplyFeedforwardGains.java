@@ -0,0 +1,84 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.commands;
+
+import edu.wpi.first.wpilibj2.command.CommandBase;
+import frc.robot.preferences.RobotPreferences.DoubleValue;
+import frc.robot.sysid.FeedforwardFit;
+import frc.robot.sysid.SysIdLogger;
+
+/**
+ * Writes the feedforward gains fitted from the SysId tests of a mechanism to
+ * its preferences. The new gains take effect when the robot code is restarted.
+ */
+public class ApplyFeedforwardGains extends CommandBase {
+  private final String mechanism;
+  private final DoubleValue kS;
+  private final DoubleValue kV;
+  private final DoubleValue kA;
+  private final DoubleValue kG;
+
+  /**
+   * Creates a new ApplyFeedforwardGains for a mechanism without a gravity term.
+   *
+   * @param mechanism The SysId mechanism name, e.g. "Drivetrain".
+   * @param kS        The preference holding the static gain.
+   * @param kV        The preference holding the velocity gain.
+   * @param kA        The preference holding the acceleration gain.
+   */
+  public ApplyFeedforwardGains(String mechanism, DoubleValue kS, DoubleValue kV, DoubleValue kA) {
+    this(mechanism, kS, kV, kA, null);
+  }
+
+  /**
+   * Creates a new ApplyFeedforwardGains.
+   *
+   * @param mechanism The SysId mechanism name, e.g. "Arm".
+   * @param kS        The preference holding the static gain.
+   * @param kV        The preference holding the velocity gain.
+   * @param kA        The preference holding the acceleration gain.
+   * @param kG        The preference holding the gravity gain, or null.
+   */
+  public ApplyFeedforwardGains(String mechanism, DoubleValue kS, DoubleValue kV, DoubleValue kA, DoubleValue kG) {
+    this.mechanism = mechanism;
+    this.kS = kS;
+    this.kV = kV;
+    this.kA = kA;
+    this.kG = kG;
+    setName("Apply " + mechanism + " Gains");
+  }
+
+  @Override
+  public boolean runsWhenDisabled() {
+    return true;
+  }
+
+  // Called when the command is initially scheduled.
+  @Override
+  public void initialize() {
+    FeedforwardFit.Result result = SysIdLogger.getFitResult(mechanism);
+
+    if (result == null) {
+      System.out.println("No feedforward fit available for " + mechanism + ". Run the SysId tests first.");
+      return;
+    }
+
+    kS.setValue(result.kS);
+    kV.setValue(result.kV);
+    kA.setValue(result.kA);
+    if (kG != null) {
+      kG.setValue(result.kG);
+    }
+
+    System.out.println("Applied " + mechanism + " feedforward gains " + result
+        + ". Restart the robot code to use them.");
+  }
+
+  // Returns true when the command should end.
+  @Override
+  public boolean isFinished() {
+    return true;
+  }
+}
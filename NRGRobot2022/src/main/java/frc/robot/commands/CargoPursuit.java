@@ -0,0 +1,173 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.commands;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+
+/**
+ * The steering logic of {@link DriveToCargo}.
+ *
+ * <p>
+ * It steers in the cargo's frame, based on the cargo's latency-compensated
+ * position and velocity: the commanded velocity is the cargo's velocity plus
+ * a closing velocity straight at the cargo. This keeps the robot on a
+ * collision course with a rolling cargo, and makes the pickup speed the speed
+ * relative to the cargo, which is what the intake has to capture. The intake
+ * is turned to face the cargo on the way in. The commanded velocity is
+ * acceleration limited so it is continuous, and the closing speed slows to
+ * the pickup speed at the pickup distance. Once the cargo is that close, the
+ * robot drives through it at the pickup speed. If the cargo goes out of view,
+ * the robot steers at its position predicted from the last estimate for up to
+ * a second, which carries it through the pickup once the cargo is too close
+ * to see. It ends once the cargo is behind it.
+ *
+ * <p>
+ * It reads no hardware. It is given the robot's position and the cargo's
+ * estimated motion each cycle and returns the field relative velocity to drive
+ * at, so it can be run against a model of the robot as well as by
+ * {@link DriveToCargo}.
+ */
+public class CargoPursuit {
+    // How far to keep driving past the cargo's predicted position.
+    private static final double DRIVE_THROUGH_DISTANCE = 0.3; // meters
+
+    // The longest the robot drives on a prediction once the cargo is out of view.
+    private static final double MAX_BLIND_TIME = 1.0; // seconds
+
+    private final double pickupSpeed;
+    private final double pickupDistance;
+    private final double maxAcceleration;
+
+    private Translation2d velocity;
+    private Translation2d lastCargo;
+    private Translation2d lastCargoVelocity;
+    private double timeSinceSeen;
+    private Translation2d direction;
+    private Rotation2d heading;
+    private boolean committed;
+    private boolean finished;
+
+    /**
+     * Constructs an instance of this class.
+     *
+     * @param pickupSpeed     The speed in meters per second relative to the
+     *                        cargo at which the robot drives through it.
+     * @param pickupDistance  The distance in meters at which the robot commits
+     *                        to driving through the cargo.
+     * @param maxAcceleration The most the commanded velocity may change in
+     *                        meters per second squared.
+     * @param velocity        The robot's current field relative velocity, so
+     *                        that the commanded velocity starts from it.
+     */
+    public CargoPursuit(double pickupSpeed, double pickupDistance, double maxAcceleration, Translation2d velocity) {
+        this.pickupSpeed = pickupSpeed;
+        this.pickupDistance = pickupDistance;
+        this.maxAcceleration = maxAcceleration;
+        this.velocity = velocity;
+    }
+
+    /**
+     * Returns the field relative velocity in meters per second to drive at.
+     *
+     * @param robot         The robot's field position.
+     * @param cargo         The cargo's latency-compensated field position, or
+     *                      null if it is not in view.
+     * @param cargoVelocity The cargo's field velocity, if it is in view.
+     * @param maxSpeed      The robot's maximum speed in meters per second.
+     * @param dt            The time since the last update in seconds.
+     */
+    public Translation2d update(Translation2d robot, Translation2d cargo, Translation2d cargoVelocity,
+            double maxSpeed, double dt) {
+        if (cargo != null) {
+            lastCargo = cargo;
+            lastCargoVelocity = cargoVelocity;
+            timeSinceSeen = 0;
+        } else {
+            timeSinceSeen += dt;
+        }
+
+        if (finished || lastCargo == null) {
+            finished = true;
+            return new Translation2d();
+        }
+
+        // Once out of view, the cargo is assumed to keep rolling as it was.
+        Translation2d toCargo = lastCargo.plus(lastCargoVelocity.times(timeSinceSeen)).minus(robot);
+
+        if (direction != null && dot(toCargo, direction) < -DRIVE_THROUGH_DISTANCE
+                || timeSinceSeen > MAX_BLIND_TIME) {
+            // The robot has driven through the cargo, or has lost sight of it
+            // for too long.
+            finished = true;
+            return new Translation2d();
+        }
+
+        double speed = pickupSpeed;
+        if (direction == null || dot(toCargo, direction) > 0) {
+            // The cargo is still ahead, so close on it.
+            double distance = toCargo.getNorm();
+
+            if (distance < pickupDistance) {
+                // Drive through the cargo at the pickup speed, even once it is
+                // too close to see.
+                committed = true;
+            }
+
+            if (distance > 1e-6) {
+                direction = toCargo.div(distance);
+                heading = new Rotation2d(toCargo.getX(), toCargo.getY());
+            } else if (direction == null) {
+                direction = new Translation2d(1, heading != null ? heading : new Rotation2d());
+            }
+
+            if (!committed) {
+                // Slow down so that the robot reaches the pickup distance at the
+                // pickup speed.
+                speed = Math.min(
+                        maxSpeed,
+                        Math.sqrt(pickupSpeed * pickupSpeed + 2 * maxAcceleration * (distance - pickupDistance)));
+            }
+        }
+
+        Translation2d desiredVelocity = lastCargoVelocity.plus(direction.times(speed));
+        if (desiredVelocity.getNorm() > maxSpeed) {
+            desiredVelocity = desiredVelocity.times(maxSpeed / desiredVelocity.getNorm());
+        }
+        return limitAcceleration(desiredVelocity, dt);
+    }
+
+    /**
+     * Returns the heading the intake should face, or null if none has been
+     * chosen yet.
+     */
+    public Rotation2d getHeading() {
+        return heading;
+    }
+
+    /** Returns whether the robot has driven through the cargo or lost it. */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    private static double dot(Translation2d a, Translation2d b) {
+        return a.getX() * b.getX() + a.getY() * b.getY();
+    }
+
+    /**
+     * Returns the velocity closest to the desired one that can be reached from
+     * the last commanded velocity at the maximum acceleration.
+     */
+    private Translation2d limitAcceleration(Translation2d desiredVelocity, double dt) {
+        Translation2d change = desiredVelocity.minus(velocity);
+        double maxChange = maxAcceleration * dt;
+
+        if (change.getNorm() > maxChange) {
+            change = change.times(maxChange / change.getNorm());
+        }
+        velocity = velocity.plus(change);
+        return velocity;
+    }
+}
@@ -7,11 +7,13 @@ package frc.robot.commands;
 import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj2.command.CommandBase;
+import frc.robot.Constants.ArmConstants;
 import frc.robot.subsystems.Arm;
 import frc.robot.sysid.SysIdGeneralMechanismLogger;
 
 public class CharacterizeArm extends CommandBase {
-  private SysIdGeneralMechanismLogger logger = new SysIdGeneralMechanismLogger();
+  private SysIdGeneralMechanismLogger logger = new SysIdGeneralMechanismLogger(
+      "Radians", ArmConstants.kEncoderDistancePerRotation);
   private Arm arm;
   private double previousRadians;
   private double previousTime;
@@ -0,0 +1,453 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.commands;
+
+/**
+ * The decision logic of the traversal climb.
+ *
+ * <p>
+ * The climb moves from one state to the next on sensor events rather than
+ * after fixed delays: the hook beams breaking and clearing as a bar
+ * passes into a hook, the rotator reaching a position, and the robot reaching
+ * the back of its swing. Every state has a timeout, and running out of time,
+ * a rotator fault or an explicit request all lead to the aborted state, which
+ * stops driving and holds the rotator where it is. A hook is only released
+ * from its bar after the other hook has latched onto the next bar, and an
+ * abort never releases a hook.
+ *
+ * <p>
+ * The state machine reads no hardware. It is given the sensor readings each
+ * cycle and returns the actuator demands, so it can be run against a model of
+ * the robot as well as by {@link TraversalClimb}.
+ */
+public class ClimbStateMachine {
+    /** The steps of the climb, each with the most time it may take. */
+    public enum State {
+        /** Raise the climber and wait for it to finish extending. */
+        EXTEND(5.0),
+        /** Back slowly into the mid rung until hook 1 catches it. */
+        BACK_INTO_MID(4.0),
+        /** Drive forward, pulling the rotator past vertical. */
+        PULL_UNDER_MID(3.0),
+        /** Rotate until the high rung reaches hook 2. */
+        ROTATE_TO_HIGH(4.0),
+        /** Keep rotating until the high rung has passed into hook 2. */
+        LATCH_HIGH(2.0),
+        /** Back-drive the rotator to release hook 1 from the mid rung. */
+        RELEASE_MID(1.0),
+        /** Hold the rotator until the robot is near the back of its swing. */
+        WAIT_FOR_SWING(4.0),
+        /** Rotate until the traversal rung reaches hook 1. */
+        ROTATE_TO_TRAVERSAL(4.0),
+        /** Keep rotating until the traversal rung has passed into hook 1. */
+        LATCH_TRAVERSAL(2.0),
+        /** Back-drive the rotator to release hook 2 from the high rung. */
+        RELEASE_HIGH(1.0),
+        /** Hanging from the traversal rung. */
+        DONE(Double.POSITIVE_INFINITY),
+        /** Stopped in a safe state. */
+        ABORTED(Double.POSITIVE_INFINITY);
+
+        private final double timeout;
+
+        State(double timeout) {
+            this.timeout = timeout;
+        }
+
+        /** Returns the most time in seconds the state may take. */
+        public double getTimeout() {
+            return timeout;
+        }
+    }
+
+    /** The ways the rotator can be driven. */
+    public enum RotatorDemand {
+        /** Stop the motor, leaving it in brake mode. */
+        STOP,
+        /** Rotate forward at the climbing power. */
+        CLIMB,
+        /** Rotate backwards at the back-drive power. */
+        BACK_DRIVE,
+        /** Hold the rotator at the hold position using closed-loop control. */
+        HOLD
+    }
+
+    /**
+     * The sensor readings for one cycle. Edge timestamps are NaN when the edge
+     * did not happen during the cycle.
+     */
+    public static class Inputs {
+        public double timestamp;
+        public boolean extenderSettled;
+        public boolean hook1Detected;
+        public boolean hook2Detected;
+        public double hook1BrokenTimestamp = Double.NaN;
+        public double hook1ClearedTimestamp = Double.NaN;
+        public double hook2BrokenTimestamp = Double.NaN;
+        public double hook2ClearedTimestamp = Double.NaN;
+        public double rotatorPosition; // encoder ticks
+        public boolean rotatorFault;
+        public double pitch; // degrees
+        public double pitchRate; // degrees per second
+    }
+
+    /** The actuator demands for one cycle. */
+    public static class Outputs {
+        public boolean extenderUp;
+        public double driveSpeed; // fraction of full speed, positive forwards
+        public RotatorDemand rotator = RotatorDemand.STOP;
+        public double holdPosition; // encoder ticks
+    }
+
+    /** The tunable parameters of the climb. */
+    public static class Parameters {
+        /**
+         * How far, in encoder ticks, the rotator is back-driven to release a hook
+         * from a bar.
+         */
+        public double releaseTravel = 1500;
+
+        /**
+         * The rotator position past vertical, in encoder ticks, at which it can
+         * reach the high rung.
+         */
+        public double pullUnderMidPosition = 800;
+
+        /**
+         * How far in degrees the robot must swing either side of the middle for
+         * its swing to be timed.
+         */
+        public double minSwingAmplitude = 3.0;
+
+        /**
+         * The pitch rate, in degrees per second towards the traversal rung, at
+         * which the rotator starts turning towards the traversal rung. At zero it
+         * starts at the back of the swing; a negative rate starts it while the
+         * robot is still swinging back and a positive rate once it is swinging
+         * forwards. Starting early gives the rotator a head start, but a rate
+         * faster than the robot ever swings back is never reached, and the
+         * climb times out waiting for it.
+         */
+        public double swingTriggerRate = -60;
+    }
+
+    // The drive speeds used to back into the mid rung and to pull the rotator
+    // past vertical.
+    public static final double BACK_INTO_MID_SPEED = 0.15;
+    public static final double PULL_UNDER_MID_SPEED = 0.1;
+
+    // The sign of the pitch when the robot swings towards the traversal rung.
+    public static final double TRAVERSAL_PITCH_SIGN = 1.0;
+
+    // The robot has stopped swinging once its pitch rate stays this small for
+    // this long.
+    public static final double SETTLED_PITCH_RATE = 5.0; // degrees per second
+    public static final double SETTLED_TIME = 0.25; // seconds
+
+    private final Parameters parameters;
+    private final Outputs outputs = new Outputs();
+
+    private State state = State.EXTEND;
+    private State abortedState;
+    private double stateTimestamp = Double.NaN;
+    private double startTimestamp = Double.NaN;
+    private double latchPosition;
+    private double maxSwing;
+    private double previousPitchRate;
+    private double settledTimestamp = Double.NaN;
+    private boolean hanging;
+    private String abortReason = "";
+
+    /**
+     * Constructs an instance of this class.
+     *
+     * @param parameters The tunable parameters of the climb.
+     */
+    public ClimbStateMachine(Parameters parameters) {
+        this.parameters = parameters;
+    }
+
+    /** Returns the current state. */
+    public State getState() {
+        return state;
+    }
+
+    /** Returns the FPGA timestamp at which the current state was entered. */
+    public double getStateTimestamp() {
+        return stateTimestamp;
+    }
+
+    /** Returns the time in seconds from the start of the climb to the given time. */
+    public double getElapsedTime(double timestamp) {
+        return timestamp - startTimestamp;
+    }
+
+    /** Returns whether the climb has finished, successfully or not. */
+    public boolean isFinished() {
+        return state == State.DONE || state == State.ABORTED;
+    }
+
+    /** Returns whether the robot is hanging from a rung. */
+    public boolean isHanging() {
+        return hanging;
+    }
+
+    /** Returns why the climb was aborted, or an empty string if it was not. */
+    public String getAbortReason() {
+        return abortReason;
+    }
+
+    /**
+     * Advances the climb using the sensor readings for one cycle.
+     *
+     * @param inputs The sensor readings.
+     *
+     * @return The actuator demands.
+     */
+    public Outputs update(Inputs inputs) {
+        double now = inputs.timestamp;
+        if (Double.isNaN(startTimestamp)) {
+            startTimestamp = now;
+            stateTimestamp = now;
+        }
+
+        if (state == State.ABORTED) {
+            updateAborted(inputs);
+        } else if (!isFinished()) {
+            if (inputs.rotatorFault) {
+                abort(inputs, "rotator encoders disagree");
+            } else if (now - stateTimestamp > state.getTimeout()) {
+                abort(inputs, state + " timed out");
+            } else {
+                advance(inputs);
+            }
+        }
+
+        setOutputs(inputs);
+        previousPitchRate = inputs.pitchRate;
+
+        return outputs;
+    }
+
+    /**
+     * Aborts the climb. The robot stops driving and the rotator is held where it
+     * is, so a hook on a bar stays on it.
+     *
+     * @param inputs The latest sensor readings.
+     * @param reason Why the climb was aborted.
+     */
+    public void abort(Inputs inputs, String reason) {
+        if (isFinished()) {
+            return;
+        }
+
+        abortReason = reason;
+        abortedState = state;
+        if (state != State.RELEASE_MID && state != State.RELEASE_HIGH) {
+            // While releasing, the rotator goes back to where both hooks held
+            // their bars, rather than staying part way to letting one go.
+            latchPosition = hanging ? inputs.rotatorPosition : 0;
+        }
+        enterState(State.ABORTED, inputs.timestamp);
+        setOutputs(inputs);
+    }
+
+    private void advance(Inputs inputs) {
+        switch (state) {
+            case EXTEND:
+                if (inputs.extenderSettled) {
+                    enterState(State.BACK_INTO_MID, inputs.timestamp);
+                }
+                break;
+
+            case BACK_INTO_MID:
+                if (!Double.isNaN(inputs.hook1BrokenTimestamp)) {
+                    hanging = true;
+                    enterState(State.PULL_UNDER_MID, inputs.hook1BrokenTimestamp);
+                } else if (inputs.hook1Detected) {
+                    hanging = true;
+                    enterState(State.PULL_UNDER_MID, inputs.timestamp);
+                }
+                break;
+
+            case PULL_UNDER_MID:
+                if (inputs.rotatorPosition > parameters.pullUnderMidPosition) {
+                    enterState(State.ROTATE_TO_HIGH, inputs.timestamp);
+                }
+                break;
+
+            case ROTATE_TO_HIGH:
+                if (isBarReached(inputs.hook2BrokenTimestamp, inputs.hook2Detected)) {
+                    enterState(State.LATCH_HIGH, stateTimestampOf(inputs.hook2BrokenTimestamp, inputs));
+                }
+                break;
+
+            case LATCH_HIGH:
+                if (isBarLatched(inputs.hook2ClearedTimestamp, inputs.hook2Detected)) {
+                    latchPosition = inputs.rotatorPosition;
+                    enterState(State.RELEASE_MID, stateTimestampOf(inputs.hook2ClearedTimestamp, inputs));
+                }
+                break;
+
+            case RELEASE_MID:
+                if (inputs.rotatorPosition <= latchPosition - parameters.releaseTravel) {
+                    latchPosition = inputs.rotatorPosition;
+                    maxSwing = Double.NEGATIVE_INFINITY;
+                    settledTimestamp = Double.NaN;
+                    enterState(State.WAIT_FOR_SWING, inputs.timestamp);
+                }
+                break;
+
+            case WAIT_FOR_SWING:
+                if (isAtSwingPhase(inputs) || isSwingSettled(inputs)) {
+                    enterState(State.ROTATE_TO_TRAVERSAL, inputs.timestamp);
+                }
+                break;
+
+            case ROTATE_TO_TRAVERSAL:
+                if (isBarReached(inputs.hook1BrokenTimestamp, inputs.hook1Detected)) {
+                    enterState(State.LATCH_TRAVERSAL, stateTimestampOf(inputs.hook1BrokenTimestamp, inputs));
+                }
+                break;
+
+            case LATCH_TRAVERSAL:
+                if (isBarLatched(inputs.hook1ClearedTimestamp, inputs.hook1Detected)) {
+                    latchPosition = inputs.rotatorPosition;
+                    enterState(State.RELEASE_HIGH, stateTimestampOf(inputs.hook1ClearedTimestamp, inputs));
+                }
+                break;
+
+            case RELEASE_HIGH:
+                if (inputs.rotatorPosition <= latchPosition - parameters.releaseTravel) {
+                    latchPosition = inputs.rotatorPosition;
+                    enterState(State.DONE, inputs.timestamp);
+                }
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Moves the hold position forward if a hook that was passing onto a bar when
+     * the climb was aborted latches onto it, so that holding the rotator does not
+     * back-drive the other hook off its bar.
+     */
+    private void updateAborted(Inputs inputs) {
+        boolean latched = abortedState == State.LATCH_HIGH
+                && isBarLatched(inputs.hook2ClearedTimestamp, inputs.hook2Detected)
+                || abortedState == State.LATCH_TRAVERSAL
+                        && isBarLatched(inputs.hook1ClearedTimestamp, inputs.hook1Detected);
+
+        if (latched) {
+            latchPosition = Math.max(latchPosition, inputs.rotatorPosition);
+            abortedState = State.ABORTED;
+        }
+    }
+
+    private void setOutputs(Inputs inputs) {
+        outputs.extenderUp = true;
+        outputs.driveSpeed = 0;
+        outputs.holdPosition = latchPosition;
+
+        switch (state) {
+            case BACK_INTO_MID:
+                outputs.driveSpeed = -BACK_INTO_MID_SPEED;
+                outputs.rotator = RotatorDemand.STOP;
+                break;
+
+            case PULL_UNDER_MID:
+                outputs.driveSpeed = PULL_UNDER_MID_SPEED;
+                outputs.rotator = RotatorDemand.STOP;
+                break;
+
+            case ROTATE_TO_HIGH:
+            case LATCH_HIGH:
+            case ROTATE_TO_TRAVERSAL:
+            case LATCH_TRAVERSAL:
+                outputs.rotator = RotatorDemand.CLIMB;
+                break;
+
+            case RELEASE_MID:
+            case RELEASE_HIGH:
+                outputs.rotator = RotatorDemand.BACK_DRIVE;
+                break;
+
+            case WAIT_FOR_SWING:
+            case DONE:
+                outputs.rotator = RotatorDemand.HOLD;
+                break;
+
+            case ABORTED:
+                // Closed-loop control cannot be trusted when the encoders disagree,
+                // so the rotator is left in brake mode instead.
+                outputs.rotator = inputs.rotatorFault ? RotatorDemand.STOP : RotatorDemand.HOLD;
+                break;
+
+            default:
+                outputs.rotator = RotatorDemand.STOP;
+                break;
+        }
+    }
+
+    private void enterState(State newState, double timestamp) {
+        state = newState;
+        stateTimestamp = timestamp;
+    }
+
+    /**
+     * Returns the time of an edge, or the time of the current cycle if the edge
+     * was missed and the beam's level was used instead.
+     */
+    private static double stateTimestampOf(double edgeTimestamp, Inputs inputs) {
+        return Double.isNaN(edgeTimestamp) ? inputs.timestamp : edgeTimestamp;
+    }
+
+    /** Returns whether a bar has broken a hook's beam. */
+    private static boolean isBarReached(double brokenTimestamp, boolean detected) {
+        return !Double.isNaN(brokenTimestamp) || detected;
+    }
+
+    /**
+     * Returns whether a bar that broke a hook's beam has passed into the hook,
+     * which it has once the beam is clear again. A bar that passes the beam
+     * within one cycle is caught by its edges.
+     */
+    private static boolean isBarLatched(double clearedTimestamp, boolean detected) {
+        return !Double.isNaN(clearedTimestamp) || !detected;
+    }
+
+    /**
+     * Returns whether the robot has just reached the point near the back of its
+     * swing at which the rotator should start turning, so the hook swings
+     * towards the traversal rung as the rotator turns. The swing is measured
+     * from the front of the swing, since the pitch the robot hangs at depends on
+     * where it is holding the bar.
+     */
+    private boolean isAtSwingPhase(Inputs inputs) {
+        double swing = TRAVERSAL_PITCH_SIGN * inputs.pitch;
+        double rate = TRAVERSAL_PITCH_SIGN * inputs.pitchRate;
+        double previousRate = TRAVERSAL_PITCH_SIGN * previousPitchRate;
+        double triggerRate = parameters.swingTriggerRate;
+        maxSwing = Math.max(maxSwing, swing);
+
+        return previousRate < triggerRate && rate >= triggerRate
+                && maxSwing - swing >= 2 * parameters.minSwingAmplitude;
+    }
+
+    /** Returns whether the robot has stopped swinging. */
+    private boolean isSwingSettled(Inputs inputs) {
+        if (Math.abs(inputs.pitchRate) > SETTLED_PITCH_RATE) {
+            settledTimestamp = Double.NaN;
+            return false;
+        }
+
+        if (Double.isNaN(settledTimestamp)) {
+            settledTimestamp = inputs.timestamp;
+        }
+        return inputs.timestamp - settledTimestamp >= SETTLED_TIME;
+    }
+}
@@ -4,53 +4,128 @@
 
 package frc.robot.commands;
 
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj2.command.CommandBase;
 import frc.robot.preferences.RobotPreferencesValue;
 import frc.robot.preferences.RobotPreferences.DoubleValue;
 import frc.robot.subsystems.RaspberryPiVision;
 import frc.robot.subsystems.SwerveDrive;
+import frc.robot.vision.CargoTrack;
+import frc.robot.vision.CargoTracker;
 
+/**
+ * Drives to a cargo and through it so the intake picks it up without stopping.
+ *
+ * <p>
+ * The command pursues the cargo chosen by the vision {@link CargoTracker},
+ * steering with a {@link CargoPursuit}. It stays locked to that cargo's track
+ * while it exists, and otherwise pursues the best remaining cargo.
+ */
 public class DriveToCargo extends CommandBase {
 
   private SwerveDrive swerveDrive;
   private RaspberryPiVision pi;
-  private boolean hasTarget;
 
+  /** The speed in meters per second relative to the cargo at which the robot drives through it. */
   @RobotPreferencesValue
-  public static DoubleValue cargoPickupSpeed = new DoubleValue("SwerveModule", "cargoPickupSpeed", 1.0);
-  public static DoubleValue cargoPickupDistanceThreshold = new DoubleValue("SwerveModule", "cargoPickupDistanceThreshold", 1.0);
-  /** Creates a new driveToBall. */
+  public static DoubleValue cargoPickupSpeed = new DoubleValue("SwerveModule", "cargoPickupSpeed", 1.5);
+  /** The distance in meters at which the robot commits to driving through the cargo. */
+  public static DoubleValue cargoPickupDistanceThreshold = new DoubleValue("SwerveModule", "cargoPickupDistanceThreshold", 0.8);
+  /** The most the commanded velocity may change while pursuing a cargo, in meters per second squared. */
+  @RobotPreferencesValue
+  public static DoubleValue cargoPickupAcceleration = new DoubleValue("SwerveModule", "cargoPickupAcceleration", 4.0);
+
+  private int trackId;
+  private CargoPursuit pursuit;
+  private double previousTime;
+
+  /** Creates a new DriveToCargo. */
   public DriveToCargo(SwerveDrive swerveDrive, RaspberryPiVision pi) {
     this.swerveDrive = swerveDrive;
     this.pi = pi;
-    hasTarget = true;
     addRequirements(this.swerveDrive);
   }
 
   // Called when the command is initially scheduled.
   @Override
-  public void initialize() {}
+  public void initialize() {
+    previousTime = Timer.getFPGATimestamp();
+
+    CargoTrack track = pi.getBestCargo();
+    trackId = track != null ? track.getId() : -1;
+
+    // Start from the robot's current field relative velocity so the commanded
+    // velocity is continuous.
+    ChassisSpeeds speeds = swerveDrive.getChassisSpeeds();
+    Translation2d velocity = new Translation2d(speeds.vxMetersPerSecond, speeds.vyMetersPerSecond)
+        .rotateBy(swerveDrive.getPose2d().getRotation());
+    pursuit = new CargoPursuit(cargoPickupSpeed.getValue(), cargoPickupDistanceThreshold.getValue(),
+        cargoPickupAcceleration.getValue(), velocity);
+    if (track == null) {
+      pursuit.update(swerveDrive.getPose2d().getTranslation(), null, null, swerveDrive.currentMaxSpeed, 0);
+    }
+  }
 
   // Called every time the scheduler runs while the command is scheduled.
   @Override
   public void execute() {
-    hasTarget = pi.hasTarget();
-    if(hasTarget){
-      double angle = pi.getAngleToTarget();
-      swerveDrive.enableTurnToAngle(angle);
-      double x = cargoPickupSpeed.getValue() * Math.cos(angle);
-      double y = cargoPickupSpeed.getValue() * Math.sin(angle);
-      swerveDrive.drive(x, y, 0, true, false);
+    double now = Timer.getFPGATimestamp();
+    double dt = now - previousTime;
+    previousTime = now;
+
+    CargoTrack track = pursuit.isFinished() ? null : findTrack();
+    double maxSpeed = swerveDrive.currentMaxSpeed;
+    Translation2d velocity = pursuit.update(
+        swerveDrive.getPose2d().getTranslation(),
+        track != null ? track.getPosition(now) : null,
+        track != null ? track.getVelocity() : null,
+        maxSpeed,
+        dt);
+
+    if (pursuit.isFinished()) {
+      return;
+    }
+
+    Rotation2d heading = pursuit.getHeading();
+    if (heading != null) {
+      swerveDrive.enableTurnToAngle(heading.getDegrees());
+    }
+    if (maxSpeed > 0) {
+      swerveDrive.drive(velocity.getX() / maxSpeed, velocity.getY() / maxSpeed, 0, true, false);
     }
   }
 
+  /**
+   * Returns the track being pursued. If the track is no longer being tracked,
+   * the best remaining track is pursued instead.
+   */
+  private CargoTrack findTrack() {
+    for (CargoTrack track : pi.getCargoTracker().getTracks()) {
+      if (track.getId() == trackId) {
+        return track;
+      }
+    }
+
+    CargoTrack track = pi.getBestCargo();
+    if (track != null) {
+      trackId = track.getId();
+    }
+    return track;
+  }
+
   // Called once the command ends or is interrupted.
   @Override
-  public void end(boolean interrupted) {}
+  public void end(boolean interrupted) {
+    swerveDrive.disableTurnToAngle();
+    swerveDrive.stopMotors();
+  }
 
   // Returns true when the command should end.
   @Override
   public boolean isFinished() {
-    return !hasTarget || (pi.getDistanceToTarget() < cargoPickupDistanceThreshold.getValue());
-  } 
+    return pursuit.isFinished();
+  }
 }
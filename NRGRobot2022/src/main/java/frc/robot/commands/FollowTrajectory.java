@@ -0,0 +1,158 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.commands;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import edu.wpi.first.math.controller.PIDController;
+import edu.wpi.first.math.controller.ProfiledPIDController;
+import edu.wpi.first.math.trajectory.Trajectory;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.CommandGroupBase;
+import edu.wpi.first.wpilibj2.command.Subsystem;
+import edu.wpi.first.wpilibj2.command.SwerveControllerCommand;
+import frc.robot.subsystems.SwerveDrive;
+
+/**
+ * Follows a trajectory with the swerve drive and starts commands at markers
+ * along the way.
+ *
+ * <p>
+ * The markers are sorted by their time on the trajectory when the command is
+ * created. Each cycle, the markers the trajectory has passed are started by
+ * advancing a cursor through the sorted list, so checking for markers takes
+ * constant time however many there are. A marker's command is initialized and
+ * executed on the same cycle the follower passes it.
+ *
+ * <p>
+ * The marker commands run as part of this command, like the commands in a
+ * parallel group. This command requires their subsystems and does not end
+ * until they have finished, holding the final pose of the trajectory if
+ * necessary. If it is interrupted, any marker commands still running are
+ * interrupted too. Marker commands may not require the swerve drive.
+ */
+public class FollowTrajectory extends SwerveControllerCommand {
+  private final double[] markerTimes;
+  private final Command[] markerCommands;
+  private final boolean[] markerRunning;
+  private final Timer timer = new Timer();
+  private int nextMarker;
+
+  /**
+   * Constructs an instance of this command.
+   *
+   * @param swerveDrive The swerve drivetrain.
+   * @param trajectory  The trajectory to follow.
+   * @param markers     The markers along the trajectory.
+   */
+  public FollowTrajectory(SwerveDrive swerveDrive, Trajectory trajectory, TrajectoryMarker... markers) {
+    super(
+        trajectory,
+        swerveDrive::getPose2d,
+        swerveDrive.getKinematics(),
+        new PIDController(SwerveDrive.driveP.getValue(), SwerveDrive.driveI.getValue(), SwerveDrive.driveD.getValue()),
+        new PIDController(SwerveDrive.driveP.getValue(), SwerveDrive.driveI.getValue(), SwerveDrive.driveD.getValue()),
+        newThetaController(),
+        swerveDrive::setModuleStates,
+        swerveDrive);
+
+    double[] times = new double[markers.length];
+    Integer[] order = new Integer[markers.length];
+    for (int i = 0; i < markers.length; ++i) {
+      times[i] = markers[i].getTime(trajectory);
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparingDouble(i -> times[i]));
+
+    markerTimes = new double[markers.length];
+    markerCommands = new Command[markers.length];
+    markerRunning = new boolean[markers.length];
+    for (int i = 0; i < markers.length; ++i) {
+      markerTimes[i] = times[order[i]];
+      markerCommands[i] = markers[order[i]].getCommand();
+    }
+
+    CommandGroupBase.requireUngrouped(markerCommands);
+    CommandGroupBase.registerGroupedCommands(markerCommands);
+
+    for (Command command : markerCommands) {
+      if (command.hasRequirement(swerveDrive)) {
+        throw new IllegalArgumentException("Trajectory marker commands may not require the swerve drive");
+      }
+      addRequirements(command.getRequirements().toArray(new Subsystem[0]));
+    }
+  }
+
+  private static ProfiledPIDController newThetaController() {
+    ProfiledPIDController thetaController = new ProfiledPIDController(
+        SwerveDrive.turnP.getValue(),
+        SwerveDrive.turnI.getValue(),
+        SwerveDrive.turnD.getValue(),
+        SwerveDrive.THETA_CONTROLLER_CONSTRAINTS);
+    thetaController.enableContinuousInput(-Math.PI, Math.PI);
+    return thetaController;
+  }
+
+  @Override
+  public void initialize() {
+    super.initialize();
+    timer.reset();
+    timer.start();
+    nextMarker = 0;
+    Arrays.fill(markerRunning, false);
+  }
+
+  @Override
+  public void execute() {
+    super.execute();
+
+    double time = timer.get();
+    while (nextMarker < markerTimes.length && markerTimes[nextMarker] <= time) {
+      markerCommands[nextMarker].initialize();
+      markerRunning[nextMarker] = true;
+      ++nextMarker;
+    }
+
+    // Only markers before the cursor can be running.
+    for (int i = 0; i < nextMarker; ++i) {
+      if (markerRunning[i]) {
+        markerCommands[i].execute();
+        if (markerCommands[i].isFinished()) {
+          markerCommands[i].end(false);
+          markerRunning[i] = false;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void end(boolean interrupted) {
+    super.end(interrupted);
+    timer.stop();
+
+    for (int i = 0; i < nextMarker; ++i) {
+      if (markerRunning[i]) {
+        markerCommands[i].end(true);
+        markerRunning[i] = false;
+      }
+    }
+  }
+
+  @Override
+  public boolean isFinished() {
+    if (!super.isFinished() || nextMarker < markerTimes.length) {
+      return false;
+    }
+
+    for (boolean running : markerRunning) {
+      if (running) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -20,19 +20,14 @@ public class KeepClimberRotatorVertical extends CommandBase {
   @Override
   public void initialize() {
     System.out.println("Keep Climber Rotator Vertical");
+
+    // The Talon holds the rotator vertical without help from the roboRIO.
+    climberRotator.setPosition(0);
   }
 
   // Called every time the scheduler runs while the command is scheduled.
   @Override
   public void execute() {
-    double tolerance = ClimberRotator.verticalTolerance.getValue();
-    double position = climberRotator.getRotatorPosition();
-    double power = 0;
-
-    if(Math.abs(position) > tolerance) {
-      power = -ClimberRotator.kP.getValue() * position; // do  we need to negate this?
-    }
-    climberRotator.rotateMotor(power);
   }
 
   // Called once the command ends or is interrupted.
@@ -0,0 +1,67 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.commands;
+
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj2.command.CommandBase;
+import frc.robot.subsystems.Claw;
+
+/**
+ * Runs the claw outwards until the cargo has left, or until a timeout if the
+ * cargo is never sensed leaving.
+ *
+ * <p>
+ * This replaces running the claw for a fixed time, which had to allow for the
+ * slowest release.
+ */
+public class OuttakeCargo extends CommandBase {
+  private final Claw claw;
+  private final double power;
+  private final double timeout;
+  private final Timer timer = new Timer();
+
+  /**
+   * Constructs an instance of this class.
+   *
+   * @param claw    The claw subsystem.
+   * @param power   The power to run the rollers, from 0 to 1.
+   * @param timeout The longest time in seconds to run the rollers.
+   */
+  public OuttakeCargo(Claw claw, double power, double timeout) {
+    this.claw = claw;
+    this.power = Math.abs(power);
+    this.timeout = timeout;
+    addRequirements(claw);
+  }
+
+  // Called when the command is initially scheduled.
+  @Override
+  public void initialize() {
+    System.out.println("Outtake Cargo");
+    timer.reset();
+    timer.start();
+    claw.activateClaw(power);
+  }
+
+  // Called every time the scheduler runs while the command is scheduled.
+  @Override
+  public void execute() {
+    claw.activateClaw(power);
+  }
+
+  // Called once the command ends or is interrupted.
+  @Override
+  public void end(boolean interrupted) {
+    claw.stopMotor();
+    System.out.println(String.format("Outtake Cargo %s after %.2f s",
+        claw.isReleased() ? "finished" : "timed out", timer.get()));
+  }
+
+  // Returns true when the command should end.
+  @Override
+  public boolean isFinished() {
+    return claw.isReleased() || timer.hasElapsed(timeout);
+  }
+}
@@ -16,7 +16,7 @@ public class RotateArmToResting extends CommandBase {
     @Override
     public void initialize() {
         System.out.println("\nResting Arm\n");
-        arm.setGoal(Arm.restingAngle.getValue());
+        arm.setGoal(Math.toRadians(Arm.restingAngle.getValue()));
         arm.enable();
     }
 
@@ -34,7 +34,9 @@ public class RotateArmToResting extends CommandBase {
     // Returns true when the command should end.
     @Override
     public boolean isFinished() {
-        return arm.isAtRestingPosition();
+        // The goal is the resting angle itself, which the controller may settle
+        // at without passing, so reaching it also ends the command.
+        return arm.isAtRestingPosition() || arm.isAtGoal();
     }
 }
     
\ No newline at end of file
@@ -0,0 +1,160 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.commands;
+
+import java.util.List;
+
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.trajectory.Trajectory;
+import edu.wpi.first.wpilibj2.command.Command;
+
+/**
+ * A command to start at a point along a trajectory followed by
+ * {@link FollowTrajectory}.
+ *
+ * <p>
+ * A marker can be placed at a time or a distance along the path, measured from
+ * either end, or where the path first enters a rectangular region of the
+ * field. Whatever the key, it is converted to a time on the trajectory when the
+ * follower is created, so the follower only has to compare times while it
+ * runs.
+ */
+public final class TrajectoryMarker {
+  // The time step used to search the trajectory for a region.
+  private static final double REGION_SEARCH_STEP = 0.01; // seconds
+
+  private interface TimeFunction {
+    double getTime(Trajectory trajectory);
+  }
+
+  private final TimeFunction timeFunction;
+  private final Command command;
+
+  private TrajectoryMarker(TimeFunction timeFunction, Command command) {
+    this.timeFunction = timeFunction;
+    this.command = command;
+  }
+
+  /**
+   * Returns a marker at a time after the start of the trajectory.
+   *
+   * @param seconds The time in seconds.
+   * @param command The command to start.
+   */
+  public static TrajectoryMarker atTime(double seconds, Command command) {
+    return new TrajectoryMarker(trajectory -> seconds, command);
+  }
+
+  /**
+   * Returns a marker at a time before the end of the trajectory.
+   *
+   * @param seconds The time in seconds.
+   * @param command The command to start.
+   */
+  public static TrajectoryMarker atTimeFromEnd(double seconds, Command command) {
+    return new TrajectoryMarker(trajectory -> trajectory.getTotalTimeSeconds() - seconds, command);
+  }
+
+  /**
+   * Returns a marker at a distance along the path from its start.
+   *
+   * @param meters  The distance in meters.
+   * @param command The command to start.
+   */
+  public static TrajectoryMarker atDistance(double meters, Command command) {
+    return new TrajectoryMarker(trajectory -> getTimeAtDistance(trajectory, meters), command);
+  }
+
+  /**
+   * Returns a marker at a distance along the path before its end.
+   *
+   * @param meters  The distance in meters.
+   * @param command The command to start.
+   */
+  public static TrajectoryMarker atDistanceFromEnd(double meters, Command command) {
+    return new TrajectoryMarker(
+        trajectory -> getTimeAtDistance(trajectory, getLength(trajectory) - meters), command);
+  }
+
+  /**
+   * Returns a marker where the path first enters a rectangular region of the
+   * field.
+   *
+   * @param corner         One corner of the region.
+   * @param oppositeCorner The opposite corner of the region.
+   * @param command        The command to start.
+   */
+  public static TrajectoryMarker onEntering(Translation2d corner, Translation2d oppositeCorner, Command command) {
+    double minX = Math.min(corner.getX(), oppositeCorner.getX());
+    double maxX = Math.max(corner.getX(), oppositeCorner.getX());
+    double minY = Math.min(corner.getY(), oppositeCorner.getY());
+    double maxY = Math.max(corner.getY(), oppositeCorner.getY());
+
+    return new TrajectoryMarker(trajectory -> {
+      for (double time = 0; time <= trajectory.getTotalTimeSeconds() + REGION_SEARCH_STEP; time += REGION_SEARCH_STEP) {
+        Translation2d position = trajectory.sample(time).poseMeters.getTranslation();
+        if (position.getX() >= minX && position.getX() <= maxX
+            && position.getY() >= minY && position.getY() <= maxY) {
+          return time;
+        }
+      }
+      throw new IllegalArgumentException(
+          String.format("The trajectory does not enter the region (%.2f, %.2f) to (%.2f, %.2f)",
+              minX, minY, maxX, maxY));
+    }, command);
+  }
+
+  /** Returns the command to start at the marker. */
+  public Command getCommand() {
+    return command;
+  }
+
+  /**
+   * Returns the time in seconds at which the marker is reached on a trajectory,
+   * limited to the duration of the trajectory.
+   *
+   * @param trajectory The trajectory.
+   */
+  public double getTime(Trajectory trajectory) {
+    double time = timeFunction.getTime(trajectory);
+    return Math.max(0, Math.min(time, trajectory.getTotalTimeSeconds()));
+  }
+
+  /** Returns the length of the path in meters. */
+  private static double getLength(Trajectory trajectory) {
+    List<Trajectory.State> states = trajectory.getStates();
+    double length = 0;
+
+    for (int i = 1; i < states.size(); ++i) {
+      length += getSegmentLength(states.get(i - 1), states.get(i));
+    }
+
+    return length;
+  }
+
+  /** Returns the time at which the path has covered a distance. */
+  private static double getTimeAtDistance(Trajectory trajectory, double meters) {
+    List<Trajectory.State> states = trajectory.getStates();
+    double distance = 0;
+
+    for (int i = 1; i < states.size(); ++i) {
+      Trajectory.State previous = states.get(i - 1);
+      Trajectory.State current = states.get(i);
+      double segmentLength = getSegmentLength(previous, current);
+
+      if (distance + segmentLength >= meters) {
+        double fraction = segmentLength > 0 ? (meters - distance) / segmentLength : 0;
+        return previous.timeSeconds + fraction * (current.timeSeconds - previous.timeSeconds);
+      }
+      distance += segmentLength;
+    }
+
+    return trajectory.getTotalTimeSeconds();
+  }
+
+  private static double getSegmentLength(Trajectory.State start, Trajectory.State end) {
+    return end.poseMeters.getTranslation().getDistance(start.poseMeters.getTranslation());
+  }
+}
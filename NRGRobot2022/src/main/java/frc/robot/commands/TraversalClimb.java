@@ -0,0 +1,176 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.commands;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj2.command.CommandBase;
+import frc.robot.logging.MatchLog;
+import frc.robot.subsystems.Arm;
+import frc.robot.subsystems.ClimberExtender;
+import frc.robot.subsystems.ClimberHooks;
+import frc.robot.subsystems.ClimberHooks.HookSelection;
+import frc.robot.subsystems.ClimberRotator;
+import frc.robot.subsystems.SwerveDrive;
+
+/**
+ * Climbs from the floor to the traversal rung, driven by a
+ * {@link ClimbStateMachine}.
+ *
+ * <p>
+ * If the command is interrupted before the climb finishes, the climb is
+ * aborted: the robot stops driving and the rotator is held where it is by the
+ * Talon's closed-loop control, which carries on without this command.
+ */
+public class TraversalClimb extends CommandBase {
+  // The arm is raised out of the way of the mid rung.
+  private static final double ARM_CLIMBING_ANGLE = 75; // degrees
+
+  private static final int stateChannel = MatchLog.registerOutput("Climb/State");
+
+  private final SwerveDrive swerveDrive;
+  private final ClimberExtender climberExtender;
+  private final ClimberHooks climberHooks;
+  private final ClimberRotator climberRotator;
+  private final Arm arm;
+
+  private final ClimbStateMachine.Inputs inputs = new ClimbStateMachine.Inputs();
+  private ClimbStateMachine stateMachine;
+
+  /**
+   * Constructs an instance of this class.
+   *
+   * @param swerveDrive     The swerve drive subsystem.
+   * @param climberExtender The climber extender subsystem.
+   * @param climberHooks    The climber hooks subsystem.
+   * @param climberRotator  The climber rotator subsystem.
+   * @param arm             The arm subsystem.
+   */
+  public TraversalClimb(
+      SwerveDrive swerveDrive,
+      ClimberExtender climberExtender,
+      ClimberHooks climberHooks,
+      ClimberRotator climberRotator,
+      Arm arm) {
+    this.swerveDrive = swerveDrive;
+    this.climberExtender = climberExtender;
+    this.climberHooks = climberHooks;
+    this.climberRotator = climberRotator;
+    this.arm = arm;
+    addRequirements(swerveDrive, climberExtender, climberRotator, arm);
+  }
+
+  // Called when the command is initially scheduled.
+  @Override
+  public void initialize() {
+    System.out.println("Traversal Climb");
+
+    ClimbStateMachine.Parameters parameters = new ClimbStateMachine.Parameters();
+    parameters.releaseTravel = ClimberRotator.releaseTravel.getValue();
+    parameters.swingTriggerRate = ClimberRotator.swingTriggerRate.getValue();
+    stateMachine = new ClimbStateMachine(parameters);
+
+    climberExtender.setState(ClimberExtender.State.UP);
+
+    arm.setGoal(Math.toRadians(ARM_CLIMBING_ANGLE));
+    arm.enable();
+
+    // Hold the current heading so the robot backs squarely into the rung.
+    swerveDrive.enableTurnToAngle(swerveDrive.getHeadingDegrees());
+  }
+
+  // Called every time the scheduler runs while the command is scheduled.
+  @Override
+  public void execute() {
+    ClimbStateMachine.State previousState = stateMachine.getState();
+    updateInputs();
+    applyOutputs(stateMachine.update(inputs));
+
+    if (stateMachine.getState() != previousState) {
+      System.out.println(String.format("Climb: %s -> %s at %.3f s",
+          previousState, stateMachine.getState(), stateMachine.getElapsedTime(stateMachine.getStateTimestamp())));
+    }
+  }
+
+  // Called once the command ends or is interrupted.
+  @Override
+  public void end(boolean interrupted) {
+    if (!stateMachine.isFinished()) {
+      updateInputs();
+      stateMachine.abort(inputs, "interrupted");
+      applyOutputs(stateMachine.update(inputs));
+    }
+
+    if (stateMachine.getState() == ClimbStateMachine.State.ABORTED) {
+      DriverStation.reportWarning("Climb aborted: " + stateMachine.getAbortReason(), false);
+    }
+
+    swerveDrive.stopMotors();
+    swerveDrive.disableTurnToAngle();
+  }
+
+  // Returns true when the command should end.
+  @Override
+  public boolean isFinished() {
+    return stateMachine.isFinished();
+  }
+
+  /** Returns the state of the climb. */
+  public ClimbStateMachine.State getState() {
+    return stateMachine != null ? stateMachine.getState() : ClimbStateMachine.State.EXTEND;
+  }
+
+  private void updateInputs() {
+    double now = Timer.getFPGATimestamp();
+
+    inputs.timestamp = now;
+    inputs.extenderSettled = climberExtender.getState() == ClimberExtender.State.UP && climberExtender.isSettled();
+    inputs.hook1Detected = climberHooks.isBarDetected(HookSelection.HOOK_1);
+    inputs.hook2Detected = climberHooks.isBarDetected(HookSelection.HOOK_2);
+    inputs.hook1BrokenTimestamp = climberHooks.getPassedBarTimestamp(HookSelection.HOOK_1);
+    inputs.hook1ClearedTimestamp = climberHooks.getClearedBarTimestamp(HookSelection.HOOK_1);
+    inputs.hook2BrokenTimestamp = climberHooks.getPassedBarTimestamp(HookSelection.HOOK_2);
+    inputs.hook2ClearedTimestamp = climberHooks.getClearedBarTimestamp(HookSelection.HOOK_2);
+    inputs.rotatorPosition = climberRotator.getRotatorPosition();
+    inputs.rotatorFault = climberRotator.isEncoderDiverged();
+    inputs.pitch = swerveDrive.getPitch();
+    inputs.pitchRate = swerveDrive.getPitchRate();
+  }
+
+  private void applyOutputs(ClimbStateMachine.Outputs outputs) {
+    climberExtender.setState(outputs.extenderUp ? ClimberExtender.State.UP : ClimberExtender.State.DOWN);
+
+    if (outputs.driveSpeed != 0) {
+      swerveDrive.drive(outputs.driveSpeed, 0, 0, false, false);
+    } else {
+      swerveDrive.stopMotors();
+    }
+
+    switch (outputs.rotator) {
+      case CLIMB:
+        climberRotator.rotateMotor();
+        break;
+
+      case BACK_DRIVE:
+        climberRotator.backDriveMotor();
+        break;
+
+      case HOLD:
+        // Only send a new target when it changes, so the Talon's loop is not
+        // reset every cycle.
+        if (climberRotator.getControlType() != ClimberRotator.ControlType.POSITION
+            || climberRotator.getClosedLoopTarget() != outputs.holdPosition) {
+          climberRotator.setPosition(outputs.holdPosition);
+        }
+        break;
+
+      default:
+        climberRotator.stopMotor();
+        break;
+    }
+
+    MatchLog.output(stateChannel, stateMachine.getState().ordinal());
+  }
+}
@@ -0,0 +1,59 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.commands;
+
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj2.command.CommandBase;
+import frc.robot.subsystems.Arm;
+
+/**
+ * Waits until the arm is predicted to reach its goal within a lead time, so
+ * that the next action can be timed to start as the arm arrives.
+ *
+ * <p>
+ * The command does not require the arm, so it can run alongside the command
+ * moving it. In case the arm falls behind its profile, the command also ends
+ * shortly after the arrival time predicted when it started.
+ */
+public class WaitForArmArrival extends CommandBase {
+    // How long after the originally predicted arrival to give up waiting.
+    private static final double MAX_LATENESS = 0.25; // seconds
+
+    private final Arm arm;
+    private final double leadTime;
+    private final Timer timer = new Timer();
+    private double deadline;
+
+    /**
+     * Constructs an instance of this class.
+     *
+     * @param arm      The arm subsystem.
+     * @param leadTime How long before the arm arrives to end, in seconds.
+     */
+    public WaitForArmArrival(Arm arm, double leadTime) {
+        this.arm = arm;
+        this.leadTime = leadTime;
+    }
+
+    // Called when the command is initially scheduled.
+    @Override
+    public void initialize() {
+        deadline = Math.max(arm.getTimeToGoal() - leadTime, 0) + MAX_LATENESS;
+        timer.reset();
+        timer.start();
+    }
+
+    // Called once the command ends or is interrupted.
+    @Override
+    public void end(boolean interrupted) {
+        timer.stop();
+    }
+
+    // Returns true when the command should end.
+    @Override
+    public boolean isFinished() {
+        return arm.getTimeToGoal() <= leadTime || timer.hasElapsed(deadline);
+    }
+}
@@ -0,0 +1,341 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.logging;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import edu.wpi.first.wpilibj2.command.ParallelCommandGroup;
+import edu.wpi.first.wpilibj2.command.ParallelDeadlineGroup;
+import edu.wpi.first.wpilibj2.command.ParallelRaceGroup;
+import edu.wpi.first.wpilibj2.command.SequentialCommandGroup;
+import frc.robot.preferences.RobotPreferences.BooleanValue;
+import frc.robot.preferences.RobotPreferencesLayout;
+import frc.robot.preferences.RobotPreferencesValue;
+
+/**
+ * Records when each command starts and ends, including the commands inside
+ * command groups, and exports the timeline as a Chrome trace that can be
+ * opened in chrome://tracing or https://ui.perfetto.dev.
+ *
+ * <p>
+ * Scheduled commands are timed from the scheduler's initialize, finish and
+ * interrupt callbacks. The scheduler does not see the commands inside a group,
+ * which the group runs itself, so the groups are inspected after each
+ * scheduler event and each scheduler run to find which of their commands are
+ * running. Those commands are timed to the scheduler run in which they
+ * started or ended, and one that starts and ends in the same run, such as an
+ * InstantCommand in a sequence, is not seen.
+ *
+ * <p>
+ * Commands run in sequence are nested under their group on its track, and
+ * commands run in parallel each get a track of their own, so dead time in an
+ * autonomous routine shows as a gap in, or a long wait at the bottom of, a
+ * stack. The events are kept with their FPGA timestamps in a preallocated
+ * ring buffer of the last {@value #CAPACITY} events, which is written to a
+ * trace-*.json file in the log directory each time the robot is disabled, so
+ * each match period or simulation run gets a file of its own.
+ */
+@RobotPreferencesLayout(groupName = "CommandTracer", column = 0, row = 4, width = 2, height = 1)
+public final class CommandTracer {
+    @RobotPreferencesValue
+    public static final BooleanValue enableTracing = new BooleanValue("CommandTracer", "enableTracing", false);
+
+    private static final int CAPACITY = 1 << 14;
+
+    private static final byte BEGIN = 0;
+    private static final byte END = 1;
+    private static final byte INTERRUPT = 2;
+
+    /** A command that is running, and the track it is drawn on. */
+    private static final class Slice {
+        final Command command;
+        final int depth;
+        final int track;
+        final Command below;
+        long seen;
+
+        Slice(Command command, int depth, int track, Command below) {
+            this.command = command;
+            this.depth = depth;
+            this.track = track;
+            this.below = below;
+        }
+    }
+
+    // The commands inside the groups are kept in private fields, as this
+    // version of WPILib has no API to get them.
+    private static Field sequentialCommands;
+    private static Field sequentialIndex;
+    private static Field parallelCommands;
+    private static Field raceCommands;
+    private static Field deadlineCommands;
+
+    private static final List<Command> scheduled = new ArrayList<>();
+    private static final Map<Command, Slice> slices = new IdentityHashMap<>();
+    private static final List<Command> trackTops = new ArrayList<>();
+    private static final List<Command> found = new ArrayList<>();
+    private static final List<Command> foundParents = new ArrayList<>();
+    private static final List<Slice> ending = new ArrayList<>();
+    private static long generation;
+    private static Command interrupted;
+
+    private static long[] eventTimes;
+    private static byte[] eventTypes;
+    private static int[] eventTracks;
+    private static String[] eventNames;
+    private static int eventStart;
+    private static int eventCount;
+
+    private static boolean enabled;
+
+    private CommandTracer() {
+    }
+
+    /** Starts tracing commands if it is enabled. */
+    public static void init() {
+        enabled = enableTracing.getValue();
+        if (!enabled) {
+            return;
+        }
+
+        sequentialCommands = getField(SequentialCommandGroup.class, "m_commands");
+        sequentialIndex = getField(SequentialCommandGroup.class, "m_currentCommandIndex");
+        parallelCommands = getField(ParallelCommandGroup.class, "m_commands");
+        raceCommands = getField(ParallelRaceGroup.class, "m_commands");
+        deadlineCommands = getField(ParallelDeadlineGroup.class, "m_commands");
+
+        eventTimes = new long[CAPACITY];
+        eventTypes = new byte[CAPACITY];
+        eventTracks = new int[CAPACITY];
+        eventNames = new String[CAPACITY];
+
+        CommandScheduler scheduler = CommandScheduler.getInstance();
+        scheduler.onCommandInitialize(command -> {
+            scheduled.add(command);
+            update();
+        });
+        scheduler.onCommandFinish(command -> {
+            scheduled.remove(command);
+            update();
+        });
+        scheduler.onCommandInterrupt(command -> {
+            scheduled.remove(command);
+            interrupted = command;
+            update();
+            interrupted = null;
+        });
+    }
+
+    /** Returns a private field of a command group, or null if it has none. */
+    private static Field getField(Class<?> type, String name) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            DriverStation.reportWarning("CommandTracer: cannot trace inside " + type.getSimpleName(), false);
+            return null;
+        }
+    }
+
+    /**
+     * Records the commands in groups that started or ended in this cycle. Call
+     * this just after running the scheduler.
+     */
+    public static void endCycle() {
+        if (enabled) {
+            update();
+        }
+    }
+
+    /**
+     * Finds the running commands and records those that have started or ended
+     * since the last update.
+     */
+    private static void update() {
+        long now = RobotController.getFPGATime();
+        ++generation;
+
+        found.clear();
+        foundParents.clear();
+        for (Command command : scheduled) {
+            addRunning(command, null);
+        }
+
+        // End the commands no longer running, innermost first, so that the
+        // events on each track nest.
+        ending.clear();
+        for (Slice slice : slices.values()) {
+            if (slice.seen != generation) {
+                ending.add(slice);
+            }
+        }
+        if (!ending.isEmpty()) {
+            ending.sort(Comparator.comparingInt((Slice s) -> s.depth).reversed());
+            for (Slice slice : ending) {
+                slices.remove(slice.command);
+                trackTops.set(slice.track, slice.below);
+                record(now, slice.command == interrupted ? INTERRUPT : END, slice.track, null);
+            }
+        }
+
+        // Begin the commands that have started, outermost first.
+        for (int i = 0; i < found.size(); ++i) {
+            Command command = found.get(i);
+            if (!slices.containsKey(command)) {
+                begin(now, command, foundParents.get(i));
+            }
+        }
+    }
+
+    /** Adds a running command and the running commands inside it to found. */
+    @SuppressWarnings("unchecked")
+    private static void addRunning(Command command, Command parent) {
+        Slice slice = slices.get(command);
+        if (slice != null) {
+            slice.seen = generation;
+        }
+        found.add(command);
+        foundParents.add(parent);
+
+        try {
+            if (command instanceof SequentialCommandGroup && sequentialCommands != null && sequentialIndex != null) {
+                List<Command> commands = (List<Command>) sequentialCommands.get(command);
+                int index = sequentialIndex.getInt(command);
+                if (index >= 0 && index < commands.size()) {
+                    addRunning(commands.get(index), command);
+                }
+            } else if (command instanceof ParallelRaceGroup && raceCommands != null) {
+                // A race ends all its commands as soon as one finishes.
+                for (Command child : (Set<Command>) raceCommands.get(command)) {
+                    addRunning(child, command);
+                }
+            } else if (command instanceof ParallelCommandGroup && parallelCommands != null) {
+                addRunning((Map<Command, Boolean>) parallelCommands.get(command), command);
+            } else if (command instanceof ParallelDeadlineGroup && deadlineCommands != null) {
+                addRunning((Map<Command, Boolean>) deadlineCommands.get(command), command);
+            }
+        } catch (IllegalAccessException | ClassCastException e) {
+            // The command is traced without the commands inside it.
+        }
+    }
+
+    /** Adds the commands of a parallel group that are still running. */
+    private static void addRunning(Map<Command, Boolean> commands, Command parent) {
+        for (Map.Entry<Command, Boolean> entry : commands.entrySet()) {
+            if (entry.getValue()) {
+                addRunning(entry.getKey(), parent);
+            }
+        }
+    }
+
+    /**
+     * Records the start of a command. It is nested under its group if nothing
+     * else is, and otherwise put on the first free track.
+     */
+    private static void begin(long now, Command command, Command parent) {
+        Slice parentSlice = parent != null ? slices.get(parent) : null;
+        int track;
+        int depth;
+        if (parentSlice != null && trackTops.get(parentSlice.track) == parent) {
+            track = parentSlice.track;
+            depth = parentSlice.depth + 1;
+        } else {
+            track = trackTops.indexOf(null);
+            if (track < 0) {
+                track = trackTops.size();
+                trackTops.add(null);
+            }
+            depth = parentSlice != null ? parentSlice.depth + 1 : 0;
+        }
+
+        slices.put(command, new Slice(command, depth, track, trackTops.get(track)));
+        trackTops.set(track, command);
+        record(now, BEGIN, track, command.getName());
+    }
+
+    /** Adds an event to the ring buffer, overwriting the oldest if it is full. */
+    private static void record(long time, byte type, int track, String name) {
+        int index = (eventStart + eventCount) & (CAPACITY - 1);
+        if (eventCount == CAPACITY) {
+            eventStart = (eventStart + 1) & (CAPACITY - 1);
+        } else {
+            ++eventCount;
+        }
+
+        eventTimes[index] = time;
+        eventTypes[index] = type;
+        eventTracks[index] = track;
+        eventNames[index] = name;
+    }
+
+    /**
+     * Writes the events recorded since the last export to a Chrome trace file
+     * and clears them. This is called when the robot is disabled.
+     */
+    public static void export() {
+        if (!enabled || eventCount == 0) {
+            return;
+        }
+
+        File directory = MatchLog.getLogDirectory();
+        File file = new File(directory, String.format("trace-%d.json", System.currentTimeMillis()));
+
+        directory.mkdirs();
+        try (Writer writer = new BufferedWriter(new FileWriter(file))) {
+            writeTrace(writer);
+            System.out.println("Wrote command trace to " + file.getAbsolutePath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        eventStart = 0;
+        eventCount = 0;
+    }
+
+    private static void writeTrace(Writer writer) throws IOException {
+        writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+        writer.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1,\"args\":{\"name\":\"Commands\"}}");
+
+        // The begin events of the oldest commands may have been overwritten,
+        // or exported with the last trace, so their end events are dropped.
+        int[] depths = new int[trackTops.size()];
+        for (int i = 0; i < eventCount; ++i) {
+            int index = (eventStart + i) & (CAPACITY - 1);
+            int track = eventTracks[index];
+            String common = String.format("\"ts\":%d,\"pid\":1,\"tid\":%d", eventTimes[index], track);
+
+            if (eventTypes[index] == BEGIN) {
+                ++depths[track];
+                writer.write(String.format(",\n{\"name\":\"%s\",\"ph\":\"B\",%s}", escape(eventNames[index]), common));
+            } else if (depths[track] > 0) {
+                --depths[track];
+                writer.write(String.format(",\n{\"ph\":\"E\",%s%s}", common,
+                        eventTypes[index] == INTERRUPT ? ",\"args\":{\"interrupted\":true}" : ""));
+            }
+        }
+
+        writer.write("\n]}\n");
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
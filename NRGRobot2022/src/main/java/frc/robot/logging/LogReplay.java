@@ -0,0 +1,234 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.logging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.wpilibj.simulation.DriverStationSim;
+import edu.wpi.first.wpilibj.simulation.SimHooks;
+import frc.robot.Robot;
+
+/**
+ * Replays a match log recorded by {@link MatchLog} through the robot code on
+ * the desktop.
+ *
+ * <p>
+ * The robot runs under the HAL simulation with its clock paused. For each
+ * recorded cycle, the clock is stepped by the recorded loop period, the Driver
+ * Station state and joysticks are restored, and the robot loop is run once with
+ * the recorded sensor values in place of the hardware. Replay therefore runs
+ * as fast as the desktop allows and produces the same result every time.
+ *
+ * <p>
+ * The recomputed outputs (motor commands and odometry pose) are written next to
+ * the recorded ones in a CSV file so they can be compared with what the robot
+ * actually did. Run it with:
+ *
+ * <pre>
+ * REPLAY_LOG=logs/match-1234.nrglog ./gradlew simulateJava
+ * </pre>
+ */
+public final class LogReplay {
+    /** The environment variable naming the log to replay. */
+    public static final String REPLAY_LOG_ENV = "REPLAY_LOG";
+
+    private enum Mode {
+        DISABLED, AUTONOMOUS, TELEOP, TEST
+    }
+
+    private final String logPath;
+    private final List<String> inputNames = new ArrayList<>();
+    private final List<String> outputNames = new ArrayList<>();
+
+    private LogReplay(String logPath) {
+        this.logPath = logPath;
+    }
+
+    /**
+     * Replays a match log and writes the comparison of recorded and replayed
+     * outputs to a CSV file alongside the log.
+     *
+     * @param logPath The path to the match log.
+     */
+    public static void run(String logPath) {
+        try {
+            new LogReplay(logPath).replay();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void replay() throws IOException {
+        if (!HAL.initialize(500, 0)) {
+            throw new IllegalStateException("Failed to initialize the HAL");
+        }
+        SimHooks.pauseTiming();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logPath)));
+                PrintWriter csv = new PrintWriter(new BufferedWriter(new FileWriter(logPath + ".replay.csv")))) {
+            readHeader(in);
+
+            MatchLog.startReplay(inputNames);
+            Robot robot = new Robot();
+            robot.robotInit();
+
+            int[] replayedColumns = new int[outputNames.size()];
+            csv.print("Time");
+            for (int i = 0; i < outputNames.size(); ++i) {
+                replayedColumns[i] = MatchLog.findOutput(outputNames.get(i));
+                csv.print("," + outputNames.get(i) + "," + outputNames.get(i) + " (replay)");
+            }
+            csv.println();
+
+            double[] recordedInputs = new double[inputNames.size()];
+            double[] recordedOutputs = new double[outputNames.size()];
+            double[] maxError = new double[outputNames.size()];
+            double previousTimestamp = Double.NaN;
+            Mode previousMode = null;
+            int cycles = 0;
+
+            while (true) {
+                double timestamp;
+                try {
+                    timestamp = in.readDouble();
+                } catch (EOFException e) {
+                    break;
+                }
+                for (int i = 0; i < recordedInputs.length; ++i) {
+                    recordedInputs[i] = in.readDouble();
+                }
+                for (int i = 0; i < recordedOutputs.length; ++i) {
+                    recordedOutputs[i] = in.readDouble();
+                }
+
+                if (!Double.isNaN(previousTimestamp)) {
+                    SimHooks.stepTiming(timestamp - previousTimestamp);
+                }
+                previousTimestamp = timestamp;
+
+                MatchLog.setReplayInputs(recordedInputs);
+                Mode mode = restoreDriverStation();
+                runCycle(robot, mode, mode != previousMode);
+                previousMode = mode;
+
+                double[] replayedOutputs = MatchLog.getOutputs();
+                csv.print(timestamp);
+                for (int i = 0; i < recordedOutputs.length; ++i) {
+                    int column = replayedColumns[i];
+                    double replayed = column >= 0 ? replayedOutputs[column] : Double.NaN;
+                    csv.print("," + recordedOutputs[i] + "," + replayed);
+                    maxError[i] = Math.max(maxError[i], Math.abs(replayed - recordedOutputs[i]));
+                }
+                csv.println();
+                ++cycles;
+            }
+
+            System.out.println(String.format("Replayed %d cycles from %s", cycles, logPath));
+            for (int i = 0; i < outputNames.size(); ++i) {
+                System.out.println(String.format("  %s max error: %f", outputNames.get(i), maxError[i]));
+            }
+        }
+    }
+
+    private void readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MatchLog.MAGIC) {
+            throw new IOException("Not a match log: " + logPath);
+        }
+
+        int version = in.readInt();
+        if (version != MatchLog.VERSION) {
+            throw new IOException("Unsupported match log version " + version + ": " + logPath);
+        }
+
+        readNames(in, inputNames);
+        readNames(in, outputNames);
+    }
+
+    private static void readNames(DataInputStream in, List<String> names) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; ++i) {
+            names.add(in.readUTF());
+        }
+    }
+
+    /** Restores the recorded Driver Station state and returns the robot mode. */
+    private static Mode restoreDriverStation() {
+        boolean enabled = MatchLog.getReplayInput(MatchLog.enabledChannel) != 0;
+        boolean autonomous = MatchLog.getReplayInput(MatchLog.autonomousChannel) != 0;
+        boolean test = MatchLog.getReplayInput(MatchLog.testChannel) != 0;
+
+        DriverStationSim.setDsAttached(true);
+        DriverStationSim.setEnabled(enabled);
+        DriverStationSim.setAutonomous(autonomous);
+        DriverStationSim.setTest(test);
+
+        for (int i = 0; i < MatchLog.JOYSTICK_PORTS.length; ++i) {
+            int port = MatchLog.JOYSTICK_PORTS[i];
+            DriverStationSim.setJoystickAxisCount(port, MatchLog.JOYSTICK_AXES);
+            for (int axis = 0; axis < MatchLog.JOYSTICK_AXES; ++axis) {
+                DriverStationSim.setJoystickAxis(port, axis,
+                        MatchLog.getReplayInput(MatchLog.joystickAxisChannels[i][axis]));
+            }
+            DriverStationSim.setJoystickButtonCount(port, 32);
+            DriverStationSim.setJoystickButtons(port,
+                    (int) MatchLog.getReplayInput(MatchLog.joystickButtonsChannels[i]));
+            DriverStationSim.setJoystickPOVCount(port, 1);
+            DriverStationSim.setJoystickPOV(port, 0,
+                    (int) MatchLog.getReplayInput(MatchLog.joystickPOVChannels[i]));
+        }
+
+        DriverStationSim.notifyNewData();
+
+        if (!enabled) {
+            return Mode.DISABLED;
+        } else if (autonomous) {
+            return Mode.AUTONOMOUS;
+        } else if (test) {
+            return Mode.TEST;
+        }
+        return Mode.TELEOP;
+    }
+
+    /** Runs one iteration of the robot loop in the same order as TimedRobot. */
+    private static void runCycle(Robot robot, Mode mode, boolean modeChanged) {
+        switch (mode) {
+            case DISABLED:
+                if (modeChanged) {
+                    robot.disabledInit();
+                }
+                robot.disabledPeriodic();
+                break;
+            case AUTONOMOUS:
+                if (modeChanged) {
+                    robot.autonomousInit();
+                }
+                robot.autonomousPeriodic();
+                break;
+            case TELEOP:
+                if (modeChanged) {
+                    robot.teleopInit();
+                }
+                robot.teleopPeriodic();
+                break;
+            case TEST:
+                if (modeChanged) {
+                    robot.testInit();
+                }
+                robot.testPeriodic();
+                break;
+        }
+        robot.robotPeriodic();
+    }
+}
@@ -0,0 +1,372 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.logging;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.RobotBase;
+import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.wpilibj.Timer;
+import frc.robot.preferences.RobotPreferences.BooleanValue;
+import frc.robot.preferences.RobotPreferencesLayout;
+import frc.robot.preferences.RobotPreferencesValue;
+
+/**
+ * Records the sensor inputs and actuator outputs of the robot once per cycle so
+ * that a match can be replayed on the desktop using {@link LogReplay}.
+ *
+ * <p>
+ * Subsystems register named input and output channels when they are
+ * constructed. Each cycle, sensor values are passed through
+ * {@link #input(int, double)} before they are used. While recording, the
+ * hardware value is stored and returned unchanged. While replaying, the value
+ * recorded in the log is returned instead, so the control code sees exactly
+ * what it saw during the match. The channels in each record are fixed when the
+ * log is opened, so a channel registered later still passes its values through
+ * but is not recorded.
+ *
+ * <p>
+ * Inputs and outputs may be passed through the log from the control thread as
+ * well as the main loop. They are guarded by the class lock, and each cycle's
+ * values are copied under it before they are written, so a record never mixes
+ * values from two cycles and the control thread is never held up by the disk.
+ */
+@RobotPreferencesLayout(groupName = "MatchLog", column = 6, row = 3, width = 2, height = 1)
+public final class MatchLog {
+    @RobotPreferencesValue
+    public static final BooleanValue enableLogging = new BooleanValue("MatchLog", "enableLogging", false);
+
+    static final int MAGIC = 0x4E52474C; // "NRGL"
+    static final int VERSION = 1;
+
+    private static final int MAX_CHANNELS = 256;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final List<String> inputNames = new ArrayList<>();
+    private static final List<String> outputNames = new ArrayList<>();
+    private static final double[] inputs = new double[MAX_CHANNELS];
+    private static final double[] outputs = new double[MAX_CHANNELS];
+    private static final double[] inputSnapshot = new double[MAX_CHANNELS];
+    private static final double[] outputSnapshot = new double[MAX_CHANNELS];
+
+    // The driver and manipulator controllers.
+    static final int[] JOYSTICK_PORTS = { 2, 3 };
+    static final int JOYSTICK_AXES = 6;
+
+    static final int enabledChannel = registerInput("DriverStation/Enabled");
+    static final int autonomousChannel = registerInput("DriverStation/Autonomous");
+    static final int testChannel = registerInput("DriverStation/Test");
+    static final int[][] joystickAxisChannels = new int[JOYSTICK_PORTS.length][JOYSTICK_AXES];
+    static final int[] joystickButtonsChannels = new int[JOYSTICK_PORTS.length];
+    static final int[] joystickPOVChannels = new int[JOYSTICK_PORTS.length];
+    private static final int batteryVoltageChannel = registerInput("RobotController/BatteryVoltage");
+
+    static {
+        for (int i = 0; i < JOYSTICK_PORTS.length; ++i) {
+            String prefix = "DriverStation/Joystick" + JOYSTICK_PORTS[i];
+            for (int axis = 0; axis < JOYSTICK_AXES; ++axis) {
+                joystickAxisChannels[i][axis] = registerInput(prefix + "/Axis" + axis);
+            }
+            joystickButtonsChannels[i] = registerInput(prefix + "/Buttons");
+            joystickPOVChannels[i] = registerInput(prefix + "/POV");
+        }
+    }
+
+    private static DataOutputStream logStream;
+    private static int recordedInputCount;
+    private static int recordedOutputCount;
+    private static boolean logOpenAttempted;
+    private static boolean batteryVoltageRead;
+
+    // Replay state. The column arrays map registered channels to columns in the
+    // log being replayed, or -1 when the log does not contain the channel.
+    private static boolean replaying;
+    private static List<String> replayInputNames;
+    private static int[] replayInputColumns = new int[0];
+    private static double[] replayInputs;
+
+    private MatchLog() {
+    }
+
+    /**
+     * Registers a sensor input channel.
+     *
+     * @param name The channel name, e.g. "Arm/EncoderOutput".
+     *
+     * @return The channel index to pass to {@link #input(int, double)}.
+     */
+    public static synchronized int registerInput(String name) {
+        return register(inputNames, name);
+    }
+
+    /**
+     * Registers an actuator output channel.
+     *
+     * @param name The channel name, e.g. "Arm/MotorVoltage".
+     *
+     * @return The channel index to pass to {@link #output(int, double)}.
+     */
+    public static synchronized int registerOutput(String name) {
+        return register(outputNames, name);
+    }
+
+    private static int register(List<String> names, String name) {
+        int index = names.indexOf(name);
+        if (index >= 0) {
+            return index;
+        }
+
+        if (logStream != null) {
+            // The log header fixes the channels in each record, so the channel
+            // works but is not recorded.
+            System.err.println("WARNING: MatchLog channel registered after logging started is not recorded: " + name);
+        }
+
+        if (names.size() >= MAX_CHANNELS) {
+            throw new IllegalStateException("Too many MatchLog channels registered: " + name);
+        }
+
+        names.add(name);
+        return names.size() - 1;
+    }
+
+    /**
+     * Passes a sensor value through the log. While recording, the value is stored
+     * and returned. While replaying, the recorded value is returned instead.
+     *
+     * @param channel The channel index returned by {@link #registerInput(String)}.
+     * @param value   The value read from the hardware.
+     *
+     * @return The value the control code should use.
+     */
+    public static synchronized double input(int channel, double value) {
+        if (replaying) {
+            int column = channel < replayInputColumns.length ? replayInputColumns[channel] : -1;
+            if (column >= 0) {
+                value = replayInputs[column];
+            }
+        }
+        inputs[channel] = value;
+        return value;
+    }
+
+    /**
+     * Passes a digital sensor value through the log.
+     *
+     * @see #input(int, double)
+     */
+    public static boolean input(int channel, boolean value) {
+        return input(channel, value ? 1.0 : 0.0) != 0.0;
+    }
+
+    /**
+     * Records an actuator output.
+     *
+     * @param channel The channel index returned by
+     *                {@link #registerOutput(String)}.
+     * @param value   The value sent to the actuator.
+     */
+    public static synchronized void output(int channel, double value) {
+        outputs[channel] = value;
+    }
+
+    /**
+     * Returns the battery voltage. The voltage is read once per cycle, by
+     * whichever thread asks first, so every caller sees the same value, both on
+     * the robot and during replay.
+     */
+    public static synchronized double getBatteryVoltage() {
+        if (!batteryVoltageRead) {
+            input(batteryVoltageChannel, RobotController.getBatteryVoltage());
+            batteryVoltageRead = true;
+        }
+        return inputs[batteryVoltageChannel];
+    }
+
+    /** Returns whether a match log is being replayed. */
+    public static boolean isReplaying() {
+        return replaying;
+    }
+
+    /**
+     * Completes the current cycle. This must be called once at the end of every
+     * robot loop, after the command scheduler has run.
+     */
+    public static void endCycle() {
+        if (!replaying && !logOpenAttempted) {
+            logOpenAttempted = true;
+            if (enableLogging.getValue()) {
+                open();
+            }
+        }
+
+        boolean recording = !replaying && logStream != null;
+        if (recording) {
+            recordDriverStation();
+        }
+
+        // The battery voltage is read again in the next cycle, so it belongs to
+        // the snapshot taken along with it.
+        int inputCount;
+        int outputCount;
+        synchronized (MatchLog.class) {
+            inputCount = recording ? recordedInputCount : 0;
+            outputCount = recording ? recordedOutputCount : 0;
+            System.arraycopy(inputs, 0, inputSnapshot, 0, inputCount);
+            System.arraycopy(outputs, 0, outputSnapshot, 0, outputCount);
+            batteryVoltageRead = false;
+        }
+
+        if (!recording) {
+            return;
+        }
+
+        try {
+            logStream.writeDouble(Timer.getFPGATimestamp());
+            for (int i = 0; i < inputCount; ++i) {
+                logStream.writeDouble(inputSnapshot[i]);
+            }
+            for (int i = 0; i < outputCount; ++i) {
+                logStream.writeDouble(outputSnapshot[i]);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            close();
+        }
+    }
+
+    /** Flushes buffered log records to disk. */
+    public static void flush() {
+        if (logStream == null) {
+            return;
+        }
+
+        try {
+            logStream.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+            close();
+        }
+    }
+
+    /** Stores the Driver Station state so that joystick commands can be replayed. */
+    private static void recordDriverStation() {
+        input(enabledChannel, DriverStation.isEnabled());
+        input(autonomousChannel, DriverStation.isAutonomous());
+        input(testChannel, DriverStation.isTest());
+
+        for (int i = 0; i < JOYSTICK_PORTS.length; ++i) {
+            int port = JOYSTICK_PORTS[i];
+            int axisCount = Math.min(DriverStation.getStickAxisCount(port), JOYSTICK_AXES);
+            for (int axis = 0; axis < JOYSTICK_AXES; ++axis) {
+                input(joystickAxisChannels[i][axis], axis < axisCount ? DriverStation.getStickAxis(port, axis) : 0.0);
+            }
+            input(joystickButtonsChannels[i], DriverStation.getStickButtons(port));
+            input(joystickPOVChannels[i], DriverStation.getStickPOVCount(port) > 0 ? DriverStation.getStickPOV(port, 0) : -1);
+        }
+    }
+
+    /** Opens a new log file and writes the channel names to its header. */
+    private static void open() {
+        File directory = getLogDirectory();
+        File file = new File(directory, String.format("match-%d.nrglog", System.currentTimeMillis()));
+
+        try {
+            directory.mkdirs();
+            logStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+            logStream.writeInt(MAGIC);
+            logStream.writeInt(VERSION);
+            synchronized (MatchLog.class) {
+                recordedInputCount = inputNames.size();
+                recordedOutputCount = outputNames.size();
+                writeNames(logStream, inputNames);
+                writeNames(logStream, outputNames);
+            }
+            System.out.println("Logging match data to " + file.getAbsolutePath());
+        } catch (IOException e) {
+            e.printStackTrace();
+            close();
+        }
+    }
+
+    /** Returns the directory logs are written to. */
+    static File getLogDirectory() {
+        return new File(RobotBase.isReal() ? "/home/lvuser/logs" : "logs");
+    }
+
+    private static void writeNames(DataOutputStream stream, List<String> names) throws IOException {
+        stream.writeInt(names.size());
+        for (String name : names) {
+            stream.writeUTF(name);
+        }
+    }
+
+    private static void close() {
+        if (logStream == null) {
+            return;
+        }
+
+        try {
+            logStream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        logStream = null;
+    }
+
+    /**
+     * Switches the log into replay mode.
+     *
+     * @param recordedInputNames The input channel names stored in the log header.
+     */
+    static synchronized void startReplay(List<String> recordedInputNames) {
+        replaying = true;
+        replayInputNames = recordedInputNames;
+        replayInputs = new double[recordedInputNames.size()];
+        mapReplayColumns();
+    }
+
+    /** Supplies the recorded inputs for the next cycle. */
+    static synchronized void setReplayInputs(double[] recordedInputs) {
+        if (replayInputColumns.length != inputNames.size()) {
+            mapReplayColumns();
+        }
+        System.arraycopy(recordedInputs, 0, replayInputs, 0, replayInputs.length);
+    }
+
+    private static void mapReplayColumns() {
+        replayInputColumns = new int[inputNames.size()];
+        for (int i = 0; i < replayInputColumns.length; ++i) {
+            replayInputColumns[i] = replayInputNames.indexOf(inputNames.get(i));
+        }
+    }
+
+    /** Returns the index of a registered output channel, or -1 if none exists. */
+    static synchronized int findOutput(String name) {
+        return outputNames.indexOf(name);
+    }
+
+    /**
+     * Returns the recorded value of an input channel for the current replay
+     * cycle, or zero if the log does not contain the channel.
+     */
+    static double getReplayInput(int channel) {
+        int column = replayInputColumns[channel];
+        return column >= 0 ? replayInputs[column] : 0.0;
+    }
+
+    /** Returns a copy of the outputs recorded during the current cycle. */
+    static synchronized double[] getOutputs() {
+        return Arrays.copyOf(outputs, outputNames.size());
+    }
+}
@@ -0,0 +1,323 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.logging;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import edu.wpi.first.wpilibj2.command.Subsystem;
+import frc.robot.preferences.RobotPreferences.BooleanValue;
+import frc.robot.preferences.RobotPreferencesLayout;
+import frc.robot.preferences.RobotPreferencesValue;
+import frc.robot.utilities.LatencyHistogram;
+
+/**
+ * Times every subsystem's periodic method and every command's initialize,
+ * execute and end methods each time the command scheduler runs, to find what
+ * makes the robot loop overrun.
+ *
+ * <p>
+ * The scheduler has no hooks around subsystem periodic methods, so a marker
+ * subsystem is inserted after each registered subsystem in the scheduler's
+ * table, which it runs in order, so each marker records the time the
+ * subsystem before it finished. The table is private, so the markers are
+ * inserted by reflection, keeping the subsystems in the order they were
+ * registered along with their default commands. If that fails, a single
+ * marker after them all times the subsystems together as "Subsystems". The
+ * buttons are polled next, in the
+ * order they were bound, so a button bound after all the others ends the time
+ * taken to poll them, which is counted as "Buttons". Buttons bound after
+ * profiling starts are polled after it, and counted with the first command
+ * event instead. Commands are timed from the scheduler's initialize, execute,
+ * finish and interrupt callbacks, each of which ends the interval since the
+ * previous event. The scheduler has no callback after a command's isFinished,
+ * so its time cannot be separated, and is counted with the execute of the
+ * command after it, or with its own end when it finishes. Time after the last
+ * event is counted as "Scheduler". Entries are keyed by subsystem class and
+ * command name, so the table does not grow as new instances of a command are
+ * scheduled.
+ *
+ * <p>
+ * Each interval is recorded in a preallocated {@link LatencyHistogram}. When
+ * a cycle overruns the loop period, the interval that took longest in it is
+ * blamed. Once a second the slowest entries by 99th percentile are published
+ * to SmartDashboard as Profiler/Top, and the full table is printed when the
+ * robot is disabled. Profiling costs a few microseconds per cycle, and nothing
+ * while the enableProfiling preference is off.
+ */
+@RobotPreferencesLayout(groupName = "Profiler", column = 3, row = 3, width = 1, height = 1)
+public final class SchedulerProfiler {
+    @RobotPreferencesValue
+    public static final BooleanValue enableProfiling = new BooleanValue("Profiler", "enableProfiling", false);
+
+    private static final int TOP_COUNT = 5;
+    private static final long PUBLISH_PERIOD = 1_000_000; // us
+
+    /** The timings of one method of one command or subsystem. */
+    private static final class Entry {
+        final String name;
+        final LatencyHistogram histogram = new LatencyHistogram();
+        long cycleTime;
+        boolean touched;
+        long overrunsBlamed;
+        long overrunTime;
+
+        Entry(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final List<Entry> entries = new ArrayList<>();
+    private static final Map<String, Entry[]> commandEntries = new HashMap<>();
+    private static final Map<String, Entry> subsystemEntries = new HashMap<>();
+    private static Entry[] touchedEntries = new Entry[32];
+    private static int touchedCount;
+
+    private static final int INITIALIZE = 0;
+    private static final int EXECUTE = 1;
+    private static final int END = 2;
+    private static final String[] PHASES = { ".initialize", ".execute", ".end" };
+
+    private static final Entry buttonsEntry = createEntry("Buttons");
+    private static final Entry schedulerEntry = createEntry("Scheduler");
+    private static final LatencyHistogram cycleHistogram = new LatencyHistogram();
+    private static Entry[] markerEntries = new Entry[0];
+    private static int nextMarker;
+
+    private static boolean enabled;
+    private static long overrunThreshold;
+    private static long cycleStart;
+    private static long lastMark;
+    private static long lastPublish;
+    private static long overruns;
+
+    private SchedulerProfiler() {
+    }
+
+    /**
+     * Starts profiling if it is enabled. This must be called once all the
+     * subsystems, their default commands and the button bindings have been
+     * created, and before any command is scheduled.
+     *
+     * @param period The robot loop period in seconds.
+     */
+    public static void init(double period) {
+        enabled = enableProfiling.getValue();
+        if (!enabled) {
+            return;
+        }
+
+        overrunThreshold = (long) (period * 1e6);
+
+        CommandScheduler scheduler = CommandScheduler.getInstance();
+        if (!insertMarkers(scheduler)) {
+            DriverStation.reportWarning("SchedulerProfiler: cannot time subsystems individually", false);
+            markerEntries = new Entry[] { createEntry("Subsystems") };
+            scheduler.registerSubsystem(createMarker());
+        }
+        scheduler.addButton(() -> mark(buttonsEntry));
+
+        scheduler.onCommandInitialize(command -> mark(getEntry(command, INITIALIZE)));
+        scheduler.onCommandExecute(command -> mark(getEntry(command, EXECUTE)));
+        scheduler.onCommandFinish(command -> mark(getEntry(command, END)));
+        scheduler.onCommandInterrupt(command -> mark(getEntry(command, END)));
+    }
+
+    /**
+     * Inserts a marker after each subsystem registered with the scheduler,
+     * without changing their order or default commands.
+     *
+     * @return Whether the markers were inserted.
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean insertMarkers(CommandScheduler scheduler) {
+        Map<Subsystem, Command> registered;
+        try {
+            Field field = CommandScheduler.class.getDeclaredField("m_subsystems");
+            field.setAccessible(true);
+            registered = (Map<Subsystem, Command>) field.get(scheduler);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return false;
+        }
+
+        // Each marker ends the interval taken by the subsystem before it.
+        Map<Subsystem, Command> subsystems = new LinkedHashMap<>(registered);
+        List<Entry> markers = new ArrayList<>();
+        registered.clear();
+        for (Map.Entry<Subsystem, Command> subsystem : subsystems.entrySet()) {
+            registered.put(subsystem.getKey(), subsystem.getValue());
+            registered.put(createMarker(), null);
+            markers.add(getEntry(subsystem.getKey()));
+        }
+
+        markerEntries = markers.toArray(new Entry[0]);
+        return true;
+    }
+
+    /**
+     * Returns a subsystem whose periodic method ends the interval of the next
+     * marker entry.
+     */
+    private static Subsystem createMarker() {
+        return new Subsystem() {
+            @Override
+            public void periodic() {
+                if (nextMarker < markerEntries.length) {
+                    mark(markerEntries[nextMarker++]);
+                }
+            }
+        };
+    }
+
+    /** Starts timing a cycle. Call this just before running the scheduler. */
+    public static void beginCycle() {
+        if (!enabled) {
+            return;
+        }
+
+        cycleStart = System.nanoTime();
+        lastMark = cycleStart;
+        nextMarker = 0;
+    }
+
+    /** Ends timing a cycle. Call this just after running the scheduler. */
+    public static void endCycle() {
+        if (!enabled) {
+            return;
+        }
+
+        mark(schedulerEntry);
+
+        long cycleTime = (lastMark - cycleStart) / 1000;
+        cycleHistogram.record(cycleTime);
+
+        Entry worst = null;
+        for (int i = 0; i < touchedCount; ++i) {
+            Entry entry = touchedEntries[i];
+            if (cycleTime > overrunThreshold) {
+                entry.overrunTime += entry.cycleTime;
+                if (worst == null || entry.cycleTime > worst.cycleTime) {
+                    worst = entry;
+                }
+            }
+            entry.histogram.record(entry.cycleTime);
+            entry.cycleTime = 0;
+            entry.touched = false;
+        }
+        touchedCount = 0;
+
+        if (worst != null) {
+            worst.overrunsBlamed++;
+            overruns++;
+        }
+
+        long now = lastMark / 1000;
+        if (now - lastPublish >= PUBLISH_PERIOD) {
+            lastPublish = now;
+            SmartDashboard.putStringArray("Profiler/Top", getReport(TOP_COUNT));
+        }
+    }
+
+    /** Ends the interval since the last event, charging it to an entry. */
+    private static void mark(Entry entry) {
+        long now = System.nanoTime();
+        entry.cycleTime += (now - lastMark) / 1000;
+        lastMark = now;
+
+        if (!entry.touched) {
+            entry.touched = true;
+            if (touchedCount == touchedEntries.length) {
+                touchedEntries = Arrays.copyOf(touchedEntries, 2 * touchedCount);
+            }
+            touchedEntries[touchedCount++] = entry;
+        }
+    }
+
+    private static Entry getEntry(Command command, int phase) {
+        String name = command.getName();
+        Entry[] phases = commandEntries.get(name);
+        if (phases == null) {
+            phases = new Entry[PHASES.length];
+            for (int i = 0; i < PHASES.length; ++i) {
+                phases[i] = createEntry(name + PHASES[i]);
+            }
+            commandEntries.put(name, phases);
+        }
+        return phases[phase];
+    }
+
+    private static Entry getEntry(Subsystem subsystem) {
+        String name = subsystem.getClass().getSimpleName();
+        if (name.isEmpty()) {
+            name = subsystem.getClass().getName();
+        }
+        return subsystemEntries.computeIfAbsent(name + ".periodic", SchedulerProfiler::createEntry);
+    }
+
+    private static Entry createEntry(String name) {
+        Entry entry = new Entry(name);
+        entries.add(entry);
+        return entry;
+    }
+
+    /**
+     * Returns a line for each of the slowest entries by 99th percentile, and a
+     * line for the whole cycle first.
+     */
+    private static String[] getReport(int count) {
+        List<Entry> sorted = new ArrayList<>(entries);
+        sorted.removeIf(e -> e.histogram.getCount() == 0);
+        sorted.sort(Comparator.comparingLong((Entry e) -> e.histogram.getPercentile(0.99)).reversed());
+
+        int lines = Math.min(count, sorted.size());
+        String[] report = new String[lines + 1];
+        report[0] = format("Cycle", cycleHistogram, overruns, 0);
+        for (int i = 0; i < lines; ++i) {
+            Entry entry = sorted.get(i);
+            report[i + 1] = format(entry.name, entry.histogram, entry.overrunsBlamed, entry.overrunTime);
+        }
+        return report;
+    }
+
+    private static String format(String name, LatencyHistogram histogram, long overruns, long overrunTime) {
+        return String.format("%s: mean %.0f us, p99 %d us, max %d us, %d overruns (%.1f ms)",
+                name, histogram.getMean(), histogram.getPercentile(0.99), histogram.getMax(),
+                overruns, overrunTime / 1000.0);
+    }
+
+    /**
+     * Prints the timings of every entry, slowest first, and starts afresh. This
+     * is called when the robot is disabled, so each period of a match is
+     * reported separately.
+     */
+    public static void printReport() {
+        if (!enabled || cycleHistogram.getCount() == 0) {
+            return;
+        }
+
+        System.out.println(String.format("Scheduler profile over %d cycles:", cycleHistogram.getCount()));
+        for (String line : getReport(entries.size())) {
+            System.out.println("  " + line);
+        }
+
+        cycleHistogram.reset();
+        overruns = 0;
+        for (Entry entry : entries) {
+            entry.histogram.reset();
+            entry.overrunsBlamed = 0;
+            entry.overrunTime = 0;
+        }
+    }
+}
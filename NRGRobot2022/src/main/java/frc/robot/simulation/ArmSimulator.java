@@ -0,0 +1,119 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.simulation;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.system.plant.DCMotor;
+import edu.wpi.first.math.util.Units;
+import edu.wpi.first.wpilibj.DigitalInput;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.DutyCycle;
+import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.wpilibj.motorcontrol.MotorController;
+import edu.wpi.first.wpilibj.simulation.DIOSim;
+import edu.wpi.first.wpilibj.simulation.DutyCycleSim;
+import edu.wpi.first.wpilibj.simulation.SingleJointedArmSim;
+import frc.robot.Constants.ArmConstants;
+import frc.robot.subsystems.Arm;
+
+/**
+ * Simulates the physics of the arm and drives its simulated sensors.
+ *
+ * <p>
+ * The arm is modelled as a uniform rod driven by a MiniCIM through a 100:1
+ * reduction, matching the estimate used for the arm's default feedforward
+ * gains. Its travel is limited by hard stops a few degrees beyond the resting
+ * and stowed angles, and each limit switch closes as the arm comes within a
+ * couple of degrees of its stop. The duty-cycle encoder output is computed
+ * from the arm angle with the same level angle offset and wrap as the robot
+ * code uses to convert it back.
+ */
+public class ArmSimulator {
+    private static final double PERIOD = 0.02; // seconds
+    private static final double GEARING = 100.0;
+    private static final double ARM_MASS = Units.lbsToKilograms(15);
+
+    // A uniform rod has its center of mass half way along it.
+    private static final double ARM_LENGTH = 2.0 * Units.inchesToMeters(21.5);
+
+    private static final double HARD_STOP_MARGIN = 5.0; // degrees beyond the resting and stowed angles
+    private static final double LIMIT_SWITCH_TRAVEL = 2.0; // degrees from the hard stop
+
+    private final MotorController motor;
+    private final DIOSim restingLimitSwitch;
+    private final DIOSim scoringLimitSwitch;
+    private final DutyCycleSim encoder;
+    private final SingleJointedArmSim armSim;
+    private final double minAngle;
+    private final double maxAngle;
+
+    /**
+     * Constructs a simulator with the arm resting against its lower hard stop.
+     *
+     * @param motor              The arm motor controller.
+     * @param restingLimitSwitch The limit switch at the resting position.
+     * @param scoringLimitSwitch The limit switch at the stowed position.
+     * @param encoder            The arm's duty-cycle absolute encoder.
+     */
+    public ArmSimulator(
+            MotorController motor,
+            DigitalInput restingLimitSwitch,
+            DigitalInput scoringLimitSwitch,
+            DutyCycle encoder) {
+        this.motor = motor;
+        this.restingLimitSwitch = new DIOSim(restingLimitSwitch);
+        this.scoringLimitSwitch = new DIOSim(scoringLimitSwitch);
+        this.encoder = new DutyCycleSim(encoder);
+
+        minAngle = Math.toRadians(Arm.restingAngle.getValue() - HARD_STOP_MARGIN);
+        maxAngle = Math.toRadians(Arm.stowedAngle.getValue() + HARD_STOP_MARGIN);
+        armSim = new SingleJointedArmSim(
+                DCMotor.getMiniCIM(1),
+                GEARING,
+                SingleJointedArmSim.estimateMOI(ARM_LENGTH, ARM_MASS),
+                ARM_LENGTH,
+                minAngle,
+                maxAngle,
+                ARM_MASS,
+                true);
+        armSim.setState(VecBuilder.fill(minAngle, 0));
+        updateSensors();
+    }
+
+    /** Advances the simulation by one robot cycle. */
+    public void update() {
+        // Motor controllers do not drive their outputs while the robot is disabled.
+        double voltage = DriverStation.isEnabled() ? motor.get() * RobotController.getBatteryVoltage() : 0;
+
+        armSim.setInput(voltage);
+        armSim.update(PERIOD);
+        updateSensors();
+    }
+
+    /** Returns the simulated arm angle in radians. */
+    public double getAngle() {
+        return armSim.getAngleRads();
+    }
+
+    /** Returns the simulated motor current in amps. */
+    public double getCurrentDraw() {
+        return armSim.getCurrentDrawAmps();
+    }
+
+    private void updateSensors() {
+        double angle = armSim.getAngleRads();
+
+        // The inverse of Arm.getRadians(), wrapped to the encoder's range.
+        double rotations = 1.0 - (Math.toRadians(Arm.levelAngleOffset.getValue()) - angle)
+                / ArmConstants.kEncoderDistancePerRotation;
+        encoder.setOutput(MathUtil.inputModulus(rotations, 0, 1));
+
+        // The limit switches read false when pressed.
+        double travel = Math.toRadians(LIMIT_SWITCH_TRAVEL);
+        restingLimitSwitch.setValue(angle > minAngle + travel);
+        scoringLimitSwitch.setValue(angle < maxAngle - travel);
+    }
+}
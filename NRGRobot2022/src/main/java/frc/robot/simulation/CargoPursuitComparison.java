@@ -0,0 +1,385 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.simulation;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import frc.robot.commands.CargoPursuit;
+import frc.robot.subsystems.RaspberryPiVision;
+import frc.robot.subsystems.SwerveDrive;
+import frc.robot.vision.CargoTrack;
+import frc.robot.vision.CargoTracker;
+import frc.robot.vision.VisionSimulator;
+import frc.robot.vision.VisionSnapshot;
+
+/**
+ * Compares how quickly the robot picks up a cargo with the {@link CargoPursuit}
+ * steering of DriveToCargo and with the steering DriveToCargo used before it.
+ *
+ * <p>
+ * Each cargo is placed at random in view of the camera, either at rest or
+ * rolling, and each steering law drives a model of the robot to it. The robot
+ * reaches the commanded field velocity at up to its acceleration limit, and
+ * turns to the commanded heading at the turn-to-angle controller's speed
+ * limit. The cargo is picked up if it meets the intake, at the front of the
+ * robot, while the intake faces it and is moving slowly enough to capture it.
+ * The time for the intake to reach the cargo is reported whether or not it
+ * is picked up, and the time to pick it up for those that are.
+ *
+ * <p>
+ * Both steering laws see the cargo through a {@link VisionSimulator}, which
+ * publishes frames with its processing latency, noise and dropped frames to
+ * NetworkTables, where they are read back as RaspberryPiVision reads them. The
+ * simulator is given the pipeline request and the cargo half a second before
+ * each attempt starts, as the driver would see the cargo before pressing the
+ * button. The old steering drives straight at the cargo's bearing in the
+ * latest frame at full speed, and ends once the cargo is within the pickup
+ * distance or out of view. Its mixed up angle units are corrected here, or it
+ * would not reach the cargo at all. As it stops short of the cargo, the driver
+ * is assumed to finish the pickup by driving straight at the cargo at the
+ * pickup speed. The new steering follows the cargo's track in a
+ * {@link CargoTracker} fed with the same frames, as DriveToCargo does.
+ *
+ * <pre>
+ * Usage:
+ *   ./gradlew cargoPursuitComparison [-PcomparisonArgs="[--cargo N] [--seed N] [--accel A] [--capture-speed V] [--pickup-speed V]"]
+ * </pre>
+ */
+public final class CargoPursuitComparison {
+    private static final double PERIOD = 0.02; // seconds
+    private static final double MAX_TIME = 8; // seconds
+
+    // How long the simulated camera sees the cargo before the attempt starts.
+    private static final double WARM_UP_TIME = 0.5; // seconds
+
+    // The distance at which the old steering ended.
+    private static final double PICKUP_DISTANCE = 1.0; // meters
+
+    // The defaults of DriveToCargo's preferences.
+    private static final double PURSUIT_PICKUP_SPEED = 1.5; // m/s
+    private static final double PURSUIT_PICKUP_DISTANCE = 0.8; // meters
+    private static final double PURSUIT_ACCELERATION = 4.0; // m/s^2
+    private static final double INTAKE_OFFSET = 0.45; // meters ahead of the robot's center
+    private static final double INTAKE_RADIUS = 0.2; // meters
+    private static final double BODY_RADIUS = 0.3; // meters
+    private static final double MAX_HEADING_ERROR = Math.toRadians(20);
+    private static final double CAMERA_HALF_FOV = Math.toRadians(30);
+    private static final double MAX_FRAME_AGE = RaspberryPiVision.MAX_TARGET_AGE; // seconds
+
+    private static final int FRAME_LENGTH = 6;
+
+    /** How a pickup attempt ended. */
+    private enum Outcome {
+        PICKED_UP, TOO_FAST, MISALIGNED, MISSED, TIMEOUT
+    }
+
+    /** The start of one pickup attempt. */
+    private static class Scenario {
+        Translation2d cargo;
+        Translation2d cargoVelocity;
+        long seed;
+    }
+
+    /** The result of one pickup attempt. */
+    private static class Result {
+        Outcome outcome;
+        double time;
+        double contactSpeed;
+    }
+
+    /** Reads the frames published by the vision simulator, as RaspberryPiVision does. */
+    private static class Camera {
+        final long request;
+        final CargoTracker tracker;
+        VisionSnapshot latest = VisionSnapshot.NONE;
+        long lastSequence = -1;
+
+        Camera(long request, CargoTracker tracker) {
+            this.request = request;
+            this.tracker = tracker;
+        }
+
+        /**
+         * Takes the latest frame, if it is new and from the requested pipeline.
+         *
+         * @param now   The current time in seconds.
+         * @param poses The robot pose in each cycle so far.
+         */
+        void receive(double now, Pose2d[] poses) {
+            double[] frame = frameEntry.getDoubleArray(new double[0]);
+            if (frame.length >= FRAME_LENGTH && (long) frame[0] != lastSequence) {
+                lastSequence = (long) frame[0];
+                if ((long) frame[5] == request) {
+                    double latency = frame[1] / 1000.0;
+                    latest = new VisionSnapshot(lastSequence, request, frame[2] != 0, frame[3], frame[4], latency,
+                            now - latency);
+                    int cycle = (int) Math.max(0, Math.min(Math.round((now - latency) / PERIOD), poses.length - 1));
+                    tracker.addSnapshot(latest, poses[cycle]);
+                }
+            }
+            tracker.removeStaleTracks(now);
+        }
+    }
+
+    private static final NetworkTableEntry frameEntry = NetworkTableInstance.getDefault()
+            .getEntry(RaspberryPiVision.TARGET_FRAME_KEY);
+    private static final NetworkTableEntry requestEntry = NetworkTableInstance.getDefault()
+            .getEntry(RaspberryPiVision.TARGET_PIPELINE_REQUEST_KEY);
+    private static long pipelineRequest;
+
+    private static double physicalAcceleration = 4.0; // m/s^2
+    private static double captureSpeed = 2.0; // m/s
+    private static double pickupSpeed = 1.0; // m/s
+
+    private CargoPursuitComparison() {
+    }
+
+    public static void main(String... args) {
+        int cargoCount = 200;
+        long seed = 2022;
+
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "--cargo":
+                    cargoCount = Integer.parseInt(args[++i]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--accel":
+                    physicalAcceleration = Double.parseDouble(args[++i]);
+                    break;
+                case "--capture-speed":
+                    captureSpeed = Double.parseDouble(args[++i]);
+                    break;
+                case "--pickup-speed":
+                    pickupSpeed = Double.parseDouble(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        Random random = new Random(seed);
+        Scenario[] resting = new Scenario[cargoCount / 2];
+        Scenario[] rolling = new Scenario[cargoCount - resting.length];
+        for (int i = 0; i < resting.length; ++i) {
+            resting[i] = createScenario(random, false);
+        }
+        for (int i = 0; i < rolling.length; ++i) {
+            rolling[i] = createScenario(random, true);
+        }
+
+        System.out.println(String.format(
+                "%d cargo, %.1f m/s^2 acceleration, %.1f m/s capture speed, %.1f m/s driver pickup speed",
+                cargoCount, physicalAcceleration, captureSpeed, pickupSpeed));
+        System.out.println(String.format("%-18s %-8s %9s %9s %9s %9s %12s  %s",
+                "Cargo", "Steering", "Reach (s)", "Picked up", "Mean (s)", "p90 (s)", "Contact m/s", "Failures"));
+        report("At rest", resting);
+        report("Rolling", rolling);
+    }
+
+    /** Returns a cargo at random in view of the camera of a robot at rest at the origin. */
+    private static Scenario createScenario(Random random, boolean rolling) {
+        Scenario scenario = new Scenario();
+        double distance = 2 + 3 * random.nextDouble();
+        double bearing = CAMERA_HALF_FOV * 0.8 * (2 * random.nextDouble() - 1);
+        scenario.cargo = new Translation2d(distance, new Rotation2d(bearing));
+        scenario.cargoVelocity = rolling
+                ? new Translation2d(0.3 + 1.2 * random.nextDouble(), new Rotation2d(2 * Math.PI * random.nextDouble()))
+                : new Translation2d();
+        scenario.seed = random.nextLong();
+        return scenario;
+    }
+
+    private static void report(String name, Scenario[] scenarios) {
+        for (boolean pursuit : new boolean[] { false, true }) {
+            int[] outcomes = new int[Outcome.values().length];
+            double[] times = new double[scenarios.length];
+            double contactSpeed = 0;
+            double contactTime = 0;
+            int contacts = 0;
+            int pickups = 0;
+
+            for (Scenario scenario : scenarios) {
+                Result result = run(scenario, pursuit);
+                outcomes[result.outcome.ordinal()]++;
+                if (result.time > 0) {
+                    contactTime += result.time;
+                    contacts++;
+                }
+                if (result.outcome == Outcome.PICKED_UP) {
+                    times[pickups++] = result.time;
+                    contactSpeed += result.contactSpeed;
+                }
+            }
+
+            times = Arrays.copyOf(times, pickups);
+            Arrays.sort(times);
+
+            StringBuilder failures = new StringBuilder();
+            for (Outcome outcome : Outcome.values()) {
+                if (outcome != Outcome.PICKED_UP && outcomes[outcome.ordinal()] > 0) {
+                    failures.append(String.format("%s %d ", outcome, outcomes[outcome.ordinal()]));
+                }
+            }
+
+            System.out.println(String.format("%-18s %-8s %9.2f %8.0f%% %9.2f %9.2f %12.2f  %s",
+                    String.format("%s (%d)", name, scenarios.length),
+                    pursuit ? "Pursuit" : "Old",
+                    contacts > 0 ? contactTime / contacts : Double.NaN,
+                    100.0 * pickups / scenarios.length,
+                    pickups > 0 ? Arrays.stream(times).average().getAsDouble() : Double.NaN,
+                    pickups > 0 ? times[(int) Math.min(pickups - 1, Math.ceil(0.9 * pickups) - 1)] : Double.NaN,
+                    pickups > 0 ? contactSpeed / pickups : Double.NaN,
+                    failures.toString().trim()));
+        }
+    }
+
+    /** Drives the robot model to a cargo with one of the steering laws. */
+    private static Result run(Scenario scenario, boolean usePursuit) {
+        // Each attempt makes a new pipeline request, so frames left over from
+        // the previous attempt are ignored.
+        long request = ++pipelineRequest;
+        frameEntry.setDoubleArray(new double[0]);
+        String[] requestValue = new String[2];
+        requestValue[RaspberryPiVision.REQUEST_PIPELINE_NAME] = RaspberryPiVision.BLUE_CARGO_PIPELINE;
+        requestValue[RaspberryPiVision.REQUEST_NUMBER] = Long.toString(request);
+        requestEntry.setStringArray(requestValue);
+
+        VisionSimulator simulator = new VisionSimulator(scenario.seed);
+        simulator.addCargo(scenario.cargo.minus(scenario.cargoVelocity.times(WARM_UP_TIME)), scenario.cargoVelocity,
+                false);
+        CargoTracker tracker = new CargoTracker();
+        Camera camera = new Camera(request, tracker);
+
+        int warmUpCycles = (int) Math.round(WARM_UP_TIME / PERIOD);
+        Pose2d[] poses = new Pose2d[warmUpCycles + (int) Math.ceil(MAX_TIME / PERIOD) + 1];
+        Translation2d robot = new Translation2d();
+        Translation2d velocity = new Translation2d();
+        double heading = 0;
+        Translation2d cargo = scenario.cargo.minus(scenario.cargoVelocity.times(WARM_UP_TIME));
+
+        CargoPursuit pursuit = new CargoPursuit(PURSUIT_PICKUP_SPEED, PURSUIT_PICKUP_DISTANCE, PURSUIT_ACCELERATION,
+                new Translation2d());
+        int trackId = -1;
+        boolean oldCommandRunning = true;
+
+        Result result = new Result();
+        for (int cycle = 0; cycle < poses.length; ++cycle) {
+            double now = cycle * PERIOD;
+            double time = now - WARM_UP_TIME;
+            Pose2d pose = new Pose2d(robot, new Rotation2d(heading));
+            poses[cycle] = pose;
+            simulator.update(now, pose);
+            camera.receive(now, poses);
+
+            if (cycle < warmUpCycles) {
+                cargo = cargo.plus(scenario.cargoVelocity.times(PERIOD));
+                continue;
+            }
+
+            // Steer.
+            Translation2d command;
+            double targetHeading = heading;
+            Translation2d toCargo = cargo.minus(robot);
+            if (usePursuit) {
+                CargoTrack track = pursuit.isFinished() ? null : findTrack(tracker, trackId, pose, now);
+                if (track != null) {
+                    trackId = track.getId();
+                }
+                command = pursuit.update(robot, track != null ? track.getPosition(now) : null,
+                        track != null ? track.getVelocity() : null, SwerveDrive.MAX_SPEED, PERIOD);
+                if (pursuit.getHeading() != null) {
+                    targetHeading = pursuit.getHeading().getRadians();
+                }
+                if (pursuit.isFinished()) {
+                    break;
+                }
+            } else {
+                VisionSnapshot frame = camera.latest;
+                boolean seen = frame.hasTarget() && now - frame.getCaptureTimestamp() < MAX_FRAME_AGE;
+                if (oldCommandRunning && (!seen || frame.getDistance() < PICKUP_DISTANCE)) {
+                    oldCommandRunning = false;
+                }
+
+                if (oldCommandRunning) {
+                    targetHeading = heading + Math.toRadians(frame.getAngle());
+                    command = new Translation2d(SwerveDrive.MAX_SPEED, new Rotation2d(targetHeading));
+                } else {
+                    // The driver takes over and drives straight at the cargo.
+                    targetHeading = Math.atan2(toCargo.getY(), toCargo.getX());
+                    command = new Translation2d(pickupSpeed, new Rotation2d(targetHeading));
+                }
+            }
+
+            // Move the robot and the cargo.
+            Translation2d change = command.minus(velocity);
+            double maxChange = physicalAcceleration * PERIOD;
+            if (change.getNorm() > maxChange) {
+                change = change.times(maxChange / change.getNorm());
+            }
+            velocity = velocity.plus(change);
+            if (velocity.getNorm() > SwerveDrive.MAX_SPEED) {
+                velocity = velocity.times(SwerveDrive.MAX_SPEED / velocity.getNorm());
+            }
+            robot = robot.plus(velocity.times(PERIOD));
+
+            double maxTurn = SwerveDrive.MAX_AUTO_ANGULAR_SPEED * PERIOD;
+            heading += Math.max(-maxTurn, Math.min(maxTurn, angleDifference(targetHeading, heading)));
+            cargo = cargo.plus(scenario.cargoVelocity.times(PERIOD));
+
+            // Check whether the cargo has met the intake or the robot.
+            Translation2d intake = robot.plus(new Translation2d(INTAKE_OFFSET, new Rotation2d(heading)));
+            toCargo = cargo.minus(robot);
+            if (intake.getDistance(cargo) < INTAKE_RADIUS) {
+                double headingError = Math.abs(angleDifference(Math.atan2(toCargo.getY(), toCargo.getX()), heading));
+                Translation2d relativeVelocity = velocity.minus(scenario.cargoVelocity);
+                result.time = time + PERIOD;
+                result.contactSpeed = relativeVelocity.getNorm();
+                if (headingError > MAX_HEADING_ERROR) {
+                    result.outcome = Outcome.MISALIGNED;
+                } else if (result.contactSpeed > captureSpeed) {
+                    result.outcome = Outcome.TOO_FAST;
+                } else {
+                    result.outcome = Outcome.PICKED_UP;
+                }
+                return result;
+            }
+            if (toCargo.getNorm() < BODY_RADIUS) {
+                result.outcome = Outcome.MISSED;
+                return result;
+            }
+        }
+
+        result.outcome = usePursuit && pursuit.isFinished() ? Outcome.MISSED : Outcome.TIMEOUT;
+        return result;
+    }
+
+    /**
+     * Returns the track being pursued, or the best track if it is no longer
+     * being tracked, as DriveToCargo chooses it.
+     */
+    private static CargoTrack findTrack(CargoTracker tracker, int trackId, Pose2d pose, double now) {
+        for (CargoTrack track : tracker.getTracks()) {
+            if (track.getId() == trackId) {
+                return track;
+            }
+        }
+        return tracker.getBestTrack(pose, now);
+    }
+
+    /** Returns the difference between two angles, wrapped to within pi. */
+    private static double angleDifference(double a, double b) {
+        return Math.IEEEremainder(a - b, 2 * Math.PI);
+    }
+}
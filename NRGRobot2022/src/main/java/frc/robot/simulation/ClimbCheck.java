@@ -0,0 +1,180 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import frc.robot.commands.ClimbStateMachine;
+import frc.robot.commands.ClimbStateMachine.RotatorDemand;
+import frc.robot.commands.ClimbStateMachine.State;
+
+/**
+ * Checks the climb state machine against the {@link ClimbSimulator}.
+ *
+ * <p>
+ * Each robot, the nominal one and a few at the edges of the sweep's range,
+ * must climb to the traversal rung and end in the done state. Then the climb
+ * is aborted in the first cycle of each state. Once aborted it must stay
+ * aborted, hold the rotator every cycle, and never let go of the rung the
+ * robot was hanging from, and an abort caused by a rotator fault must leave
+ * the rotator in brake mode instead. The process exits with a non-zero status
+ * if any check fails, so it can be run before deploying a change to the climb.
+ *
+ * <pre>
+ * Usage:
+ *   ./gradlew climbCheck
+ * </pre>
+ */
+public final class ClimbCheck {
+    private static final double PERIOD = 0.02; // seconds
+    private static final double MAX_CLIMB_TIME = 30; // seconds
+
+    // The time the climber extender takes to settle before its up time has
+    // been measured.
+    private static final double EXTEND_WAIT = 3.0; // seconds
+
+    // How long the climb is run once it has been aborted.
+    private static final double ABORT_TIME = 3.0; // seconds
+
+    private static final List<String> failures = new ArrayList<>();
+    private static int checks;
+
+    private ClimbCheck() {
+    }
+
+    public static void main(String... args) {
+        List<String> names = new ArrayList<>();
+        List<ClimbSimulator.Properties> robots = new ArrayList<>();
+
+        names.add("nominal");
+        robots.add(new ClimbSimulator.Properties());
+
+        ClimbSimulator.Properties heavy = new ClimbSimulator.Properties();
+        heavy.mass *= 1.1;
+        heavy.comDistance *= 1.3;
+        names.add("heavy");
+        robots.add(heavy);
+
+        ClimbSimulator.Properties lively = new ClimbSimulator.Properties();
+        lively.damping *= 0.5;
+        lively.bodyInertia *= 0.8;
+        names.add("lively");
+        robots.add(lively);
+
+        ClimbSimulator.Properties weak = new ClimbSimulator.Properties();
+        weak.batteryVoltage -= 1.5;
+        weak.maxCaptureSpeed *= 0.8;
+        names.add("low battery");
+        robots.add(weak);
+
+        for (int i = 0; i < robots.size(); ++i) {
+            checkClimb(names.get(i), robots.get(i));
+            for (State state : State.values()) {
+                if (state != State.DONE && state != State.ABORTED) {
+                    checkAbort(names.get(i), robots.get(i), state, false);
+                }
+            }
+            checkAbort(names.get(i), robots.get(i), State.WAIT_FOR_SWING, true);
+        }
+
+        for (String failure : failures) {
+            System.out.println("FAILED: " + failure);
+        }
+        System.out.println(String.format("%d of %d checks passed", checks - failures.size(), checks));
+
+        if (!failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    /** Checks that the robot climbs to the traversal rung. */
+    private static void checkClimb(String name, ClimbSimulator.Properties robot) {
+        ClimbSimulator simulator = new ClimbSimulator(robot);
+        ClimbStateMachine stateMachine = new ClimbStateMachine(new ClimbStateMachine.Parameters());
+        ClimbStateMachine.Inputs inputs = new ClimbStateMachine.Inputs();
+
+        while (!stateMachine.isFinished() && simulator.getTime() < MAX_CLIMB_TIME) {
+            step(simulator, stateMachine, inputs);
+        }
+
+        check(stateMachine.getState() == State.DONE && simulator.getRung() == 2,
+                String.format("%s robot ended in %s on rung %d %s%s", name, stateMachine.getState(),
+                        simulator.getRung(), stateMachine.getAbortReason(),
+                        simulator.getFault() != ClimbSimulator.Fault.NONE ? " " + simulator.getFault() : ""));
+    }
+
+    /**
+     * Checks that aborting the climb in a state stops it safely.
+     *
+     * @param fault Whether the abort is caused by a rotator fault rather than
+     *              requested.
+     */
+    private static void checkAbort(String name, ClimbSimulator.Properties robot, State abortState, boolean fault) {
+        ClimbSimulator simulator = new ClimbSimulator(robot);
+        ClimbStateMachine stateMachine = new ClimbStateMachine(new ClimbStateMachine.Parameters());
+        ClimbStateMachine.Inputs inputs = new ClimbStateMachine.Inputs();
+        String description = String.format("%s robot aborted in %s%s", name, abortState, fault ? " by a fault" : "");
+
+        while (stateMachine.getState() != abortState && !stateMachine.isFinished()
+                && simulator.getTime() < MAX_CLIMB_TIME) {
+            step(simulator, stateMachine, inputs);
+        }
+        if (!check(stateMachine.getState() == abortState,
+                description + ": the climb ended in " + stateMachine.getState() + " before reaching the state")) {
+            return;
+        }
+
+        int rung = simulator.getRung();
+        RotatorDemand expected = fault ? RotatorDemand.STOP : RotatorDemand.HOLD;
+        String problem = null;
+
+        simulator.getInputs(inputs);
+        inputs.extenderSettled = simulator.getTime() >= EXTEND_WAIT;
+        inputs.rotatorFault = fault;
+        if (!fault) {
+            stateMachine.abort(inputs, "check");
+        }
+
+        double endTime = simulator.getTime() + ABORT_TIME;
+        while (problem == null && simulator.getTime() < endTime) {
+            simulator.getInputs(inputs);
+            inputs.extenderSettled = simulator.getTime() >= EXTEND_WAIT;
+            inputs.rotatorFault = fault;
+            ClimbStateMachine.Outputs outputs = stateMachine.update(inputs);
+
+            if (stateMachine.getState() != State.ABORTED) {
+                problem = "the climb is in " + stateMachine.getState();
+            } else if (outputs.rotator != expected) {
+                problem = "the rotator demand is " + outputs.rotator;
+            } else if (outputs.driveSpeed != 0) {
+                problem = "the robot is driving";
+            }
+            simulator.update(outputs, PERIOD);
+        }
+
+        if (problem == null && simulator.getRung() != rung) {
+            problem = String.format("the robot moved from rung %d to rung %d", rung, simulator.getRung());
+        }
+        check(problem == null, description + ": " + problem);
+    }
+
+    /** Runs one cycle of the climb. */
+    private static void step(ClimbSimulator simulator, ClimbStateMachine stateMachine,
+            ClimbStateMachine.Inputs inputs) {
+        simulator.getInputs(inputs);
+        inputs.extenderSettled = simulator.getTime() >= EXTEND_WAIT;
+        simulator.update(stateMachine.update(inputs), PERIOD);
+    }
+
+    /** Records a check, and its failure if the condition is false. */
+    private static boolean check(boolean condition, String failure) {
+        ++checks;
+        if (!condition) {
+            failures.add(failure);
+        }
+        return condition;
+    }
+}
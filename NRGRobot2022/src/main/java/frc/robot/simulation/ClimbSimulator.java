@@ -0,0 +1,417 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.simulation;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.system.plant.DCMotor;
+import edu.wpi.first.math.util.Units;
+import frc.robot.commands.ClimbStateMachine;
+
+/**
+ * Simulates the physics of the robot climbing from the mid rung to the
+ * traversal rung.
+ *
+ * <p>
+ * The model is planar. The rotator is a bar with a hook at each end, turned
+ * about an axle on the robot by two Falcon 500s. While the robot hangs from one
+ * hook it is a double pendulum: the rotator swings about the rung, and the
+ * robot body swings about the axle, coupled through the motor torque and the
+ * inertia the gearbox reflects from the motors. In brake mode the shorted
+ * motors damp the rotator rather than locking it. While both hooks hold a rung
+ * the rotator cannot move and only the body swings.
+ *
+ * <p>
+ * A free hook catches a rung when it passes within the capture radius, which
+ * breaks its beam, unless it arrives faster than the hook can take it, in
+ * which case it bounces off. How fast it arrives depends on the swing of the
+ * robot as well as the rotator speed, which is why the swing is timed. The hook latches once the rotator turns on by the latch
+ * angle with the rung still in the hook, and the beam clears. If the rung
+ * leaves the hook first, the beam clears without the hook latching. The
+ * hanging hook lets go of its rung when the rotator is back-driven by the
+ * release angle while the other hook is latched.
+ *
+ * <p>
+ * Before the robot hangs, the extender rises at a constant rate after a valve
+ * delay, and the robot drives back into the mid rung, which the hook catches
+ * only if the extender is fully up. Driving forwards with the hook on the rung
+ * pulls the rotator round. The robot hangs from the rung once it stops driving.
+ *
+ * <p>
+ * The simulator uses no hardware or simulation hooks, so a climb can be run as
+ * fast as the desktop allows. The robot code's preferences are not available
+ * here, so the motor powers and closed-loop gain are given in the
+ * {@link Properties}, defaulting to the preferences' defaults.
+ */
+public class ClimbSimulator {
+    // The 2022 rung heights and spacing.
+    private static final double[] RUNG_X = { 0, Units.inchesToMeters(24), Units.inchesToMeters(48) };
+    private static final double[] RUNG_Y = {
+            Units.inchesToMeters(60.25), Units.inchesToMeters(75.625), Units.inchesToMeters(91) };
+
+    // The hooks are as far apart as the rungs.
+    private static final double HOOK_SPACING = Math.hypot(RUNG_X[1] - RUNG_X[0], RUNG_Y[1] - RUNG_Y[0]);
+    private static final double ROTATOR_RADIUS = HOOK_SPACING / 2;
+
+    private static final double GRAVITY = 9.81;
+    private static final double STEP = 0.0005; // seconds
+
+    private static final DCMotor MOTORS = DCMotor.getFalcon500(2);
+    private static final double ROTOR_INERTIA = 0.0001; // kg m^2 per motor, estimated
+    private static final double ENCODER_TICKS_PER_REVOLUTION = 2048;
+
+    private static final double MAX_DRIVE_SPEED = 4.0; // meters per second
+
+    // The frame comes up against the rungs at this pitch.
+    private static final double PITCH_LIMIT = Math.toRadians(60);
+
+    // The fraction of its speed a hook keeps when it bounces off a rung.
+    private static final double RESTITUTION = 0.3;
+    private static final double VALVE_DELAY = 0.05; // seconds
+
+    /** The physical properties of one simulated robot. */
+    public static class Properties {
+        public double mass = 50; // kg
+        public double comDistance = 0.3; // meters from the axle
+        public double bodyInertia = 2.5; // kg m^2 about the center of mass
+        public double rotatorInertia = 0.2; // kg m^2 about the axle
+        public double damping = 2.0; // N m s / rad at the rung and the axle
+        public double gearing = 100;
+        public double startDistance = 0.5; // meters from the mid rung
+        public double extenderTravelTime = 1.0; // seconds
+        public double captureRadius = 0.05; // meters
+        public double maxCaptureSpeed = 3.0; // meters per second
+        public double latchAngle = Math.toRadians(4);
+        public double releaseAngle = Math.toRadians(2);
+        public double climbingPower = 0.5;
+        public double backDrivePower = -0.15;
+        public double holdKP = 0.00004; // fraction of full power per encoder tick
+        public double batteryVoltage = 12.0;
+    }
+
+    /** How the simulated climb has gone wrong, if it has. */
+    public enum Fault {
+        NONE,
+        /** The robot drove into the mid rung before the extender was fully up. */
+        HIT_RUNG
+    }
+
+    private final Properties properties;
+    private final double ticksPerRadian;
+    private final double reflectedInertia;
+
+    private double time;
+    private Fault fault = Fault.NONE;
+
+    private double extenderStart = Double.NaN;
+    private double extension;
+    private double distance;
+
+    // The rung the robot hangs from, or -1 before it has caught the mid rung,
+    // and which hook it hangs from.
+    private int rung = -1;
+    private int hangingHook;
+    private boolean hanging;
+
+    // The angle of the rotator from hook 1 towards the axle, and of the body
+    // from the axle towards its center of mass, both measured from straight
+    // down and positive towards the traversal rung.
+    private double rotatorAngle;
+    private double rotatorVelocity;
+    private double bodyAngle;
+    private double bodyVelocity;
+
+    // The free hook's progress onto the next rung.
+    private boolean inCapture;
+    private boolean bounced;
+    private double captureAngle;
+    private boolean latched;
+    private double latchAngle;
+
+    private final boolean[] beamBroken = new boolean[2];
+    private final double[] brokenTimestamps = { Double.NaN, Double.NaN };
+    private final double[] clearedTimestamps = { Double.NaN, Double.NaN };
+
+    /**
+     * Constructs a simulator with the robot on the floor in front of the mid
+     * rung, its extender down and its rotator vertical.
+     *
+     * @param properties The physical properties of the robot.
+     */
+    public ClimbSimulator(Properties properties) {
+        this.properties = properties;
+        this.ticksPerRadian = ENCODER_TICKS_PER_REVOLUTION * properties.gearing / (2 * Math.PI);
+        this.reflectedInertia = properties.rotatorInertia
+                + 2 * ROTOR_INERTIA * properties.gearing * properties.gearing;
+        this.distance = properties.startDistance;
+    }
+
+    /** Returns the simulated time in seconds. */
+    public double getTime() {
+        return time;
+    }
+
+    /** Returns the rung the robot hangs from, 0 to 2 from the mid rung, or -1. */
+    public int getRung() {
+        return rung;
+    }
+
+    /** Returns whether both hooks hold a rung. */
+    public boolean isDoubleLatched() {
+        return latched;
+    }
+
+    /** Returns how the climb has gone wrong, if it has. */
+    public Fault getFault() {
+        return fault;
+    }
+
+    /** Returns the rotator position in encoder ticks, zero when vertical. */
+    public double getRotatorPosition() {
+        return (rotatorAngle - bodyAngle) * ticksPerRadian;
+    }
+
+    /**
+     * Fills in the sensor readings, with the hook beam edges since the last call.
+     *
+     * @param inputs The sensor readings to fill in.
+     */
+    public void getInputs(ClimbStateMachine.Inputs inputs) {
+        inputs.timestamp = time;
+        inputs.hook1Detected = beamBroken[0];
+        inputs.hook2Detected = beamBroken[1];
+        inputs.hook1BrokenTimestamp = brokenTimestamps[0];
+        inputs.hook2BrokenTimestamp = brokenTimestamps[1];
+        inputs.hook1ClearedTimestamp = clearedTimestamps[0];
+        inputs.hook2ClearedTimestamp = clearedTimestamps[1];
+        inputs.rotatorPosition = getRotatorPosition();
+        inputs.rotatorFault = false;
+        inputs.pitch = Math.toDegrees(bodyAngle);
+        inputs.pitchRate = Math.toDegrees(bodyVelocity);
+
+        for (int hook = 0; hook < 2; ++hook) {
+            brokenTimestamps[hook] = Double.NaN;
+            clearedTimestamps[hook] = Double.NaN;
+        }
+    }
+
+    /**
+     * Advances the simulation.
+     *
+     * @param outputs The actuator demands.
+     * @param period  The time to advance in seconds.
+     */
+    public void update(ClimbStateMachine.Outputs outputs, double period) {
+        double end = time + period;
+
+        while (time < end - STEP / 2) {
+            time += STEP;
+            updateExtender(outputs.extenderUp);
+
+            if (!hanging) {
+                updateOnFloor(outputs);
+            } else if (latched) {
+                updateDoubleLatched(outputs);
+            } else {
+                updateHanging(outputs);
+            }
+        }
+    }
+
+    private void updateExtender(boolean extenderUp) {
+        if (!extenderUp) {
+            extenderStart = Double.NaN;
+            extension = 0;
+        } else if (Double.isNaN(extenderStart)) {
+            extenderStart = time;
+        } else {
+            extension = Math.min((time - extenderStart - VALVE_DELAY) / properties.extenderTravelTime, 1);
+        }
+    }
+
+    private void updateOnFloor(ClimbStateMachine.Outputs outputs) {
+        double speed = outputs.driveSpeed * MAX_DRIVE_SPEED;
+
+        if (rung < 0) {
+            distance += speed * STEP;
+            if (distance <= 0 && fault == Fault.NONE) {
+                if (extension < 1) {
+                    // The robot stops against the rung below the hook.
+                    distance = 0;
+                    fault = Fault.HIT_RUNG;
+                } else {
+                    rung = 0;
+                    hangingHook = 0;
+                    setBeam(0, true);
+                }
+            }
+            return;
+        }
+
+        // The hook holds the rung, so driving away from it turns the rotator.
+        if (speed > 0) {
+            rotatorAngle += speed / ROTATOR_RADIUS * STEP;
+        } else if (speed == 0) {
+            hanging = true;
+        }
+    }
+
+    /** Returns the fraction of full power applied to the motors. */
+    private double getMotorPower(ClimbStateMachine.Outputs outputs) {
+        switch (outputs.rotator) {
+            case CLIMB:
+                return properties.climbingPower;
+            case BACK_DRIVE:
+                return properties.backDrivePower;
+            case HOLD:
+                double error = outputs.holdPosition - getRotatorPosition();
+                return Math.max(-1, Math.min(properties.holdKP * error, 1));
+            default:
+                // In brake mode the motor leads are shorted together.
+                return 0;
+        }
+    }
+
+    /** Returns the torque the motors apply to the rotator. */
+    private double getMotorTorque(double power, double relativeVelocity) {
+        double motorSpeed = relativeVelocity * properties.gearing;
+        double current = (power * properties.batteryVoltage - motorSpeed / MOTORS.KvRadPerSecPerVolt) / MOTORS.rOhms;
+        return properties.gearing * MOTORS.KtNMPerAmp * current;
+    }
+
+    private void updateHanging(ClimbStateMachine.Outputs outputs) {
+        double m = properties.mass;
+        double r = ROTATOR_RADIUS;
+        double c = properties.comDistance;
+        double j = reflectedInertia;
+
+        // The swing angle of the rotator about the rung from the hanging hook.
+        double theta = rotatorAngle + Math.PI * hangingHook;
+        double phi = bodyAngle;
+        double sin = Math.sin(theta - phi);
+        double cos = Math.cos(theta - phi);
+        double torque = getMotorTorque(getMotorPower(outputs), rotatorVelocity - bodyVelocity);
+
+        // The equations of motion of the double pendulum, M a = q.
+        double m11 = m * r * r + j;
+        double m12 = m * r * c * cos - j;
+        double m22 = m * c * c + properties.bodyInertia + j;
+        double q1 = -m * GRAVITY * r * Math.sin(theta) - m * r * c * sin * bodyVelocity * bodyVelocity
+                + torque - properties.damping * rotatorVelocity;
+        double q2 = -m * GRAVITY * c * Math.sin(phi) + m * r * c * sin * rotatorVelocity * rotatorVelocity
+                - torque - properties.damping * bodyVelocity;
+
+        double determinant = m11 * m22 - m12 * m12;
+        double rotatorAcceleration = (q1 * m22 - q2 * m12) / determinant;
+        double bodyAcceleration = (q2 * m11 - q1 * m12) / determinant;
+
+        // The wheels keep the body level until the robot leaves the mid rung, and
+        // the frame stops against the rungs.
+        boolean atPitchLimit = Math.abs(phi) >= PITCH_LIMIT && bodyAcceleration * phi > 0;
+        if (rung == 0 || atPitchLimit) {
+            bodyVelocity = 0;
+            bodyAcceleration = 0;
+            rotatorAcceleration = q1 / m11;
+        }
+
+        rotatorVelocity += rotatorAcceleration * STEP;
+        bodyVelocity += bodyAcceleration * STEP;
+        rotatorAngle += rotatorVelocity * STEP;
+        bodyAngle += bodyVelocity * STEP;
+        limitPitch();
+
+        updateFreeHook();
+    }
+
+    private void updateDoubleLatched(ClimbStateMachine.Outputs outputs) {
+        double m = properties.mass;
+        double c = properties.comDistance;
+
+        // The rotator is held by both rungs, so the body swings about the axle.
+        double power = getMotorPower(outputs);
+        double torque = getMotorTorque(power, -bodyVelocity);
+        double inertia = m * c * c + properties.bodyInertia + reflectedInertia;
+        double bodyAcceleration = (-m * GRAVITY * c * Math.sin(bodyAngle) - torque
+                - properties.damping * bodyVelocity) / inertia;
+
+        bodyVelocity += bodyAcceleration * STEP;
+        bodyAngle += bodyVelocity * STEP;
+        limitPitch();
+
+        // Back-driving the rotator lifts the hanging hook off its rung. The body
+        // swinging forwards turns the rotator back relative to it too, but
+        // does not lift the hook unless the motors are driving it back.
+        if (power < 0 && rotatorAngle - bodyAngle <= latchAngle - properties.releaseAngle) {
+            latched = false;
+            setBeam(hangingHook, false);
+            rung++;
+            hangingHook = 1 - hangingHook;
+        }
+    }
+
+    /** Stops the body against the rungs. */
+    private void limitPitch() {
+        if (Math.abs(bodyAngle) > PITCH_LIMIT) {
+            bodyAngle = Math.copySign(PITCH_LIMIT, bodyAngle);
+            bodyVelocity = 0;
+        }
+    }
+
+    /** Tracks the free hook catching and latching onto the next rung. */
+    private void updateFreeHook() {
+        if (rung >= RUNG_X.length - 1) {
+            return;
+        }
+
+        double theta = rotatorAngle + Math.PI * hangingHook;
+        double hookX = RUNG_X[rung] + HOOK_SPACING * Math.sin(theta);
+        double hookY = RUNG_Y[rung] - HOOK_SPACING * Math.cos(theta);
+        double miss = Math.hypot(hookX - RUNG_X[rung + 1], hookY - RUNG_Y[rung + 1]);
+        int freeHook = 1 - hangingHook;
+        double position = rotatorAngle - bodyAngle;
+
+        if (!inCapture) {
+            if (miss >= properties.captureRadius) {
+                bounced = false;
+            } else if (!bounced && HOOK_SPACING * Math.abs(rotatorVelocity) > properties.maxCaptureSpeed) {
+                bounced = true;
+                rotatorVelocity *= -RESTITUTION;
+            } else if (!bounced) {
+                inCapture = true;
+                captureAngle = position;
+                setBeam(freeHook, true);
+            }
+            return;
+        }
+
+        if (miss >= properties.captureRadius) {
+            // The rung slipped out of the hook before it latched.
+            inCapture = false;
+            setBeam(freeHook, false);
+        } else if (position - captureAngle >= properties.latchAngle) {
+            inCapture = false;
+            latched = true;
+            setBeam(freeHook, false);
+
+            // The hook pulls the rotator onto the line between the rungs.
+            double rungAngle = Math.atan2(RUNG_X[rung + 1] - RUNG_X[rung], RUNG_Y[rung] - RUNG_Y[rung + 1]);
+            rotatorAngle += MathUtil.angleModulus(rungAngle - theta);
+            rotatorVelocity = 0;
+            latchAngle = rotatorAngle - bodyAngle;
+        }
+    }
+
+    private void setBeam(int hook, boolean broken) {
+        if (beamBroken[hook] == broken) {
+            return;
+        }
+
+        beamBroken[hook] = broken;
+        if (broken) {
+            brokenTimestamps[hook] = time;
+        } else {
+            clearedTimestamps[hook] = time;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.simulation;
+
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import frc.robot.commands.ClimbStateMachine;
+
+/**
+ * Runs the climb state machine against the {@link ClimbSimulator} over a sweep
+ * of its timing parameters, to find the fastest climb that is reliable.
+ *
+ * <p>
+ * Every combination of parameters is tried on the same set of robots, whose
+ * mass, balance, damping, starting distance, extender speed, hook capture
+ * radius and capture speed are drawn at random around the nominal robot. A
+ * combination is reliable if every robot reaches the traversal rung. The
+ * reliable combinations are printed fastest first, ranked by their slowest
+ * climb. The combinations run in parallel, each robot's climb running as fast
+ * as the desktop allows.
+ *
+ * <pre>
+ * Usage:
+ *   ./gradlew climbSweep [-PsweepArgs="[--robots N] [--seed N] [--threads N] [--top N] [--csv FILE]"]
+ * </pre>
+ */
+public final class ClimbSweep {
+    private static final double PERIOD = 0.02; // seconds
+    private static final double MAX_CLIMB_TIME = 30; // seconds
+
+    // The parameters swept.
+    private static final double[] EXTEND_WAITS = { 0.5, 0.75, 1.0, 1.25, 1.5, 2.0, 3.0 }; // seconds
+    private static final double[] SWING_TRIGGER_RATES = { -120, -105, -90, -75, -60, -45, -30, -15, 0, 15, 30, 45, 60 }; // deg/s
+    private static final double[] RELEASE_TRAVELS = { 1000, 1500, 2000, 3000 }; // encoder ticks
+
+    /** One combination of parameters and how it did. */
+    private static class Trial {
+        final double extendWait;
+        final ClimbStateMachine.Parameters parameters = new ClimbStateMachine.Parameters();
+        int successes;
+        double simulatedTime;
+        double successTime;
+        double worstTime;
+        String firstFailure = "";
+
+        Trial(double extendWait, double swingTriggerRate, double releaseTravel) {
+            this.extendWait = extendWait;
+            parameters.swingTriggerRate = swingTriggerRate;
+            parameters.releaseTravel = releaseTravel;
+        }
+    }
+
+    private ClimbSweep() {
+    }
+
+    public static void main(String... args) throws InterruptedException, ExecutionException, FileNotFoundException {
+        int robotCount = 20;
+        long seed = 948;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int top = 10;
+        String csvFile = null;
+
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "--robots":
+                    robotCount = Integer.parseInt(args[++i]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--top":
+                    top = Integer.parseInt(args[++i]);
+                    break;
+                case "--csv":
+                    csvFile = args[++i];
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        List<ClimbSimulator.Properties> robots = createRobots(robotCount, seed);
+        List<Trial> trials = new ArrayList<>();
+        for (double extendWait : EXTEND_WAITS) {
+            for (double swingTriggerRate : SWING_TRIGGER_RATES) {
+                for (double releaseTravel : RELEASE_TRAVELS) {
+                    trials.add(new Trial(extendWait, swingTriggerRate, releaseTravel));
+                }
+            }
+        }
+
+        System.out.println(String.format("Running %d parameter combinations on %d robots using %d threads",
+                trials.size(), robots.size(), threads));
+
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (Trial trial : trials) {
+            futures.add(executor.submit(() -> runTrial(trial, robots)));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        System.out.println(String.format("Simulated %.0f s of climbing in %.1f s",
+                trials.stream().mapToDouble(t -> t.simulatedTime).sum(), elapsed));
+
+        if (csvFile != null) {
+            writeCsv(csvFile, trials, robots.size());
+        }
+
+        trials.removeIf(t -> t.successes < robots.size());
+        trials.sort((a, b) -> Double.compare(a.worstTime, b.worstTime));
+
+        if (trials.isEmpty()) {
+            System.out.println("No combination was reliable.");
+            return;
+        }
+
+        System.out.println(String.format("%10s %12s %14s %10s %10s",
+                "Extend (s)", "Swing (d/s)", "Release (tk)", "Mean (s)", "Worst (s)"));
+        for (Trial trial : trials.subList(0, Math.min(top, trials.size()))) {
+            System.out.println(String.format("%10.2f %12.0f %14.0f %10.2f %10.2f",
+                    trial.extendWait,
+                    trial.parameters.swingTriggerRate,
+                    trial.parameters.releaseTravel,
+                    trial.successTime / trial.successes,
+                    trial.worstTime));
+        }
+    }
+
+    /** Returns robots whose properties vary at random around the nominal robot. */
+    private static List<ClimbSimulator.Properties> createRobots(int count, long seed) {
+        Random random = new Random(seed);
+        List<ClimbSimulator.Properties> robots = new ArrayList<>();
+
+        for (int i = 0; i < count; ++i) {
+            ClimbSimulator.Properties robot = new ClimbSimulator.Properties();
+            robot.mass *= vary(random, 0.1);
+            robot.comDistance *= vary(random, 0.3);
+            robot.bodyInertia *= vary(random, 0.2);
+            robot.damping *= vary(random, 0.5);
+            robot.startDistance *= vary(random, 0.5);
+            robot.extenderTravelTime *= vary(random, 0.3);
+            robot.captureRadius *= vary(random, 0.3);
+            robot.maxCaptureSpeed *= vary(random, 0.2);
+            robot.batteryVoltage -= 1.5 * random.nextDouble();
+            robots.add(robot);
+        }
+
+        return robots;
+    }
+
+    /** Returns a factor drawn uniformly from 1 - fraction to 1 + fraction. */
+    private static double vary(Random random, double fraction) {
+        return 1 + fraction * (2 * random.nextDouble() - 1);
+    }
+
+    private static void runTrial(Trial trial, List<ClimbSimulator.Properties> robots) {
+        for (ClimbSimulator.Properties robot : robots) {
+            ClimbSimulator simulator = new ClimbSimulator(robot);
+            ClimbStateMachine stateMachine = new ClimbStateMachine(trial.parameters);
+            ClimbStateMachine.Inputs inputs = new ClimbStateMachine.Inputs();
+
+            while (!stateMachine.isFinished() && simulator.getTime() < MAX_CLIMB_TIME) {
+                simulator.getInputs(inputs);
+                inputs.extenderSettled = simulator.getTime() >= trial.extendWait;
+                simulator.update(stateMachine.update(inputs), PERIOD);
+            }
+
+            double time = simulator.getTime();
+            trial.simulatedTime += time;
+
+            if (stateMachine.getState() == ClimbStateMachine.State.DONE && simulator.getRung() == 2) {
+                trial.successes++;
+                trial.successTime += time;
+                trial.worstTime = Math.max(trial.worstTime, time);
+            } else if (trial.firstFailure.isEmpty()) {
+                trial.firstFailure = simulator.getFault() != ClimbSimulator.Fault.NONE
+                        ? simulator.getFault().name()
+                        : stateMachine.getState() + " " + stateMachine.getAbortReason();
+            }
+        }
+    }
+
+    private static void writeCsv(String file, List<Trial> trials, int robotCount) throws FileNotFoundException {
+        try (PrintWriter writer = new PrintWriter(file)) {
+            writer.println("extendWait,swingTriggerRate,releaseTravel,successes,robots,meanTime,worstTime,firstFailure");
+            for (Trial trial : trials) {
+                writer.println(String.format("%.2f,%.0f,%.0f,%d,%d,%.3f,%.3f,%s",
+                        trial.extendWait,
+                        trial.parameters.swingTriggerRate,
+                        trial.parameters.releaseTravel,
+                        trial.successes,
+                        robotCount,
+                        trial.successes > 0 ? trial.successTime / trial.successes : Double.NaN,
+                        trial.worstTime,
+                        trial.firstFailure));
+            }
+        }
+    }
+}
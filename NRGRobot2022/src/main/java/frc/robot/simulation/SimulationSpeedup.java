@@ -0,0 +1,75 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.simulation;
+
+import edu.wpi.first.wpilibj.simulation.SimHooks;
+
+/**
+ * Runs the desktop simulation faster than real time.
+ *
+ * <p>
+ * The simulated clock is paused and then stepped by a background thread. Each
+ * step waits for the robot loop to finish before the next one starts, so the
+ * robot sees the same 20 ms cycles as on the real robot however fast the
+ * simulation runs. Set the SIM_SPEEDUP environment variable to the speed
+ * relative to real time, or to "max" to run as fast as the desktop allows:
+ *
+ * <pre>
+ * SIM_SPEEDUP=4 ./gradlew simulateJava
+ * </pre>
+ */
+public final class SimulationSpeedup {
+    /** The environment variable holding the speedup. */
+    public static final String SPEEDUP_ENV = "SIM_SPEEDUP";
+
+    private static final double STEP = 0.02; // seconds
+
+    private SimulationSpeedup() {
+    }
+
+    /**
+     * Starts stepping the simulated clock if a speedup is set in the
+     * environment. This must be called after the HAL has been initialized.
+     */
+    public static void startFromEnvironment() {
+        String value = System.getenv(SPEEDUP_ENV);
+        if (value == null) {
+            return;
+        }
+
+        double speedup = value.equalsIgnoreCase("max") ? Double.POSITIVE_INFINITY : Double.parseDouble(value);
+        if (speedup <= 0) {
+            throw new IllegalArgumentException(SPEEDUP_ENV + " must be positive: " + value);
+        }
+
+        long stepNanos = (long) (STEP * 1e9 / speedup);
+
+        SimHooks.pauseTiming();
+        Thread thread = new Thread(() -> {
+            long nextStep = System.nanoTime();
+
+            while (!Thread.interrupted()) {
+                SimHooks.stepTiming(STEP);
+
+                nextStep += stepNanos;
+                long delay = nextStep - System.nanoTime();
+                if (delay > 0) {
+                    try {
+                        Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                } else {
+                    // Running behind, so don't try to catch up.
+                    nextStep = System.nanoTime();
+                }
+            }
+        }, "SimulationSpeedup");
+        thread.setDaemon(true);
+        thread.start();
+
+        System.out.println(String.format("Simulation running at %s times real time", value));
+    }
+}
@@ -3,11 +3,24 @@ package frc.robot.subsystems;
 
 import java.util.Map;
 
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.VecBuilder;
 import edu.wpi.first.math.controller.ArmFeedforward;
+import edu.wpi.first.math.controller.LinearPlantInversionFeedforward;
+import edu.wpi.first.math.controller.LinearQuadraticRegulator;
 import edu.wpi.first.math.controller.ProfiledPIDController;
+import edu.wpi.first.math.estimator.KalmanFilter;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N2;
+import edu.wpi.first.math.system.LinearSystem;
+import edu.wpi.first.math.system.plant.LinearSystemId;
 import edu.wpi.first.math.trajectory.TrapezoidProfile;
 import edu.wpi.first.wpilibj.DigitalInput;
+import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.DutyCycle;
+import edu.wpi.first.wpilibj.RobotBase;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.motorcontrol.PWMVictorSPX;
 import edu.wpi.first.wpilibj.shuffleboard.BuiltInLayouts;
 import edu.wpi.first.wpilibj.shuffleboard.BuiltInWidgets;
@@ -16,10 +29,15 @@ import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardLayout;
 import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardTab;
 import edu.wpi.first.wpilibj2.command.ProfiledPIDSubsystem;
 import frc.robot.Constants.ArmConstants;
+import frc.robot.commands.ApplyFeedforwardGains;
+import frc.robot.logging.MatchLog;
 import frc.robot.preferences.RobotPreferencesLayout;
 import frc.robot.preferences.RobotPreferencesValue;
 import frc.robot.preferences.RobotPreferences.BooleanValue;
 import frc.robot.preferences.RobotPreferences.DoubleValue;
+import frc.robot.simulation.ArmSimulator;
+import frc.robot.utilities.EdgeCapture;
+import frc.robot.utilities.RecursiveLeastSquares;
 import frc.robot.utilities.ShuffleboardUtils;
 
 @RobotPreferencesLayout(groupName = "Arm", column = 4, row = 0, width = 2, height = 3, type = "Grid Layout")
@@ -59,6 +77,50 @@ public class Arm extends ProfiledPIDSubsystem {
     @RobotPreferencesValue
     public static final DoubleValue kA = new DoubleValue("Arm", "kA", 0.17 /* V*s^2/rad */);
 
+    // The feedforward gains are also estimated online while the arm moves. When
+    // enabled, the estimates replace the fixed gains above once they have
+    // enough samples.
+    @RobotPreferencesValue
+    public static final BooleanValue enableAdaptiveFeedforward = new BooleanValue("Arm", "adaptiveFeedforward", false);
+    @RobotPreferencesValue
+    public static final DoubleValue forgettingFactor = new DoubleValue("Arm", "forgettingFactor", 0.995);
+
+    // The arm can be controlled by a state-space model built from the
+    // feedforward gains: a Kalman filter estimates the angle and angular
+    // velocity from the encoder, and an LQR follows a trapezoidal profile whose
+    // limits come from the model. The PID gains above are used when it is off,
+    // which it is until it has been tried on the robot.
+    @RobotPreferencesValue
+    public static final BooleanValue enableStateSpace = new BooleanValue("Arm", "stateSpace", false);
+    @RobotPreferencesValue
+    public static final DoubleValue lqrPositionTolerance = new DoubleValue("Arm", "lqrPositionTolerance", 1.0 /* deg */);
+    @RobotPreferencesValue
+    public static final DoubleValue lqrVelocityTolerance = new DoubleValue("Arm", "lqrVelocityTolerance", 30.0 /* deg/s */);
+
+    private static final double PERIOD = 0.02; // seconds
+    private static final double MAX_VOLTAGE = 12.0;
+
+    // The profile is limited to the motion the feedforward can produce with this
+    // voltage, leaving the rest of the battery for the feedback to correct
+    // errors. The voltage left after holding the arm against gravity and
+    // friction is split between cruising velocity and acceleration.
+    private static final double PROFILE_VOLTAGE = 10.0;
+    private static final double PROFILE_VELOCITY_FRACTION = 0.7;
+
+    // Kalman filter standard deviations. The encoder resolves 1/1024 of a turn.
+    private static final double MODEL_POSITION_STDDEV = 0.02; // rad
+    private static final double MODEL_VELOCITY_STDDEV = 0.4; // rad/s
+    private static final double ENCODER_STDDEV = 2.0 * Math.PI / 1024.0; // rad
+
+    // The indices of the gains in the feedforward estimate.
+    private static final int KS = 0;
+    private static final int KG = 1;
+    private static final int KV = 2;
+    private static final int KA = 3;
+
+    private static final double MIN_ESTIMATION_VELOCITY = 0.1; // rad/s
+    private static final int MIN_ADAPTIVE_SAMPLES = 50;
+
     private final DigitalInput restingPositionLimitSwitch = new DigitalInput(ArmConstants.kRestingPosChannel);
     private final DigitalInput scoringPositionLimitSwitch = new DigitalInput(ArmConstants.kScoringPosChannel);
     private final PWMVictorSPX m_motor = new PWMVictorSPX(ArmConstants.kMotorPort);
@@ -66,8 +128,48 @@ public class Arm extends ProfiledPIDSubsystem {
     private final DutyCycle encoderDutyCycle = new DutyCycle(encoderDigitalInput);
     private final ArmFeedforward m_feedforward = new ArmFeedforward(
             kS.getValue(), kG.getValue(), kV.getValue(), kA.getValue());
+    private final int encoderOutputChannel = MatchLog.registerInput("Arm/EncoderOutput");
+    private final int restingLimitSwitchChannel = MatchLog.registerInput("Arm/RestingLimitSwitch");
+    private final int scoringLimitSwitchChannel = MatchLog.registerInput("Arm/ScoringLimitSwitch");
+    private final int restingLimitSwitchPressChannel = MatchLog.registerInput("Arm/RestingLimitSwitchPress");
+    private final int scoringLimitSwitchPressChannel = MatchLog.registerInput("Arm/ScoringLimitSwitchPress");
+    private final int motorVoltageChannel = MatchLog.registerOutput("Arm/MotorVoltage");
+    private double encoderOutput;
+    private boolean restingLimitSwitch;
+    private boolean scoringLimitSwitch;
+
+    // The limit switch presses are captured by interrupt, so a switch that is
+    // only pressed briefly between cycles is still seen.
+    private final EdgeCapture restingLimitSwitchEdges;
+    private final EdgeCapture scoringLimitSwitchEdges;
+    private boolean restingLimitSwitchPressed;
+    private boolean scoringLimitSwitchPressed;
     private double lastMotorOutput;
 
+    private final RecursiveLeastSquares feedforwardEstimator = new RecursiveLeastSquares(
+            4, forgettingFactor.getValue(), 1.0, 100.0);
+    private final double[] feedforwardInputs = new double[4];
+    private final boolean adaptiveFeedforward = enableAdaptiveFeedforward.getValue();
+    private double appliedVoltage;
+    private double previousTimestamp;
+    private double previousRadians;
+    private double previousVelocity;
+    private int previousSamples;
+
+    // The state-space controller is only built when it is enabled and the
+    // feedforward gains give a usable model.
+    private final boolean stateSpace;
+    private final KalmanFilter<N2, N1, N1> observer;
+    private final LinearQuadraticRegulator<N2, N1, N1> regulator;
+    private final LinearPlantInversionFeedforward<N2, N1, N1> plantFeedforward;
+
+    private final TrapezoidProfile.Constraints profileConstraints;
+    private ArmSimulator simulator;
+
+    // The voltage applied beyond that needed to hold the arm against gravity and
+    // friction. This is the input to the model.
+    private double modelVoltage;
+
     /** Create a new ArmSubsystem. */
     public Arm() {
         super(new ProfiledPIDController(
@@ -80,35 +182,308 @@ public class Arm extends ProfiledPIDSubsystem {
                 0);
         this.getController().setTolerance(Math.toRadians(tolerance.getValue()));
 
+        // The simulated sensors must be set before they are first read.
+        if (RobotBase.isSimulation() && !MatchLog.isReplaying()) {
+            simulator = new ArmSimulator(
+                    m_motor, restingPositionLimitSwitch, scoringPositionLimitSwitch, encoderDutyCycle);
+        }
+        restingLimitSwitchEdges = new EdgeCapture(restingPositionLimitSwitch);
+        scoringLimitSwitchEdges = new EdgeCapture(scoringPositionLimitSwitch);
+        updateInputs();
+
         // Initialize the goal state to the arm's current position.
         double currentPosition = getRadians();
         setGoal(currentPosition);
         m_controller.reset(currentPosition);
+
+        TrapezoidProfile.Constraints modelConstraints = enableStateSpace.getValue() ? getModelConstraints() : null;
+        stateSpace = modelConstraints != null;
+        profileConstraints = stateSpace
+                ? modelConstraints
+                : new TrapezoidProfile.Constraints(
+                        ArmConstants.kMaxVelocityRadPerSecond,
+                        ArmConstants.kMaxAccelerationRadPerSecSquared);
+        m_controller.setConstraints(profileConstraints);
+
+        if (stateSpace) {
+            LinearSystem<N2, N1, N1> plant = LinearSystemId.identifyPositionSystem(kV.getValue(), kA.getValue());
+            observer = new KalmanFilter<>(
+                    Nat.N2(), Nat.N1(), plant,
+                    VecBuilder.fill(MODEL_POSITION_STDDEV, MODEL_VELOCITY_STDDEV),
+                    VecBuilder.fill(ENCODER_STDDEV),
+                    PERIOD);
+            regulator = new LinearQuadraticRegulator<>(
+                    plant,
+                    VecBuilder.fill(
+                            Math.toRadians(lqrPositionTolerance.getValue()),
+                            Math.toRadians(lqrVelocityTolerance.getValue())),
+                    VecBuilder.fill(MAX_VOLTAGE),
+                    PERIOD);
+            plantFeedforward = new LinearPlantInversionFeedforward<>(plant, PERIOD);
+            observer.setXhat(VecBuilder.fill(currentPosition, 0));
+        } else {
+            observer = null;
+            regulator = null;
+            plantFeedforward = null;
+        }
+
+        feedforwardEstimator.reset(new double[] { kS.getValue(), kG.getValue(), kV.getValue(), kA.getValue() });
+    }
+
+    /**
+     * Returns the fastest trapezoidal profile constraints that the feedforward
+     * can follow using {@link #PROFILE_VOLTAGE}. At the end of the acceleration
+     * phase, where velocity and acceleration are both at their limits, the
+     * feedforward is exactly {@link #PROFILE_VOLTAGE}.
+     *
+     * <p>
+     * Gains from a bad characterization can leave no voltage to accelerate
+     * with, or give limits that are not positive. Then this returns null, and
+     * the arm falls back to PID control with the fixed constraints.
+     */
+    private static TrapezoidProfile.Constraints getModelConstraints() {
+        double headroom = PROFILE_VOLTAGE - kS.getValue() - kG.getValue();
+        double maxVelocity = PROFILE_VELOCITY_FRACTION * headroom / kV.getValue();
+        double maxAcceleration = (1.0 - PROFILE_VELOCITY_FRACTION) * headroom / kA.getValue();
+
+        if (headroom <= 0 || kV.getValue() <= 0 || kA.getValue() <= 0
+                || !Double.isFinite(maxVelocity) || !Double.isFinite(maxAcceleration)) {
+            DriverStation.reportWarning("Arm: feedforward gains give no usable model, using PID control", false);
+            return null;
+        }
+
+        return new TrapezoidProfile.Constraints(maxVelocity, maxAcceleration);
     }
 
     public void setMotorVoltage(double motorVoltage) {
         m_motor.setVoltage(motorVoltage);
+        MatchLog.output(motorVoltageChannel, motorVoltage);
+        appliedVoltage = motorVoltage;
     }
 
     public void stopMotor() {
         m_motor.stopMotor();
+        MatchLog.output(motorVoltageChannel, 0);
+        appliedVoltage = 0;
+    }
+
+    @Override
+    public void enable() {
+        super.enable();
+
+        if (stateSpace) {
+            // Start the profile from the estimated state rather than from rest, so
+            // that a new goal given while the arm is moving continues smoothly.
+            m_controller.reset(observer.getXhat(0), observer.getXhat(1));
+            plantFeedforward.reset(observer.getXhat());
+        }
     }
 
     @Override
     public void disable() {
         super.disable();
-        m_motor.stopMotor();
+        stopMotor();
+    }
+
+    @Override
+    public void periodic() {
+        updateInputs();
+        updateFeedforwardEstimate();
+        if (stateSpace) {
+            updateStateEstimate();
+        }
+        super.periodic();
+    }
+
+    @Override
+    public void simulationPeriodic() {
+        if (simulator != null) {
+            simulator.update();
+        }
+    }
+
+    /**
+     * Updates the estimated angle and angular velocity of the arm. While the
+     * controller is disabled the voltage to hold the arm is not being applied,
+     * so the model does not apply and the estimate follows the encoder.
+     */
+    private void updateStateEstimate() {
+        if (!isEnabled()) {
+            observer.setXhat(VecBuilder.fill(getRadians(), previousSamples > 1 ? previousVelocity : 0));
+            return;
+        }
+
+        Matrix<N1, N1> u = VecBuilder.fill(modelVoltage);
+        observer.predict(u, PERIOD);
+        observer.correct(u, VecBuilder.fill(getRadians()));
+    }
+
+    /** Returns the estimated arm angle in radians. */
+    public double getEstimatedRadians() {
+        return stateSpace ? observer.getXhat(0) : getRadians();
+    }
+
+    /** Returns the estimated arm angular velocity in radians per second. */
+    public double getEstimatedVelocity() {
+        return stateSpace ? observer.getXhat(1) : previousVelocity;
+    }
+
+    /**
+     * Updates the feedforward estimate from the motion of the arm over the last
+     * cycle and the voltage applied during it. Samples where the arm is stopped
+     * or unpowered are skipped since they say nothing about the gains.
+     */
+    private void updateFeedforwardEstimate() {
+        double timestamp = Timer.getFPGATimestamp();
+        double radians = getRadians();
+        double interval = timestamp - previousTimestamp;
+
+        if (previousSamples > 0 && interval > 0) {
+            double velocity = (radians - previousRadians) / interval;
+
+            if (previousSamples > 1) {
+                double averageVelocity = (velocity + previousVelocity) / 2;
+
+                if (appliedVoltage != 0 && Math.abs(averageVelocity) >= MIN_ESTIMATION_VELOCITY) {
+                    feedforwardInputs[KS] = Math.signum(averageVelocity);
+                    feedforwardInputs[KG] = Math.cos(previousRadians);
+                    feedforwardInputs[KV] = averageVelocity;
+                    feedforwardInputs[KA] = (velocity - previousVelocity) / interval;
+                    feedforwardEstimator.update(feedforwardInputs, appliedVoltage);
+                }
+            }
+
+            previousVelocity = velocity;
+        }
+
+        previousTimestamp = timestamp;
+        previousRadians = radians;
+        previousSamples = Math.min(previousSamples + 1, 2);
+    }
+
+    /** Returns whether the estimated feedforward gains are used to control the arm. */
+    public boolean isUsingAdaptiveFeedforward() {
+        return adaptiveFeedforward && feedforwardEstimator.getSampleCount() >= MIN_ADAPTIVE_SAMPLES;
+    }
+
+    /**
+     * Returns the predicted time in seconds until the arm reaches its current
+     * goal. While the arm is being controlled this is the time left in its
+     * motion profile, which the controller tracks closely, so it can be used to
+     * start other actions as the arm arrives rather than polling its position.
+     */
+    public double getTimeToGoal() {
+        if (!isEnabled()) {
+            return getTimeToGoal(m_controller.getGoal().position);
+        }
+
+        return new TrapezoidProfile(profileConstraints, m_controller.getGoal(), m_controller.getSetpoint())
+                .totalTime();
+    }
+
+    /**
+     * Returns the predicted time in seconds for the arm to move from its current
+     * state to an angle.
+     *
+     * @param goalRadians The angle in radians.
+     */
+    public double getTimeToGoal(double goalRadians) {
+        TrapezoidProfile.State current = new TrapezoidProfile.State(getEstimatedRadians(), getEstimatedVelocity());
+
+        return new TrapezoidProfile(profileConstraints, new TrapezoidProfile.State(goalRadians, 0), current)
+                .totalTime();
+    }
+
+    /** Returns whether the arm is being controlled and has reached its goal. */
+    public boolean isAtGoal() {
+        return isEnabled() && m_controller.atGoal();
+    }
+
+    /** Returns the feedforward voltage for a setpoint. */
+    private double calculateFeedforward(double position, double velocity) {
+        if (!isUsingAdaptiveFeedforward()) {
+            return m_feedforward.calculate(position, velocity);
+        }
+
+        return calculateHoldingFeedforward(position, velocity)
+                + feedforwardEstimator.getParameter(KV) * velocity;
+    }
+
+    /**
+     * Returns the part of the feedforward voltage that overcomes gravity and
+     * friction. The state-space model covers the rest.
+     */
+    private double calculateHoldingFeedforward(double position, double velocity) {
+        if (!isUsingAdaptiveFeedforward()) {
+            return kS.getValue() * Math.signum(velocity) + kG.getValue() * Math.cos(position);
+        }
+
+        return feedforwardEstimator.getParameter(KS) * Math.signum(velocity)
+                + feedforwardEstimator.getParameter(KG) * Math.cos(position);
+    }
+
+    /**
+     * Returns the motor voltage from the state-space controller for the next
+     * setpoint of the profile.
+     */
+    private double calculateStateSpaceOutput(TrapezoidProfile.State setpoint) {
+        Matrix<N2, N1> nextR = VecBuilder.fill(setpoint.position, setpoint.velocity);
+        double holdingVoltage = calculateHoldingFeedforward(setpoint.position, setpoint.velocity);
+        double output = regulator.calculate(observer.getXhat(), nextR).get(0, 0)
+                + plantFeedforward.calculate(nextR).get(0, 0)
+                + holdingVoltage;
+
+        output = Math.max(-MAX_VOLTAGE, Math.min(output, MAX_VOLTAGE));
+        modelVoltage = output - holdingVoltage;
+        return output;
+    }
+
+    /**
+     * Reads the arm encoder and limit switches once per cycle, or their recorded
+     * values when replaying a match log.
+     */
+    private void updateInputs() {
+        encoderOutput = MatchLog.input(encoderOutputChannel, encoderDutyCycle.getOutput());
+        restingLimitSwitch = MatchLog.input(restingLimitSwitchChannel, restingPositionLimitSwitch.get());
+        scoringLimitSwitch = MatchLog.input(scoringLimitSwitchChannel, scoringPositionLimitSwitch.get());
+        restingLimitSwitchPressed = MatchLog.input(
+                restingLimitSwitchPressChannel, drainLimitSwitchPresses(restingLimitSwitchEdges));
+        scoringLimitSwitchPressed = MatchLog.input(
+                scoringLimitSwitchPressChannel, drainLimitSwitchPresses(scoringLimitSwitchEdges));
+    }
+
+    /**
+     * Drains the captured edges of a limit switch and returns whether it was
+     * pressed since the last cycle.
+     */
+    private static boolean drainLimitSwitchPresses(EdgeCapture edges) {
+        boolean pressed = false;
+        EdgeCapture.Edge edge;
+
+        while ((edge = edges.poll()) != null) {
+            // The limit switches read false when pressed.
+            if (!edge.isRising()) {
+                pressed = true;
+            }
+        }
+
+        return pressed;
     }
 
     @Override
     protected void useOutput(double output, TrapezoidProfile.State setpoint) {
-        // Calculate and add the feedforward from the setpoint
-        output += m_feedforward.calculate(setpoint.position, setpoint.velocity);
+        if (stateSpace) {
+            // The PID output is replaced by the state-space controller.
+            output = calculateStateSpaceOutput(setpoint);
+        } else {
+            // Calculate and add the feedforward from the setpoint
+            output += calculateFeedforward(setpoint.position, setpoint.velocity);
+        }
 
         if (output != 0.0) {
-            m_motor.setVoltage(output);
+            setMotorVoltage(output);
         } else {
-            m_motor.stopMotor();
+            stopMotor();
         }
         lastMotorOutput = output;
     }
@@ -121,17 +496,19 @@ public class Arm extends ProfiledPIDSubsystem {
     /** Returns the arm's current angle in radians. */
     public double getRadians() {
         return Math.toRadians(levelAngleOffset.getValue())
-                - ((1.0 - encoderDutyCycle.getOutput()) * ArmConstants.kEncoderDistancePerRotation);
+                - ((1.0 - encoderOutput) * ArmConstants.kEncoderDistancePerRotation);
     }
 
     /** Returns whether the arm is at its resting/acquiring position. */
     public boolean isAtRestingPosition() {
-        return !restingPositionLimitSwitch.get() || getRadians() < Math.toRadians(restingAngle.getValue());
+        return !restingLimitSwitch || restingLimitSwitchPressed
+                || getRadians() < Math.toRadians(restingAngle.getValue());
     }
 
     /** Returns whether the arm is at its stowed position. */
     public boolean isAtStowedPosition() {
-        return !scoringPositionLimitSwitch.get() || getRadians() > Math.toRadians(stowedAngle.getValue());
+        return !scoringLimitSwitch || scoringLimitSwitchPressed
+                || getRadians() > Math.toRadians(stowedAngle.getValue());
     }
 
     /** Returns whether the arm is at its scoring position. */
@@ -164,5 +541,31 @@ public class Arm extends ProfiledPIDSubsystem {
         ShuffleboardUtils.addNumberSlider(control, "Arm Motor", 0.0, voltage -> setMotorVoltage(voltage))
                 .withProperties(Map.of("Min", -12.0, "Max", 12.0, "Block increment", 0.05));
                 control.addNumber("Motor Output", () -> lastMotorOutput).withWidget(BuiltInWidgets.kGraph);
+
+        ShuffleboardLayout commandLayout = armTab.getLayout("Commands", BuiltInLayouts.kList)
+                .withPosition(7, 0)
+                .withSize(2, 2);
+        commandLayout.add(new ApplyFeedforwardGains("Arm", kS, kV, kA, kG));
+
+        ShuffleboardLayout estimateLayout = armTab.getLayout("Feedforward Estimate", BuiltInLayouts.kList)
+                .withPosition(7, 2)
+                .withSize(2, 3);
+        estimateLayout.addNumber("kS", () -> feedforwardEstimator.getParameter(KS));
+        estimateLayout.addNumber("kG", () -> feedforwardEstimator.getParameter(KG));
+        estimateLayout.addNumber("kV", () -> feedforwardEstimator.getParameter(KV));
+        estimateLayout.addNumber("kA", () -> feedforwardEstimator.getParameter(KA));
+        estimateLayout.addNumber("Samples", () -> feedforwardEstimator.getSampleCount());
+        estimateLayout.addBoolean("Adaptive", () -> isUsingAdaptiveFeedforward()).withWidget(BuiltInWidgets.kBooleanBox);
+
+        ShuffleboardLayout stateSpaceLayout = armTab.getLayout("State Space", BuiltInLayouts.kList)
+                .withPosition(9, 0)
+                .withSize(2, 3);
+        stateSpaceLayout.addNumber("Estimated Angle", () -> Math.toDegrees(getEstimatedRadians()));
+        stateSpaceLayout.addNumber("Estimated Velocity", () -> Math.toDegrees(getEstimatedVelocity()));
+        stateSpaceLayout.addNumber("Setpoint", () -> Math.toDegrees(m_controller.getSetpoint().position));
+        stateSpaceLayout.addNumber("Goal", () -> Math.toDegrees(m_controller.getGoal().position));
+        stateSpaceLayout.addNumber("Time to Goal", () -> getTimeToGoal());
+        stateSpaceLayout.addNumber("Model Voltage", () -> modelVoltage);
+        stateSpaceLayout.addBoolean("Enabled", () -> isEnabled()).withWidget(BuiltInWidgets.kBooleanBox);
     }
 }
\ No newline at end of file
@@ -1,25 +1,215 @@
 package frc.robot.subsystems;
 
 import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.filter.Debouncer;
+import edu.wpi.first.math.filter.Debouncer.DebounceType;
+import edu.wpi.first.wpilibj.DigitalInput;
+import edu.wpi.first.wpilibj.PowerDistribution;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.motorcontrol.PWMVictorSPX;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.Constants.ClawConstants;
+import frc.robot.logging.MatchLog;
+import frc.robot.preferences.RobotPreferencesLayout;
+import frc.robot.preferences.RobotPreferencesValue;
+import frc.robot.preferences.RobotPreferences.BooleanValue;
+import frc.robot.preferences.RobotPreferences.DoubleValue;
+import frc.robot.utilities.RollingStatistics;
 
+/**
+ * Runs the claw rollers, and senses whether the claw holds a cargo.
+ *
+ * <p>
+ * With a beam break fitted, possession is read from it directly. Otherwise, if
+ * the PDP channel of the claw is known, it is inferred from the motor current
+ * measured by the PDP: the rollers draw
+ * more current while they grip a cargo than while they spin freely. The free
+ * running current is learned as the rolling mean and standard deviation of
+ * the current while the rollers are known to be empty, and the rollers are
+ * loaded while the current stays well above it. Since the current says
+ * nothing while the motor is stopped, possession only changes on a
+ * transition seen while the rollers run: it is gained when the load appears
+ * while intaking, and lost when the load appears and then goes while
+ * outtaking. With neither sensor, possession is never sensed, and commands
+ * that wait for it run until their timeouts.
+ */
+@RobotPreferencesLayout(groupName = "Claw", column = 8, row = 2, width = 2, height = 2, type = "Grid Layout")
 public class Claw extends SubsystemBase {
+    @RobotPreferencesValue
+    public static final DoubleValue freeCurrent = new DoubleValue("Claw", "Free Current", 4.0);
+    @RobotPreferencesValue
+    public static final DoubleValue loadCurrent = new DoubleValue("Claw", "Load Current", 3.0);
+    // Whether the arm is stowed as soon as a cargo is picked up. It is off until
+    // the cargo detection has been proven on the robot.
+    @RobotPreferencesValue
+    public static final BooleanValue autoStow = new BooleanValue("Claw", "Auto Stow", false);
+
+    private static final double DEADBAND = 0.02;
+
+    // The inrush current as the motor starts or reverses is ignored.
+    private static final double SPIN_UP_TIME = 0.2; // seconds
+
+    // The load must be present, or absent, this long to count.
+    private static final double DEBOUNCE_TIME = 0.08; // seconds
+
+    // The current is averaged over a few cycles to smooth the PDP's noise, and
+    // the free running current over a longer window.
+    private static final int CURRENT_WINDOW = 3; // samples
+    private static final int FREE_CURRENT_WINDOW = 50; // samples
+    private static final int MIN_FREE_SAMPLES = 10;
+
+    // The load threshold is at least this many standard deviations above the
+    // free running current.
+    private static final double THRESHOLD_STDDEVS = 4.0;
 
     private final PWMVictorSPX clawMotor;
+    private final PowerDistribution powerDistribution = ClawConstants.kPdpChannel >= 0
+            ? new PowerDistribution()
+            : null;
+    private final DigitalInput beamBreak = ClawConstants.kBeamBreakChannel >= 0
+            ? new DigitalInput(ClawConstants.kBeamBreakChannel)
+            : null;
+
+    private final int currentChannel = MatchLog.registerInput("Claw/Current");
+    private final int beamBreakChannel = MatchLog.registerInput("Claw/BeamBreak");
+    private final int powerChannel = MatchLog.registerOutput("Claw/Power");
+
+    private final RollingStatistics current = new RollingStatistics(CURRENT_WINDOW);
+    private final RollingStatistics freeRunningCurrent = new RollingStatistics(FREE_CURRENT_WINDOW);
+    private final Debouncer beamBreakDebouncer = new Debouncer(DEBOUNCE_TIME, DebounceType.kBoth);
+
+    private double power;
+    private double startTimestamp;
+    private boolean isLoaded;
+    private boolean wasLoaded;
+    private boolean isReleased;
+    private boolean hasCargo;
+
+    // The load is debounced by hand, rather than by a Debouncer, so that it
+    // can be reset when the rollers start or reverse. This is the time the
+    // current last agreed with isLoaded.
+    private double loadTimestamp;
 
     public Claw(int clawChannel) {
         clawMotor = new PWMVictorSPX(clawChannel);
         clawMotor.setInverted(true);
     }
 
+    @Override
+    public void periodic() {
+        double motorCurrent = MatchLog.input(currentChannel,
+                powerDistribution != null ? powerDistribution.getCurrent(ClawConstants.kPdpChannel) : 0);
+        boolean isBeamBroken = MatchLog.input(beamBreakChannel, beamBreak != null && !beamBreak.get());
+
+        if (beamBreak != null) {
+            boolean hadCargo = hasCargo;
+            hasCargo = beamBreakDebouncer.calculate(isBeamBroken);
+            isReleased |= power > 0 && hadCargo && !hasCargo;
+            return;
+        }
+
+        double now = Timer.getFPGATimestamp();
+        if (powerDistribution == null || power == 0 || now - startTimestamp < SPIN_UP_TIME) {
+            return;
+        }
+
+        current.add(motorCurrent);
+        boolean isAboveThreshold = current.getMean() > getLoadThreshold();
+        if (isAboveThreshold == isLoaded) {
+            loadTimestamp = now;
+        } else if (now - loadTimestamp >= DEBOUNCE_TIME) {
+            isLoaded = isAboveThreshold;
+        }
+
+        // The free running current is learned while the claw is empty.
+        if (!isAboveThreshold && !hasCargo) {
+            freeRunningCurrent.add(motorCurrent);
+        }
+
+        if (power < 0) {
+            // Intaking: the cargo is held once the rollers are loaded.
+            hasCargo |= isLoaded;
+        } else if (isLoaded) {
+            wasLoaded = true;
+        } else if (wasLoaded) {
+            // Outtaking: the cargo is gone once the rollers are free again.
+            hasCargo = false;
+            isReleased = true;
+        }
+    }
+
+    /**
+     * Returns the current above which the rollers are taken to be gripping a
+     * cargo.
+     */
+    private double getLoadThreshold() {
+        if (freeRunningCurrent.getCount() < MIN_FREE_SAMPLES) {
+            return freeCurrent.getValue() + loadCurrent.getValue();
+        }
+
+        return freeRunningCurrent.getMean()
+                + Math.max(loadCurrent.getValue(), THRESHOLD_STDDEVS * freeRunningCurrent.getStandardDeviation());
+    }
+
     // Turns on claw motor. Positive power out-takes, negative power intakes
     public void activateClaw(double power) {
-        clawMotor.set(MathUtil.applyDeadband(power, 0.02));
+        power = MathUtil.applyDeadband(power, DEADBAND);
+
+        // Starting or reversing the rollers begins a new detection. Possession
+        // itself only changes once the current shows the cargo arrive or leave.
+        if (Math.signum(power) != Math.signum(this.power) && power != 0) {
+            startTimestamp = Timer.getFPGATimestamp();
+            loadTimestamp = startTimestamp;
+            current.clear();
+            isLoaded = false;
+            wasLoaded = false;
+            isReleased = false;
+        }
+
+        if (power == 0) {
+            isLoaded = false;
+        }
+
+        this.power = power;
+        clawMotor.set(power);
+        MatchLog.output(powerChannel, power);
     }
 
     public void stopMotor() {
+        power = 0;
+        isLoaded = false;
         clawMotor.stopMotor();
+        MatchLog.output(powerChannel, 0);
+    }
+
+    /** Returns whether the rollers are running inwards. */
+    public boolean isIntaking() {
+        return power < 0;
     }
 
-}
\ No newline at end of file
+    /** Returns whether the claw holds a cargo. */
+    public boolean hasCargo() {
+        return hasCargo;
+    }
+
+    /**
+     * Returns whether the rollers are gripping a cargo. This is only known from
+     * the current while the rollers run.
+     */
+    public boolean isLoaded() {
+        return beamBreak != null ? hasCargo : isLoaded;
+    }
+
+    /**
+     * Returns whether the cargo has been sensed leaving since the rollers
+     * started running outwards.
+     */
+    public boolean isReleased() {
+        return isReleased;
+    }
+
+    /** Returns the learned free running current of the rollers in amps. */
+    public double getFreeRunningCurrent() {
+        return freeRunningCurrent.getCount() > 0 ? freeRunningCurrent.getMean() : freeCurrent.getValue();
+    }
+}
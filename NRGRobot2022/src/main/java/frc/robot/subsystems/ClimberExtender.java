@@ -1,29 +1,280 @@
 package frc.robot.subsystems;
 
+import edu.wpi.first.wpilibj.DigitalInput;
 import edu.wpi.first.wpilibj.DoubleSolenoid;
 import edu.wpi.first.wpilibj.DoubleSolenoid.Value;
+import edu.wpi.first.wpilibj.PneumaticHub;
+import edu.wpi.first.wpilibj.PneumaticsModuleType;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.shuffleboard.BuiltInLayouts;
+import edu.wpi.first.wpilibj.shuffleboard.BuiltInWidgets;
+import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardLayout;
+import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardTab;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
 import frc.robot.Constants.ClimberConstants;
+import frc.robot.logging.MatchLog;
+import frc.robot.preferences.RobotPreferencesLayout;
+import frc.robot.preferences.RobotPreferencesValue;
+import frc.robot.preferences.RobotPreferences.DoubleValue;
 import frc.robot.utilities.Pneumatics;
+import frc.robot.utilities.RecursiveLeastSquares;
 
+/**
+ * Raises and lowers the climber with a pair of pistons, and tracks when the
+ * pistons finish moving.
+ *
+ * <p>
+ * Completion is found from the best source fitted. A reed switch at the end of
+ * the stroke shows directly that the pistons have arrived. Otherwise, with an
+ * analog pressure sensor, the pistons have arrived once the pressure stops
+ * falling as they fill. Failing both, completion is predicted from a model of
+ * the actuation time in each direction, t = a + b * (p0 / p), where p is the
+ * tank pressure and p0 the reference pressure. Each measured completion
+ * refines the model, and the learned time at the reference pressure is saved
+ * to the preferences so it carries over to the next boot.
+ */
+@RobotPreferencesLayout(groupName = "ClimberExtender", column = 8, row = 0, width = 2, height = 2, type = "Grid Layout")
 public class ClimberExtender extends SubsystemBase {
+    // The time for the pistons to move at the reference pressure. The up time
+    // is long enough to be safe until it has been measured on the robot.
+    @RobotPreferencesValue
+    public static final DoubleValue upTime = new DoubleValue("ClimberExtender", "Up Time", 3.0);
+    @RobotPreferencesValue
+    public static final DoubleValue downTime = new DoubleValue("ClimberExtender", "Down Time", 0.8);
+
+    private static final double REFERENCE_PRESSURE = 120; // psi
+    private static final double MIN_VALID_PRESSURE = 20; // psi; anything lower means no sensor
+
+    // The pistons are moving while the pressure falls by more than the drop
+    // rate, and have arrived once it has fallen by at least the minimum drop
+    // and then steadied.
+    private static final double DROP_RATE = 5; // psi per second
+    private static final double MIN_DROP = 2; // psi
+
+    // A measured time this far from the prediction is taken to be a glitch,
+    // once the model has learned from enough measurements to be trusted.
+    private static final double MAX_LEARNING_ERROR = 0.5; // fraction of the prediction
+    private static final int MIN_TRUSTED_SAMPLES = 3;
+
     // Large extending pistons controlled on one solenoid.
     private final DoubleSolenoid extenderPistons = new DoubleSolenoid(ClimberConstants.PH_ID, Pneumatics.getModuleType(), 5, 6);
+    private final PneumaticHub pneumaticHub;
+    private final DigitalInput upSwitch;
+    private final DigitalInput downSwitch;
+
+    private final int pressureChannel = MatchLog.registerInput("ClimberExtender/Pressure");
+    private final int upSwitchChannel = MatchLog.registerInput("ClimberExtender/UpSwitch");
+    private final int downSwitchChannel = MatchLog.registerInput("ClimberExtender/DownSwitch");
+
+    // The actuation time models, indexed by state.
+    private final RecursiveLeastSquares[] timeModels = new RecursiveLeastSquares[State.values().length];
+    private final double[] modelInputs = new double[2];
+    private final int[] sampleCounts = new int[State.values().length];
+
+    // The pistons are taken to be retracted until they are first moved.
+    private State state = State.DOWN;
+    private double pressure;
+    private boolean isUp;
+    private boolean isDown;
+
+    private double actuationTimestamp = Double.NEGATIVE_INFINITY;
+    private double actuationPressure;
+    private double predictedCompletionTimestamp = Double.NEGATIVE_INFINITY;
+    private double completionTimestamp = Double.NEGATIVE_INFINITY;
+    private double lastActuationTime = Double.NaN;
+    private boolean measured;
+    private double previousPressure;
+    private double previousTimestamp;
+    private double minPressure;
 
     public enum State {
         UP, DOWN;
     }
 
+    /** Creates a new ClimberExtender subsystem. */
+    public ClimberExtender() {
+        pneumaticHub = Pneumatics.getModuleType() == PneumaticsModuleType.REVPH
+                ? new PneumaticHub(ClimberConstants.PH_ID)
+                : null;
+        upSwitch = ClimberConstants.kExtenderUpSwitch >= 0 ? new DigitalInput(ClimberConstants.kExtenderUpSwitch) : null;
+        downSwitch = ClimberConstants.kExtenderDownSwitch >= 0 ? new DigitalInput(ClimberConstants.kExtenderDownSwitch) : null;
+
+        // The starting time is only a guess, so the models are quick to move
+        // away from it.
+        for (State s : State.values()) {
+            timeModels[s.ordinal()] = new RecursiveLeastSquares(2, 0.95, 1.0, 10.0);
+            timeModels[s.ordinal()].reset(new double[] { 0, getTimePreference(s).getValue() });
+        }
+
+        updateInputs();
+    }
+
+    @Override
+    public void periodic() {
+        updateInputs();
+
+        if (!isSettled()) {
+            detectCompletion();
+        }
+    }
+
+    /**
+     * Reads the pressure and the reed switches, or their recorded values when
+     * replaying a match log.
+     */
+    private void updateInputs() {
+        pressure = MatchLog.input(pressureChannel, pneumaticHub != null ? pneumaticHub.getPressure(0) : 0);
+        isUp = MatchLog.input(upSwitchChannel, upSwitch != null && !upSwitch.get());
+        isDown = MatchLog.input(downSwitchChannel, downSwitch != null && !downSwitch.get());
+    }
+
+    private void detectCompletion() {
+        double now = Timer.getFPGATimestamp();
+
+        if ((state == State.UP ? upSwitch : downSwitch) != null) {
+            if (state == State.UP ? isUp : isDown) {
+                complete(now, true);
+            }
+            return;
+        }
+
+        if (isPressureValid()) {
+            double rate = (pressure - previousPressure) / Math.max(now - previousTimestamp, 1e-3);
+            minPressure = Math.min(minPressure, pressure);
+            previousPressure = pressure;
+            previousTimestamp = now;
+
+            if (actuationPressure - minPressure >= MIN_DROP && rate > -DROP_RATE) {
+                complete(now, true);
+                return;
+            }
+        }
+
+        // Without a measurement, the prediction is the best there is.
+        if (now >= predictedCompletionTimestamp) {
+            complete(predictedCompletionTimestamp, false);
+        }
+    }
+
+    /**
+     * Records the completion of the current actuation.
+     *
+     * @param timestamp The time the pistons arrived.
+     * @param measured  Whether the time was measured rather than predicted.
+     */
+    private void complete(double timestamp, boolean measured) {
+        completionTimestamp = timestamp;
+        lastActuationTime = timestamp - actuationTimestamp;
+        this.measured = measured;
+
+        if (!measured) {
+            return;
+        }
+
+        // Learn from measurements that are plausible, so one missed edge or
+        // pressure glitch cannot ruin the model. The first few are always
+        // learned from, as the starting time may be far from the real one.
+        double predicted = predictedCompletionTimestamp - actuationTimestamp;
+        if (sampleCounts[state.ordinal()] < MIN_TRUSTED_SAMPLES
+                || Math.abs(lastActuationTime - predicted) <= MAX_LEARNING_ERROR * predicted) {
+            RecursiveLeastSquares model = timeModels[state.ordinal()];
+            setModelInputs(actuationPressure);
+            model.update(modelInputs, lastActuationTime);
+            sampleCounts[state.ordinal()]++;
+
+            if (!MatchLog.isReplaying()) {
+                getTimePreference(state).setValue(predictTime(state, REFERENCE_PRESSURE));
+            }
+        }
+    }
+
+    private static DoubleValue getTimePreference(State state) {
+        return state == State.UP ? upTime : downTime;
+    }
+
+    private boolean isPressureValid() {
+        return pressure >= MIN_VALID_PRESSURE;
+    }
+
+    private void setModelInputs(double pressure) {
+        modelInputs[0] = 1;
+        modelInputs[1] = REFERENCE_PRESSURE / pressure;
+    }
+
+    /**
+     * Returns the predicted time in seconds for the pistons to move to a state.
+     *
+     * @param state    The state to move to.
+     * @param pressure The tank pressure in psi.
+     */
+    public double predictTime(State state, double pressure) {
+        setModelInputs(pressure);
+        RecursiveLeastSquares model = timeModels[state.ordinal()];
+        return model.getParameter(0) * modelInputs[0] + model.getParameter(1) * modelInputs[1];
+    }
+
     public State getState() {
-        return extenderPistons.get() == Value.kForward ? State.UP : State.DOWN;
+        return state;
     }
 
+    /**
+     * Moves the pistons to a state. Moving to the state the pistons are already
+     * in does not restart the actuation.
+     */
     public void setState(State state) {
+        if (state == this.state && extenderPistons.get() != Value.kOff) {
+            return;
+        }
+
+        this.state = state;
         extenderPistons.set(state == State.UP ? Value.kForward : Value.kReverse);
+
+        double now = Timer.getFPGATimestamp();
+        actuationTimestamp = now;
+        actuationPressure = isPressureValid() ? pressure : REFERENCE_PRESSURE;
+        predictedCompletionTimestamp = now + predictTime(state, actuationPressure);
+        completionTimestamp = Double.NaN;
+        previousPressure = pressure;
+        previousTimestamp = now;
+        minPressure = pressure;
     }
 
     public void toggleState() {
         setState(getState() == State.UP ? State.DOWN : State.UP);
     }
 
-}
\ No newline at end of file
+    /** Returns whether the pistons have finished moving to the current state. */
+    public boolean isSettled() {
+        return !Double.isNaN(completionTimestamp);
+    }
+
+    /**
+     * Returns the FPGA timestamp at which the pistons are predicted to finish
+     * moving, or did finish moving if they have settled.
+     */
+    public double getPredictedCompletionTimestamp() {
+        return isSettled() ? completionTimestamp : predictedCompletionTimestamp;
+    }
+
+    /**
+     * Returns the time in seconds the last actuation took, or NaN if none has
+     * finished.
+     */
+    public double getLastActuationTime() {
+        return lastActuationTime;
+    }
+
+    public void addShuffleboardLayout(ShuffleboardTab climberTab) {
+        ShuffleboardLayout extenderLayout = climberTab.getLayout("Extender", BuiltInLayouts.kGrid)
+                .withPosition(2, 0)
+                .withSize(2, 3);
+
+        extenderLayout.addString("State", () -> getState().name());
+        extenderLayout.addBoolean("Settled", this::isSettled).withWidget(BuiltInWidgets.kBooleanBox);
+        extenderLayout.addBoolean("Measured", () -> measured).withWidget(BuiltInWidgets.kBooleanBox);
+        extenderLayout.addNumber("Pressure", () -> pressure);
+        extenderLayout.addNumber("Last Time", this::getLastActuationTime);
+        extenderLayout.addNumber("Up Time", () -> predictTime(State.UP, REFERENCE_PRESSURE));
+        extenderLayout.addNumber("Down Time", () -> predictTime(State.DOWN, REFERENCE_PRESSURE));
+    }
+}
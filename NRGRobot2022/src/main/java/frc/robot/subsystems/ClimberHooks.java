@@ -6,13 +6,27 @@ import edu.wpi.first.wpilibj.shuffleboard.BuiltInWidgets;
 import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardLayout;
 import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardTab;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.utilities.EdgeCapture;
 
 public class ClimberHooks extends SubsystemBase {
 
     private final DigitalInput beamBreak1;
     private final DigitalInput beamBreak2;
-    private boolean beamBreak1Previous = false; // Value of beamBreak1 last cycle
-    private boolean beamBreak2Previous = false;
+
+    // The beam breaks are captured by interrupt so that a bar passing quickly
+    // is not missed between cycles.
+    private final EdgeCapture beamBreak1Edges;
+    private final EdgeCapture beamBreak2Edges;
+
+    // The times the beam was last broken and last cleared during the previous
+    // cycle, or NaN if it was not.
+    private double beamBreak1Timestamp = Double.NaN;
+    private double beamBreak2Timestamp = Double.NaN;
+    private double beamClear1Timestamp = Double.NaN;
+    private double beamClear2Timestamp = Double.NaN;
+
+    // Filled by drainBeamBreaks() each cycle.
+    private final double[] drainedTimestamps = new double[2];
 
     
     public enum HookSelection {
@@ -25,14 +39,36 @@ public class ClimberHooks extends SubsystemBase {
         // The beam breaks will read TBD(true/false) when it engages the bar
         beamBreak1 = new DigitalInput(6);
         beamBreak2 = new DigitalInput(5);
+        beamBreak1Edges = new EdgeCapture(beamBreak1);
+        beamBreak2Edges = new EdgeCapture(beamBreak2);
     }
 
     @Override
     public void periodic() {
         // This method will be called once per scheduler run
-        beamBreak1Previous = beamBreak1.get();
-        beamBreak2Previous = beamBreak2.get();
+        drainBeamBreaks(beamBreak1Edges);
+        beamBreak1Timestamp = drainedTimestamps[0];
+        beamClear1Timestamp = drainedTimestamps[1];
 
+        drainBeamBreaks(beamBreak2Edges);
+        beamBreak2Timestamp = drainedTimestamps[0];
+        beamClear2Timestamp = drainedTimestamps[1];
+    }
+
+    /**
+     * Drains the captured edges of a beam break and stores the times the beam
+     * was last broken and last cleared, or NaN if it was not, in
+     * drainedTimestamps.
+     */
+    private void drainBeamBreaks(EdgeCapture edges) {
+        drainedTimestamps[0] = Double.NaN;
+        drainedTimestamps[1] = Double.NaN;
+        EdgeCapture.Edge edge;
+
+        while ((edge = edges.poll()) != null) {
+            // The beam break reads false while the beam is broken.
+            drainedTimestamps[edge.isRising() ? 1 : 0] = edge.getTimestamp();
+        }
     }
 
     @Override
@@ -48,11 +84,36 @@ public class ClimberHooks extends SubsystemBase {
             return !beamBreak2.get();
         }
     }
+    /**
+     * Returns true iff the climber hook's beam was broken by a bar during the
+     * last cycle, however briefly.
+     */
     public boolean isPassedBar(HookSelection hook){
+        return !Double.isNaN(getPassedBarTimestamp(hook));
+    }
+
+    /**
+     * Returns the FPGA timestamp at which the climber hook's beam was broken
+     * during the last cycle, or NaN if it was not.
+     */
+    public double getPassedBarTimestamp(HookSelection hook) {
+        if (hook.equals(HookSelection.HOOK_1)) {
+            return beamBreak1Timestamp;
+        } else {
+            return beamBreak2Timestamp;
+        }
+    }
+
+    /**
+     * Returns the FPGA timestamp at which the climber hook's beam was cleared
+     * during the last cycle, or NaN if it was not. The beam clears once the
+     * bar has passed the sensor.
+     */
+    public double getClearedBarTimestamp(HookSelection hook) {
         if (hook.equals(HookSelection.HOOK_1)) {
-            return beamBreak1Previous == true && beamBreak1.get() == false;
+            return beamClear1Timestamp;
         } else {
-            return beamBreak2Previous == true && beamBreak2.get() == false;
+            return beamClear2Timestamp;
         }
     }
 
@@ -5,11 +5,14 @@
 package frc.robot.subsystems;
 
 import com.ctre.phoenix.motorcontrol.ControlMode;
+import com.ctre.phoenix.motorcontrol.DemandType;
+import com.ctre.phoenix.motorcontrol.InvertType;
 import com.ctre.phoenix.motorcontrol.NeutralMode;
 import com.ctre.phoenix.motorcontrol.can.TalonFX;
 
 //import com.ctre.phoenix.motorcontrol.can.TalonFX;
 
+import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.shuffleboard.BuiltInLayouts;
 import edu.wpi.first.wpilibj.shuffleboard.BuiltInWidgets;
@@ -22,6 +25,18 @@ import frc.robot.preferences.RobotPreferences.DoubleValue;
 import frc.robot.preferences.RobotPreferencesLayout;
 import frc.robot.preferences.RobotPreferencesValue;
 
+/**
+ * The climber rotator, driven by two TalonFX motors.
+ *
+ * <p>
+ * The second motor follows the first, so each output is a single write to the
+ * first motor. Position and velocity control run closed-loop on the first
+ * motor's Talon using its integrated sensor, and keep running even if the
+ * roboRIO loop is late. The feedforward to hold the rotator against gravity is
+ * sent with each closed-loop demand through the arbitrary feedforward channel.
+ * Since the motors are geared together, their encoders should agree; any
+ * divergence between them is reported.
+ */
 @RobotPreferencesLayout(groupName = "ClimberModule", column = 6, row = 0, width = 2, height = 3, type = "Grid Layout")
 public class ClimberRotator extends SubsystemBase {
 	
@@ -41,11 +56,55 @@ public class ClimberRotator extends SubsystemBase {
 	@RobotPreferencesValue
 	public static final BooleanValue enableTab = new BooleanValue("ClimberModule", "enableTab", false);
 
+	// The closed-loop velocity gains, in Talon units.
+	@RobotPreferencesValue
+	public static final DoubleValue velocityKP = new DoubleValue("ClimberModule", "Velocity kP", 0.05);
+	@RobotPreferencesValue
+	public static final DoubleValue velocityKF = new DoubleValue("ClimberModule", "Velocity kF", 0.05);
+
+	// The output, as a fraction of full power, needed to hold the rotator level
+	// against gravity, and the encoder position at which it is level. No
+	// gravity feedforward is applied while the level position is zero.
+	@RobotPreferencesValue
+	public static final DoubleValue gravityFeedforward = new DoubleValue("ClimberModule", "Gravity kG", 0);
+	@RobotPreferencesValue
+	public static final DoubleValue levelPosition = new DoubleValue("ClimberModule", "Level Position", 0);
+
+	@RobotPreferencesValue
+	public static final DoubleValue maxDivergence = new DoubleValue("ClimberModule", "Max Divergence", 2000);
+
+	// How far, in encoder ticks, the rotator is back-driven to release a hook
+	// from a bar.
+	@RobotPreferencesValue
+	public static final DoubleValue releaseTravel = new DoubleValue("ClimberModule", "Release Travel", 1500);
+
+	// The pitch rate, in degrees per second towards the traversal rung, at which
+	// the rotator starts turning towards the traversal rung. The default is the
+	// fastest rate that was reliable in simulation, with a step of margin.
+	@RobotPreferencesValue
+	public static final DoubleValue swingTriggerRate = new DoubleValue("ClimberModule", "Swing Trigger Rate", -60);
+
+	// Talon closed-loop output is in units of 1/1023 of full power.
+	private static final double TALON_FULL_OUTPUT = 1023.0;
+	private static final int POSITION_SLOT = 0;
+	private static final int VELOCITY_SLOT = 1;
+	private static final int CONFIG_TIMEOUT_MS = 30;
+
+	/** The ways the rotator can be controlled. */
+	public enum ControlType {
+		POWER, POSITION, VELOCITY
+	}
 
 	/** Creates a new ClimberRotator. */
 	private final TalonFX climberMotor1;
 	private final TalonFX climberMotor2;
 
+	private ControlType controlType = ControlType.POWER;
+	private double closedLoopTarget;
+	private double encoderDivergence;
+	private double maxEncoderDivergence;
+	private boolean diverged;
+
 
 	public ClimberRotator() {
 		climberMotor1 = new TalonFX(ClimberConstants.kClimberRotatorMotor1);
@@ -53,18 +112,131 @@ public class ClimberRotator extends SubsystemBase {
 		climberMotor1.setSelectedSensorPosition(0);
 		climberMotor2.setSelectedSensorPosition(0);
 
-		//Invert one motor such that it runs in the same direction as each other
+		// The second motor follows the first, turning the opposite way so that
+		// both drive the rotator in the same direction.
 		climberMotor1.setInverted(true);
-		climberMotor2.setInverted(false);
+		climberMotor2.follow(climberMotor1);
+		climberMotor2.setInverted(InvertType.OpposeMaster);
 		
 		//Sets motor to brake mode
 		climberMotor1.setNeutralMode(NeutralMode.Brake);
 		climberMotor2.setNeutralMode(NeutralMode.Brake);
+
+		// The closed-loop gains on the roboRIO were in fractions of full power per
+		// encoder tick.
+		climberMotor1.config_kP(POSITION_SLOT, kP.getValue() * TALON_FULL_OUTPUT, CONFIG_TIMEOUT_MS);
+		climberMotor1.config_kI(POSITION_SLOT, kI.getValue() * TALON_FULL_OUTPUT, CONFIG_TIMEOUT_MS);
+		climberMotor1.config_kD(POSITION_SLOT, kD.getValue() * TALON_FULL_OUTPUT, CONFIG_TIMEOUT_MS);
+		climberMotor1.configAllowableClosedloopError(POSITION_SLOT, verticalTolerance.getValue(), CONFIG_TIMEOUT_MS);
+		climberMotor1.config_kP(VELOCITY_SLOT, velocityKP.getValue(), CONFIG_TIMEOUT_MS);
+		climberMotor1.config_kF(VELOCITY_SLOT, velocityKF.getValue(), CONFIG_TIMEOUT_MS);
 	}
 
 	@Override
 	public void periodic() {
-		// This method will be called once per scheduler run
+		// The encoders of the two motors should agree since they are geared
+		// together.
+		encoderDivergence = climberMotor1.getSelectedSensorPosition() - climberMotor2.getSelectedSensorPosition();
+		maxEncoderDivergence = Math.max(maxEncoderDivergence, Math.abs(encoderDivergence));
+
+		boolean isDiverged = Math.abs(encoderDivergence) > maxDivergence.getValue();
+		if (isDiverged && !diverged) {
+			DriverStation.reportWarning(
+					String.format("Climber rotator encoders differ by %.0f ticks", encoderDivergence), false);
+		}
+		diverged = isDiverged;
+
+		// The gravity load changes as the rotator moves, so the feedforward is
+		// refreshed each cycle. This only updates the control frame the Talon
+		// already sends, and the Talon keeps running the loop with the last
+		// feedforward if the roboRIO falls behind.
+		if (controlType != ControlType.POWER) {
+			setClosedLoop();
+		}
+	}
+
+	/**
+	 * Returns the output, as a fraction of full power, needed to hold the
+	 * rotator against gravity at its current position.
+	 */
+	private double getGravityFeedforward() {
+		double level = levelPosition.getValue();
+		if (level == 0) {
+			return 0;
+		}
+
+		// The rotator is vertical at position 0 and level at the level position.
+		return gravityFeedforward.getValue() * Math.sin(Math.PI / 2 * getRotatorPosition() / level);
+	}
+
+	private void setClosedLoop() {
+		ControlMode mode = controlType == ControlType.POSITION ? ControlMode.Position : ControlMode.Velocity;
+		climberMotor1.set(mode, closedLoopTarget, DemandType.ArbitraryFeedForward, getGravityFeedforward());
+	}
+
+	/**
+	 * Holds the rotator at a position using the Talon's closed-loop control.
+	 *
+	 * @param position The position in encoder ticks.
+	 */
+	public void setPosition(double position) {
+		climberMotor1.selectProfileSlot(POSITION_SLOT, 0);
+		controlType = ControlType.POSITION;
+		closedLoopTarget = position;
+		setClosedLoop();
+	}
+
+	/**
+	 * Runs the rotator at a velocity using the Talon's closed-loop control.
+	 *
+	 * @param velocity The velocity in encoder ticks per 100 ms.
+	 */
+	public void setVelocity(double velocity) {
+		climberMotor1.selectProfileSlot(VELOCITY_SLOT, 0);
+		controlType = ControlType.VELOCITY;
+		closedLoopTarget = velocity;
+		setClosedLoop();
+	}
+
+	/** Returns how the rotator is being controlled. */
+	public ControlType getControlType() {
+		return controlType;
+	}
+
+	/** Returns the closed-loop target in encoder ticks, or ticks per 100 ms. */
+	public double getClosedLoopTarget() {
+		return closedLoopTarget;
+	}
+
+	/** Returns the closed-loop error in encoder ticks, or ticks per 100 ms. */
+	public double getClosedLoopError() {
+		return controlType != ControlType.POWER ? climberMotor1.getClosedLoopError(0) : 0;
+	}
+
+	/** Returns whether the closed-loop position control is within tolerance. */
+	public boolean isAtPosition() {
+		return controlType == ControlType.POSITION
+				&& Math.abs(closedLoopTarget - getRotatorPosition()) <= verticalTolerance.getValue();
+	}
+
+	/**
+	 * Returns the difference in encoder ticks between the two motors' encoders.
+	 */
+	public double getEncoderDivergence() {
+		return encoderDivergence;
+	}
+
+	/**
+	 * Returns whether the two motors' encoders differ by more than the maximum
+	 * allowed, which means the rotator position cannot be trusted.
+	 */
+	public boolean isEncoderDiverged() {
+		return diverged;
+	}
+
+	/** Returns the largest difference between the two motors' encoders. */
+	public double getMaxEncoderDivergence() {
+		return maxEncoderDivergence;
 	}
 
 	/** Returns position of climber rotator. */
@@ -83,8 +255,8 @@ public class ClimberRotator extends SubsystemBase {
 	}
 
 	public void rotateMotor(double power) {
+		controlType = ControlType.POWER;
 		climberMotor1.set(ControlMode.PercentOutput, power);
-		climberMotor2.set(ControlMode.PercentOutput, power);
 	}
 
 
@@ -115,7 +287,17 @@ public class ClimberRotator extends SubsystemBase {
 				.withPosition(2, 0)
 				.withSize(6, 5);
 		encoderLayout.addNumber("Encoder1", () -> climberMotor1.getSelectedSensorPosition()).withWidget(BuiltInWidgets.kGraph);
-		encoderLayout.addNumber("Encoder2", () -> climberMotor1.getSelectedSensorPosition()).withWidget(BuiltInWidgets.kGraph);
+		encoderLayout.addNumber("Encoder2", () -> climberMotor2.getSelectedSensorPosition()).withWidget(BuiltInWidgets.kGraph);
+		encoderLayout.addNumber("Divergence", () -> getEncoderDivergence()).withWidget(BuiltInWidgets.kGraph);
+
+		ShuffleboardLayout controlLayout = climberTab.getLayout("Rotator Control", BuiltInLayouts.kList)
+				.withPosition(8, 0)
+				.withSize(2, 3);
+		controlLayout.addString("Mode", () -> getControlType().name());
+		controlLayout.addNumber("Target", () -> closedLoopTarget);
+		controlLayout.addNumber("Error", () -> getClosedLoopError());
+		controlLayout.addNumber("Gravity FF", () -> getGravityFeedforward());
+		controlLayout.addNumber("Max Divergence", () -> getMaxEncoderDivergence());
 
 	}
 }
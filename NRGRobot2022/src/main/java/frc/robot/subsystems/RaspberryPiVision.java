@@ -5,44 +5,363 @@
 package frc.robot.subsystems;
 
 import java.util.Map;
+import java.util.function.DoubleFunction;
 
 import edu.wpi.first.cscore.HttpCamera;
 import edu.wpi.first.cscore.VideoSource;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.networktables.EntryListenerFlags;
+import edu.wpi.first.networktables.EntryNotification;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
 import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.RobotBase;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.shuffleboard.BuiltInLayouts;
 import edu.wpi.first.wpilibj.shuffleboard.BuiltInWidgets;
 import edu.wpi.first.wpilibj.shuffleboard.Shuffleboard;
 import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardLayout;
 import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardTab;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.logging.MatchLog;
 import frc.robot.preferences.RobotPreferencesLayout;
 import frc.robot.preferences.RobotPreferencesValue;
 import frc.robot.preferences.RobotPreferences.BooleanValue;
+import frc.robot.vision.CargoTrack;
+import frc.robot.vision.CargoTracker;
+import frc.robot.vision.VisionSimulator;
+import frc.robot.vision.VisionSnapshot;
 
+/**
+ * Receives the cargo targets found by the vision pipeline on the Raspberry Pi.
+ *
+ * <p>
+ * For each camera frame, the Pi publishes one number array to
+ * {@link #TARGET_FRAME_KEY} containing, in order: the frame sequence number,
+ * the latency from capture to publication in milliseconds, whether a target
+ * was found (1 or 0), the distance to the target in meters and the angle to
+ * the target in degrees. Because all values arrive in one update, they always
+ * come from the same frame. A sixth, optional, value is the pipeline request
+ * that was in effect when the frame was processed.
+ *
+ * <p>
+ * Changing the pipeline uses a request/acknowledge handshake. Each call to
+ * {@link #setPipeline(String)} publishes a string array containing the
+ * pipeline name and a new request number to
+ * {@link #TARGET_PIPELINE_REQUEST_KEY}. Since both arrive in one update, the Pi
+ * can never pair a new request number with an old name. When the Pi switches,
+ * it echoes the pipeline name to {@link #ACTIVE_PIPELINE_KEY} and the request
+ * number and first frame sequence number to {@link #PIPELINE_ACK_KEY}, and
+ * tags every frame with the request number. Frames from the previous pipeline
+ * are ignored until the switch has taken effect.
+ *
+ * <p>
+ * Detected cargo are also tracked in field coordinates by a
+ * {@link CargoTracker}, which uses the robot pose at the time each frame was
+ * captured.
+ *
+ * <p>
+ * In simulation, the Pi is replaced by a {@link VisionSimulator} that reads the
+ * same request entry and publishes synthetic frames to the same entries. All
+ * of these entries are at the root of NetworkTables, not under SmartDashboard,
+ * so the robot, the Pi and the simulator share them.
+ */
 @RobotPreferencesLayout(groupName = "RaspberryPi", column = 2, row = 3, width = 1, height = 1)
 public class RaspberryPiVision extends SubsystemBase {
-  public static final String TARGET_PIPELINE_NAME_KEY = "Vision/Target/PipelineName";
   public static final String RED_CARGO_PIPELINE = "RedCargoPipeline";
   public static final String BLUE_CARGO_PIPELINE = "BlueCargoPipeline";
+  public static final String TARGET_FRAME_KEY = "Vision/Target/Frame";
+  public static final String TARGET_PIPELINE_REQUEST_KEY = "Vision/Target/PipelineRequest";
+  public static final String ACTIVE_PIPELINE_KEY = "Vision/Target/ActivePipeline";
+  public static final String PIPELINE_ACK_KEY = "Vision/Target/PipelineAck";
+
+  // Results older than this are ignored.
+  public static final double MAX_TARGET_AGE = 0.5; // seconds
+
+  private static final int FRAME_SEQUENCE = 0;
+  private static final int FRAME_LATENCY = 1;
+  private static final int FRAME_HAS_TARGET = 2;
+  private static final int FRAME_DISTANCE = 3;
+  private static final int FRAME_ANGLE = 4;
+  private static final int FRAME_PIPELINE_REQUEST = 5;
+  private static final int FRAME_LENGTH = 5;
+
+  // The elements of the pipeline request array.
+  public static final int REQUEST_PIPELINE_NAME = 0;
+  public static final int REQUEST_NUMBER = 1;
+
   @RobotPreferencesValue
   public static final BooleanValue enableTab = new BooleanValue("RaspberryPi", "enableTab", false);
 
-  /** Creates a new RaspberryPiVision. */
-  public RaspberryPiVision() {
+  private final DoubleFunction<Pose2d> poseHistory;
+  private final CargoTracker cargoTracker = new CargoTracker();
+  private VisionSimulator simulator;
+  private final NetworkTableEntry frameEntry = NetworkTableInstance.getDefault().getEntry(TARGET_FRAME_KEY);
+  private final NetworkTableEntry pipelineRequestEntry = NetworkTableInstance.getDefault()
+      .getEntry(TARGET_PIPELINE_REQUEST_KEY);
+  private final NetworkTableEntry activePipelineEntry = NetworkTableInstance.getDefault()
+      .getEntry(ACTIVE_PIPELINE_KEY);
+  private final int sequenceChannel = MatchLog.registerInput("Vision/Sequence");
+  private final int hasTargetChannel = MatchLog.registerInput("Vision/HasTarget");
+  private final int distanceChannel = MatchLog.registerInput("Vision/Distance");
+  private final int angleChannel = MatchLog.registerInput("Vision/Angle");
+  private final int latencyChannel = MatchLog.registerInput("Vision/Latency");
+  private final int ageChannel = MatchLog.registerInput("Vision/Age");
+  private final int pipelineRequestChannel = MatchLog.registerInput("Vision/PipelineRequest");
+
+  // The current pipeline request and when it was made.
+  private String pipelineName = BLUE_CARGO_PIPELINE;
+  private long pipelineRequest;
+  private double pipelineRequestTimestamp;
+  private boolean pipelineSwitchPending;
+  private double lastPipelineSwitchLatency;
+  private double maxPipelineSwitchLatency;
+  private int framesIgnored;
+  private long lastSequence = -1;
+
+  // The latest frame, written by the NetworkTables listener thread.
+  private volatile VisionSnapshot receivedSnapshot = VisionSnapshot.NONE;
+
+  // The frame used by the robot during the current cycle.
+  private VisionSnapshot snapshot = VisionSnapshot.NONE;
+
+  // Frame statistics. The frame counts are updated by the listener thread.
+  private long framesReceived;
+  private long framesDropped;
+  private long lastReceivedSequence = -1;
+  private int framesUsed;
+  private double lastEndToEndLatency;
+  private double totalEndToEndLatency;
+  private double maxEndToEndLatency;
+
+  /**
+   * Creates a new RaspberryPiVision.
+   *
+   * @param poseHistory Returns the robot pose at a recent FPGA timestamp.
+   */
+  public RaspberryPiVision(DoubleFunction<Pose2d> poseHistory) {
+    this.poseHistory = poseHistory;
+    frameEntry.addListener(
+        (event) -> onFrameReceived(event),
+        EntryListenerFlags.kNew | EntryListenerFlags.kUpdate | EntryListenerFlags.kImmediate
+            | EntryListenerFlags.kLocal);
+
+    if (RobotBase.isSimulation() && !MatchLog.isReplaying()) {
+      simulator = new VisionSimulator(VisionSimulator.getSeedFromEnvironment(), poseHistory.apply(0));
+    }
+
+    // Make an initial request so the robot knows which pipeline its frames are
+    // from even if the Pi was already running.
+    setPipeline(getPipeline());
+  }
+
+  /**
+   * Decodes a frame published by the Pi. This is called on the NetworkTables
+   * listener thread.
+   */
+  private void onFrameReceived(EntryNotification event) {
+    double receiveTimestamp = Timer.getFPGATimestamp();
+
+    if (!event.value.isDoubleArray()) {
+      return;
+    }
+
+    double[] frame = event.value.getDoubleArray();
+    if (frame.length < FRAME_LENGTH) {
+      return;
+    }
+
+    long sequence = (long) frame[FRAME_SEQUENCE];
+    double latency = frame[FRAME_LATENCY] / 1000.0;
+
+    synchronized (this) {
+      // A gap in the sequence numbers means frames were lost or overwritten
+      // before they reached the robot. A smaller number means the Pi restarted.
+      if (lastReceivedSequence >= 0 && sequence > lastReceivedSequence) {
+        framesDropped += sequence - lastReceivedSequence - 1;
+      }
+      lastReceivedSequence = sequence;
+      ++framesReceived;
+    }
+
+    receivedSnapshot = new VisionSnapshot(
+        sequence,
+        frame.length > FRAME_PIPELINE_REQUEST ? (long) frame[FRAME_PIPELINE_REQUEST] : -1,
+        frame[FRAME_HAS_TARGET] != 0,
+        frame[FRAME_DISTANCE],
+        frame[FRAME_ANGLE],
+        latency,
+        receiveTimestamp - latency);
   }
 
   @Override
   public void periodic() {
-    // This method will be called once per scheduler run
+    // Take the latest frame once per cycle so that every command sees the same
+    // frame. The frame is passed through the match log so it can be replayed.
+    VisionSnapshot latest = receivedSnapshot;
+    long sequence = (long) MatchLog.input(sequenceChannel, latest.getSequence());
+
+    if (sequence != lastSequence) {
+      lastSequence = sequence;
+      double now = Timer.getFPGATimestamp();
+      long frameRequest = (long) MatchLog.input(pipelineRequestChannel, latest.getPipelineRequest());
+
+      // Ignore frames processed before the Pi switched to the requested
+      // pipeline. Frames without a request number are from a Pi that does not
+      // support the handshake and are always used.
+      if (frameRequest >= 0 && frameRequest != pipelineRequest) {
+        ++framesIgnored;
+        cargoTracker.removeStaleTracks(now);
+        return;
+      }
+
+      if (pipelineSwitchPending) {
+        pipelineSwitchPending = false;
+        lastPipelineSwitchLatency = now - pipelineRequestTimestamp;
+        maxPipelineSwitchLatency = Math.max(maxPipelineSwitchLatency, lastPipelineSwitchLatency);
+      }
+
+      double age = MatchLog.input(ageChannel, now - latest.getCaptureTimestamp());
+
+      snapshot = new VisionSnapshot(
+          sequence,
+          frameRequest,
+          MatchLog.input(hasTargetChannel, latest.hasTarget()),
+          MatchLog.input(distanceChannel, latest.getDistance()),
+          MatchLog.input(angleChannel, latest.getAngle()),
+          MatchLog.input(latencyChannel, latest.getLatency()),
+          now - age);
+
+      // The end-to-end latency runs from frame capture until the result is first
+      // used by the robot code.
+      lastEndToEndLatency = age;
+      totalEndToEndLatency += age;
+      maxEndToEndLatency = Math.max(maxEndToEndLatency, age);
+      ++framesUsed;
+
+      cargoTracker.addSnapshot(snapshot, poseHistory.apply(snapshot.getCaptureTimestamp()));
+    }
+
+    cargoTracker.removeStaleTracks(Timer.getFPGATimestamp());
+  }
+
+  @Override
+  public void simulationPeriodic() {
+    if (simulator != null) {
+      double now = Timer.getFPGATimestamp();
+      simulator.update(now, poseHistory.apply(now));
+    }
   }
 
+  /** Returns the vision simulator, or null when running on the robot. */
+  public VisionSimulator getSimulator() {
+    return simulator;
+  }
+
+  /** Returns the tracker of the cargo seen in recent frames. */
+  public CargoTracker getCargoTracker() {
+    return cargoTracker;
+  }
+
+  /**
+   * Returns the confirmed cargo that is quickest to reach, or null if no cargo
+   * is being tracked.
+   */
+  public CargoTrack getBestCargo() {
+    double now = Timer.getFPGATimestamp();
+    return cargoTracker.getBestTrack(poseHistory.apply(now), now);
+  }
+
+  /**
+   * Returns the most recent vision result. All values in the snapshot come from
+   * the same camera frame, and the snapshot does not change until the next
+   * scheduler cycle.
+   */
+  public VisionSnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /** Returns whether the latest vision result is too old to be used. */
+  public boolean isStale() {
+    return snapshot.isStale(MAX_TARGET_AGE);
+  }
+
+  /** Returns the number of frames received from the Pi. */
+  public synchronized long getFramesReceived() {
+    return framesReceived;
+  }
+
+  /** Returns the number of frames published by the Pi that never reached the robot. */
+  public synchronized long getFramesDropped() {
+    return framesDropped;
+  }
+
+  /** Returns the end-to-end latency of the latest frame in seconds. */
+  public double getLastLatency() {
+    return lastEndToEndLatency;
+  }
+
+  /** Returns the average end-to-end latency in seconds. */
+  public double getAverageLatency() {
+    return framesUsed != 0 ? totalEndToEndLatency / framesUsed : 0.0;
+  }
+
+  /** Returns the maximum end-to-end latency in seconds. */
+  public double getMaxLatency() {
+    return maxEndToEndLatency;
+  }
+
+  /**
+   * Requests a pipeline change. Until the Pi acknowledges the request, no
+   * vision results are reported.
+   *
+   * @param pipelineName The name of the pipeline.
+   */
   public void setPipeline(String pipelineName) {
-    SmartDashboard.putString(TARGET_PIPELINE_NAME_KEY, pipelineName);
+    ++pipelineRequest;
+    pipelineRequestTimestamp = Timer.getFPGATimestamp();
+    pipelineSwitchPending = true;
+    snapshot = VisionSnapshot.NONE;
+    cargoTracker.reset();
+    this.pipelineName = pipelineName;
+
+    String[] request = new String[2];
+    request[REQUEST_PIPELINE_NAME] = pipelineName;
+    request[REQUEST_NUMBER] = Long.toString(pipelineRequest);
+    pipelineRequestEntry.setStringArray(request);
   }
 
+  /** Returns the name of the requested pipeline. */
   public String getPipeline() {
-    return SmartDashboard.getString(TARGET_PIPELINE_NAME_KEY, BLUE_CARGO_PIPELINE);
+    return pipelineName;
+  }
+
+  /** Returns the name of the pipeline the Pi reports as active. */
+  public String getActivePipeline() {
+    return activePipelineEntry.getString("");
+  }
+
+  /** Returns whether the Pi has not yet switched to the requested pipeline. */
+  public boolean isPipelineSwitchPending() {
+    return pipelineSwitchPending;
+  }
+
+  /**
+   * Returns the time in seconds from the most recent completed pipeline request
+   * until the first frame from the new pipeline was used.
+   */
+  public double getLastPipelineSwitchLatency() {
+    return lastPipelineSwitchLatency;
+  }
+
+  /** Returns the longest pipeline switch latency in seconds. */
+  public double getMaxPipelineSwitchLatency() {
+    return maxPipelineSwitchLatency;
+  }
+
+  /** Returns the number of frames ignored because they came from the wrong pipeline. */
+  public int getFramesIgnored() {
+    return framesIgnored;
   }
 
   public void initPipeline() {
@@ -59,16 +378,19 @@ public class RaspberryPiVision extends SubsystemBase {
 
   }
 
+  /** Returns whether the latest vision result has a target and is not stale. */
   public boolean hasTarget() {
-    return SmartDashboard.getBoolean("Vision/Target/HasTarget", false);
+    return snapshot.hasTarget() && !isStale();
   }
 
+  /** Returns the distance to the target in the latest vision result. */
   public double getDistanceToTarget() {
-    return SmartDashboard.getNumber("Vision/Target/Distance", 0);
+    return snapshot.getDistance();
   }
 
+  /** Returns the angle to the target in the latest vision result. */
   public double getAngleToTarget() {
-    return SmartDashboard.getNumber("vision/Target/Angle", 0);
+    return snapshot.getAngle();
   }
 
   public void addShuffleboardTab() {
@@ -88,6 +410,31 @@ public class RaspberryPiVision extends SubsystemBase {
     targetLayout.addNumber("Distance", () -> getDistanceToTarget());
     targetLayout.addNumber("Angle", () -> getAngleToTarget());
 
+    ShuffleboardLayout frameLayout = piTab.getLayout("Frames", BuiltInLayouts.kList)
+        .withPosition(6, 0)
+        .withSize(2, 3);
+
+    frameLayout.addNumber("Age", () -> snapshot.getAge());
+    frameLayout.addNumber("Received", () -> getFramesReceived());
+    frameLayout.addNumber("Dropped", () -> getFramesDropped());
+    frameLayout.addNumber("Latency", () -> getLastLatency());
+    frameLayout.addNumber("Average Latency", () -> getAverageLatency());
+    frameLayout.addNumber("Max Latency", () -> getMaxLatency());
+    frameLayout.addString("Active Pipeline", () -> getActivePipeline());
+    frameLayout.addBoolean("Switch Pending", () -> isPipelineSwitchPending()).withWidget(BuiltInWidgets.kBooleanBox);
+    frameLayout.addNumber("Switch Latency", () -> getLastPipelineSwitchLatency());
+    frameLayout.addNumber("Ignored", () -> getFramesIgnored());
+
+    ShuffleboardLayout trackerLayout = piTab.getLayout("Cargo Tracker", BuiltInLayouts.kList)
+        .withPosition(8, 0)
+        .withSize(2, 3);
+
+    trackerLayout.addNumber("Tracks", () -> cargoTracker.getTracks().size());
+    trackerLayout.addString("Best Cargo", () -> {
+      CargoTrack best = getBestCargo();
+      return best != null ? best.toString() : "None";
+    });
+
     VideoSource processedVideo = new HttpCamera("Processed", "http://wpilibpi.local:1182/stream.mjpg");
     piTab.add("Processed Video", processedVideo)
         .withWidget(BuiltInWidgets.kCameraStream)
@@ -15,6 +15,7 @@ import edu.wpi.first.math.controller.ProfiledPIDController;
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.interpolation.TimeInterpolatableBuffer;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
 import edu.wpi.first.math.kinematics.SwerveDriveOdometry;
@@ -24,18 +25,47 @@ import edu.wpi.first.math.trajectory.TrajectoryConfig;
 import edu.wpi.first.math.trajectory.TrajectoryGenerator;
 import edu.wpi.first.math.trajectory.TrapezoidProfile;
 import edu.wpi.first.wpilibj.SerialPort;
+import edu.wpi.first.wpilibj.TimedRobot;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.shuffleboard.BuiltInLayouts;
 import edu.wpi.first.wpilibj.shuffleboard.Shuffleboard;
 import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardLayout;
 import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardTab;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.commands.ApplyFeedforwardGains;
 import frc.robot.commands.CharacterizeSwerveDrive;
+import frc.robot.logging.MatchLog;
 import frc.robot.preferences.RobotPreferences.BooleanValue;
 import frc.robot.preferences.RobotPreferences.DoubleValue;
 import frc.robot.preferences.RobotPreferencesLayout;
 import frc.robot.preferences.RobotPreferencesValue;
 import frc.robot.utilities.ShuffleboardUtils;
 
+/**
+ * The swerve drivetrain.
+ *
+ * <p>
+ * The drivetrain control loop, which reads the wheel encoders and gyro,
+ * updates the odometry and runs the module velocity and steering controllers,
+ * runs at {@link #CONTROL_PERIOD}, four times for each cycle of the main
+ * robot loop. It runs from its own {@link TimedRobot#addPeriodic} slot or,
+ * with the realTimeThread preference set, on a real-time thread of its own. Commands still run
+ * at the main loop rate: they hand the desired module states to the control
+ * loop, and read back the pose and speeds it last published. Each is an
+ * immutable object behind a volatile reference, so both sides always see a
+ * whole value, never one that is half updated. Methods that change the
+ * odometry are synchronized with the control loop.
+ *
+ * <p>
+ * The sensor values read in each control cycle are kept, and recorded in the
+ * match log as samples of the next main loop cycle, up to
+ * {@link #MAX_CONTROL_SAMPLES} of them. When a log is replayed, there is no
+ * control loop of its own: {@link #periodic()} runs the recorded control
+ * cycles in order, each timed as it was in the match, so the odometry and the
+ * pose the commands see are the same as they were. The replayed module
+ * outputs can still differ a little from the recorded ones, as new desired
+ * states reach the control loop at a different point in the cycle.
+ */
 @RobotPreferencesLayout(groupName = "SwerveDrive", column = 0, row = 0, width = 2, height = 3, type = "Grid Layout")
 public class SwerveDrive extends SubsystemBase {
 
@@ -56,6 +86,25 @@ public class SwerveDrive extends SubsystemBase {
   public static final double MAX_AUTO_ANGULAR_ACCELERATION = (3 * Math.PI) / 2;
   public static final double MAX_AUTO_SPEED = 1.5;
   public static final double MAX_AUTO_ACCELERATION = 0.5;
+  public static final double POSE_HISTORY_SECONDS = 1.5;
+
+  // The control loop runs at 200 Hz, offset by half its period so that it never
+  // falls due at the same time as the main loop.
+  public static final double CONTROL_PERIOD = 0.005; // seconds
+  public static final double CONTROL_PERIOD_OFFSET = CONTROL_PERIOD / 2;
+
+  // The most control cycles recorded in one main loop cycle, twice the usual
+  // number. If the main loop stalls for longer, the latest control cycle is
+  // recorded in place of the one before it.
+  public static final int MAX_CONTROL_SAMPLES = 8;
+
+  // The sensor values in each control cycle's sample. The time it was read is
+  // recorded as its age at the end of the main loop cycle, since a replayed log
+  // runs on its own clock.
+  private static final int SAMPLE_TIME = 0;
+  private static final int SAMPLE_GYRO_ANGLE = 1;
+  private static final int SAMPLE_MODULES = 2;
+  private static final int SAMPLE_SIZE = SAMPLE_MODULES + 4 * SwerveModule.INPUT_NAMES.length;
 
   public static final TrapezoidProfile.Constraints THETA_CONTROLLER_CONSTRAINTS = new TrapezoidProfile.Constraints(
       SwerveDrive.MAX_AUTO_ANGULAR_SPEED, SwerveDrive.MAX_AUTO_ANGULAR_ACCELERATION);
@@ -74,6 +123,8 @@ public class SwerveDrive extends SubsystemBase {
   public static final DoubleValue driveD = new DoubleValue("SwerveDrive", "driveD", 0);
   @RobotPreferencesValue
   public static final BooleanValue enableTab = new BooleanValue("SwerveDrive", "enableTab", false);
+  @RobotPreferencesValue
+  public static final BooleanValue enableRealTimeThread = new BooleanValue("SwerveDrive", "realTimeThread", false);
 
   public double currentMaxSpeed = MAX_SPEED;
   public double currentMaxAngularSpeed = MAX_ANGULAR_SPEED;
@@ -87,16 +138,53 @@ public class SwerveDrive extends SubsystemBase {
   public static final Translation2d BACK_LEFT_LOCATION = new Translation2d(-0.3302, 0.2413);
   public static final Translation2d BACK_RIGHT_LOCATION = new Translation2d(-0.3302, -0.2413);
 
-  private final AHRS ahrs = new AHRS(SerialPort.Port.kMXP);
+  // The navX reports at the control loop rate.
+  private final AHRS ahrs = new AHRS(SerialPort.Port.kMXP, AHRS.SerialDataType.kProcessedData,
+      (byte) Math.round(1 / CONTROL_PERIOD));
+  private final int sampleCountChannel = MatchLog.registerInput("SwerveDrive/ControlSamples");
+  private final int[][] sampleChannels = new int[MAX_CONTROL_SAMPLES][SAMPLE_SIZE];
+  private final int gyroPitchChannel = MatchLog.registerInput("SwerveDrive/GyroPitch");
+  private final int gyroPitchRateChannel = MatchLog.registerInput("SwerveDrive/GyroPitchRate");
+  private final int poseXChannel = MatchLog.registerOutput("SwerveDrive/PoseX");
+  private final int poseYChannel = MatchLog.registerOutput("SwerveDrive/PoseY");
+  private final int poseHeadingChannel = MatchLog.registerOutput("SwerveDrive/PoseHeading");
+  private final int controlCyclesChannel = MatchLog.registerOutput("SwerveDrive/ControlCycles");
+
+  // The gyro angle is read once per control cycle. Resetting the heading
+  // records an offset rather than resetting the navX so that it can be replayed
+  // from a log.
+  private double rawGyroAngle;
+  private double pitch;
+  private double pitchRate;
+  private double gyroAngleOffset;
 
   private final SwerveDriveKinematics kinematics = new SwerveDriveKinematics(
       FRONT_LEFT_LOCATION, FRONT_RIGHT_LOCATION, BACK_LEFT_LOCATION, BACK_RIGHT_LOCATION);
-  private final SwerveDriveOdometry odometry = new SwerveDriveOdometry(kinematics, getRotation2d());
+  private final SwerveDriveOdometry odometry = new SwerveDriveOdometry(kinematics, new Rotation2d());
+
+  // Handed from the commands to the control loop. Null stops the motors.
+  private volatile SwerveModuleState[] desiredStates;
+  private boolean motorsStopped;
+
+  // Published by the control loop for the commands.
+  private volatile Rotation2d rotation = new Rotation2d();
+  private volatile Pose2d pose = new Pose2d();
+  private volatile ChassisSpeeds chassisSpeeds = new ChassisSpeeds();
 
-  private final SwerveModule frontLeft = new SwerveModule(1, 2, 9, "Front Left");
-  private final SwerveModule frontRight = new SwerveModule(3, 4, 10, "Front Right");
-  private final SwerveModule backLeft = new SwerveModule(7, 8, 12, "Back Left");
-  private final SwerveModule backRight = new SwerveModule(5, 6, 11, "Back Right");
+  // The control cycles run since the last main loop cycle.
+  private final double[][] samples = new double[MAX_CONTROL_SAMPLES][SAMPLE_SIZE];
+  private int sampleCount;
+
+  // Recent poses, used to find where the robot was when a sensor measurement was
+  // taken.
+  private final TimeInterpolatableBuffer<Pose2d> poseHistory = TimeInterpolatableBuffer
+      .createBuffer(POSE_HISTORY_SECONDS);
+
+  private final SwerveModule frontLeft = new SwerveModule(1, 2, 9, "Front Left", CONTROL_PERIOD);
+  private final SwerveModule frontRight = new SwerveModule(3, 4, 10, "Front Right", CONTROL_PERIOD);
+  private final SwerveModule backLeft = new SwerveModule(7, 8, 12, "Back Left", CONTROL_PERIOD);
+  private final SwerveModule backRight = new SwerveModule(5, 6, 11, "Back Right", CONTROL_PERIOD);
+  private final SwerveModule[] modules = { frontLeft, frontRight, backLeft, backRight };
 
   private final ProfiledPIDController thetaController = new ProfiledPIDController(
       turnP.getValue(), turnI.getValue(), turnD.getValue(), THETA_CONTROLLER_CONSTRAINTS);
@@ -105,15 +193,45 @@ public class SwerveDrive extends SubsystemBase {
     ahrs.reset();
     thetaController.enableContinuousInput(-Math.PI, Math.PI);
     thetaController.setTolerance(Math.PI / 36); // 5 degree tolerance
+
+    for (int i = 0; i < MAX_CONTROL_SAMPLES; ++i) {
+      String prefix = "SwerveDrive/Sample" + i + "/";
+      sampleChannels[i][SAMPLE_TIME] = MatchLog.registerInput(prefix + "Age");
+      sampleChannels[i][SAMPLE_GYRO_ANGLE] = MatchLog.registerInput(prefix + "GyroAngle");
+      for (int m = 0; m < modules.length; ++m) {
+        for (int k = 0; k < SwerveModule.INPUT_NAMES.length; ++k) {
+          sampleChannels[i][getModuleOffset(m) + k] = MatchLog.registerInput(
+              prefix + modules[m].getModuleName() + "/" + SwerveModule.INPUT_NAMES[k]);
+        }
+      }
+    }
   }
 
-  public void reset() {
-    ahrs.reset();
+  public synchronized void reset() {
+    desiredStates = null;
+    gyroAngleOffset = rawGyroAngle;
     frontLeft.reset();
     frontRight.reset();
     backLeft.reset();
     backRight.reset();
-    odometry.resetPosition(new Pose2d(), getRotation2d());
+    motorsStopped = true;
+    odometry.resetPosition(new Pose2d(), getGyroRotation());
+    poseHistory.clear();
+    publishState();
+  }
+
+  /**
+   * Returns whether the control loop runs on its own, in which case the robot
+   * must call {@link #controlPeriodic()} every {@link #getControlPeriod()}
+   * seconds. It does not while a match log is replayed.
+   */
+  public boolean hasFastControlLoop() {
+    return !MatchLog.isReplaying();
+  }
+
+  /** Returns the period of the control loop in seconds. */
+  public double getControlPeriod() {
+    return CONTROL_PERIOD;
   }
 
   /**
@@ -201,19 +319,24 @@ public class SwerveDrive extends SubsystemBase {
     currentMaxAngularSpeed = MathUtil.clamp(angularSpeed, 0, MAX_ANGULAR_SPEED);
   }
 
-  /** Updates the field relative position of the robot. */
-  public void updateOdometry() {
-    odometry.update(
-        getRotation2d(),
+  /**
+   * Updates the field relative position of the robot.
+   *
+   * @param timestamp The FPGA timestamp at which the sensors were read.
+   */
+  private void updateOdometry(double timestamp) {
+    odometry.updateWithTime(
+        timestamp,
+        getGyroRotation(),
         frontLeft.getState(),
         frontRight.getState(),
         backLeft.getState(),
         backRight.getState());
   }
 
+  /** Returns the robot relative speeds measured in the last control cycle. */
   public ChassisSpeeds getChassisSpeeds() {
-    return kinematics.toChassisSpeeds(frontLeft.getState(), frontRight.getState(), backLeft.getState(),
-        backRight.getState());
+    return chassisSpeeds;
   }
 
   /**
@@ -221,8 +344,10 @@ public class SwerveDrive extends SubsystemBase {
    *
    * @param pose The pose to which to set the odometry.
    */
-  public void resetOdometry(Pose2d pose) {
-    odometry.resetPosition(pose, getRotation2d());
+  public synchronized void resetOdometry(Pose2d pose) {
+    odometry.resetPosition(pose, getGyroRotation());
+    poseHistory.clear();
+    publishState();
   }
 
   public void resetHeading() {
@@ -233,41 +358,198 @@ public class SwerveDrive extends SubsystemBase {
 
   @Override
   public void periodic() {
-    updateOdometry();
+    // The pitch is only used by the climb, so it is read at the main loop rate.
+    pitch = MatchLog.input(gyroPitchChannel, ahrs.getPitch());
+    pitchRate = MatchLog.input(gyroPitchRateChannel, ahrs.getRawGyroX());
+
+    int cycles = MatchLog.isReplaying() ? replayControlCycles() : recordControlCycles();
+
+    Pose2d pose = getPose2d();
+    MatchLog.output(poseXChannel, pose.getX());
+    MatchLog.output(poseYChannel, pose.getY());
+    MatchLog.output(poseHeadingChannel, pose.getRotation().getDegrees());
+    MatchLog.output(controlCyclesChannel, cycles);
+  }
+
+  /**
+   * Runs one cycle of the control loop: reads the sensors, keeps their values
+   * to be recorded, and runs the control cycle on them.
+   */
+  public synchronized void controlPeriodic() {
+    double[] sample = samples[Math.min(sampleCount, MAX_CONTROL_SAMPLES - 1)];
+    sample[SAMPLE_TIME] = Timer.getFPGATimestamp();
+    sample[SAMPLE_GYRO_ANGLE] = ahrs.getAngle();
+    rawGyroAngle = sample[SAMPLE_GYRO_ANGLE];
+    for (int m = 0; m < modules.length; ++m) {
+      modules[m].readInputs(sample, getModuleOffset(m));
+    }
+    sampleCount++;
+
+    runControlCycle(sample[SAMPLE_TIME]);
+  }
+
+  /**
+   * Updates the odometry from the sensor values of a control cycle, publishes
+   * the pose and speeds, and drives the modules to the desired states.
+   *
+   * @param timestamp The FPGA timestamp at which the sensors were read.
+   */
+  private void runControlCycle(double timestamp) {
+    updateOdometry(timestamp);
+    poseHistory.addSample(timestamp, odometry.getPoseMeters());
+    publishState();
+
+    SwerveModuleState[] states = desiredStates;
+    if (states != null) {
+      applyModuleStates(states);
+      motorsStopped = false;
+    } else if (!motorsStopped) {
+      stopModules();
+      motorsStopped = true;
+    }
+  }
+
+  /**
+   * Records the sensor values of the control cycles run since the last main
+   * loop cycle in the match log.
+   *
+   * @return The number of control cycles run.
+   */
+  private synchronized int recordControlCycles() {
+    double now = Timer.getFPGATimestamp();
+    int count = Math.min(sampleCount, MAX_CONTROL_SAMPLES);
+
+    MatchLog.input(sampleCountChannel, count);
+    for (int i = 0; i < count; ++i) {
+      MatchLog.input(sampleChannels[i][SAMPLE_TIME], now - samples[i][SAMPLE_TIME]);
+      for (int j = SAMPLE_GYRO_ANGLE; j < SAMPLE_SIZE; ++j) {
+        MatchLog.input(sampleChannels[i][j], samples[i][j]);
+      }
+    }
+
+    int cycles = sampleCount;
+    sampleCount = 0;
+    return cycles;
   }
 
-  /** Returns the current orientation of the robot as a Rotation2d object */
+  /**
+   * Runs the control cycles recorded in the match log for this main loop
+   * cycle, in the order they ran.
+   *
+   * @return The number of control cycles run.
+   */
+  private synchronized int replayControlCycles() {
+    double now = Timer.getFPGATimestamp();
+    int count = Math.min((int) MatchLog.input(sampleCountChannel, 0), MAX_CONTROL_SAMPLES);
+
+    for (int i = 0; i < count; ++i) {
+      double[] sample = samples[i];
+      for (int j = 0; j < SAMPLE_SIZE; ++j) {
+        sample[j] = MatchLog.input(sampleChannels[i][j], 0);
+      }
+
+      rawGyroAngle = sample[SAMPLE_GYRO_ANGLE];
+      for (int m = 0; m < modules.length; ++m) {
+        modules[m].setInputs(sample, getModuleOffset(m));
+      }
+      runControlCycle(now - sample[SAMPLE_TIME]);
+    }
+
+    return count;
+  }
+
+  /** Returns where a module's sensor values are in a control cycle's sample. */
+  private static int getModuleOffset(int module) {
+    return SAMPLE_MODULES + module * SwerveModule.INPUT_NAMES.length;
+  }
+
+  /** Publishes the latest measurements for the commands. */
+  private void publishState() {
+    rotation = getGyroRotation();
+    pose = odometry.getPoseMeters();
+    chassisSpeeds = kinematics.toChassisSpeeds(
+        frontLeft.getState(), frontRight.getState(), backLeft.getState(), backRight.getState());
+  }
+
+  /** Returns the orientation of the robot measured by the gyro. */
+  private Rotation2d getGyroRotation() {
+    return Rotation2d.fromDegrees(-(rawGyroAngle - gyroAngleOffset));
+  }
+
+  /**
+   * Returns the orientation of the robot as a Rotation2d object, as measured in
+   * the last control cycle.
+   */
   public Rotation2d getRotation2d() {
-    return Rotation2d.fromDegrees(-ahrs.getAngle());
+    return rotation;
+  }
+
+  /**
+   * Returns the pitch of the robot in degrees. This is how far the robot has
+   * swung while hanging from the climber.
+   */
+  public double getPitch() {
+    return pitch;
   }
 
-  /** Returns the current pose of the robot as a Pose2d object */
+  /** Returns the rate of change of the pitch in degrees per second. */
+  public double getPitchRate() {
+    return pitchRate;
+  }
+
+  /**
+   * Returns the pose of the robot as a Pose2d object, as measured in the last
+   * control cycle.
+   */
   public Pose2d getPose2d() {
-    return odometry.getPoseMeters();
+    return pose;
+  }
+
+  /**
+   * Returns the pose of the robot at a recent time, interpolated between the
+   * poses recorded each cycle.
+   *
+   * @param timestamp The FPGA timestamp. Times older than the pose history are
+   *                  clamped to the oldest pose.
+   */
+  public synchronized Pose2d getPoseAt(double timestamp) {
+    Pose2d pose = poseHistory.getSample(timestamp);
+    return pose != null ? pose : getPose2d();
   }
 
   public double getHeadingDegrees() {
     return  getPose2d().getRotation().getDegrees();
   }
 
-  /** Sets the desired module states. */
+  /**
+   * Sets the desired module states. The control loop drives the modules to
+   * these states until new ones are set or the motors are stopped.
+   */
   public void setModuleStates(SwerveModuleState[] desiredStates) {
+    SwerveModuleState[] states = desiredStates.clone();
     SwerveDriveKinematics.desaturateWheelSpeeds(
-        desiredStates, MAX_SPEED);
-    frontLeft.setDesiredState(desiredStates[0]);
-    frontRight.setDesiredState(desiredStates[1]);
-    backLeft.setDesiredState(desiredStates[2]);
-    backRight.setDesiredState(desiredStates[3]);
+        states, MAX_SPEED);
+    this.desiredStates = states;
+  }
+
+  private void applyModuleStates(SwerveModuleState[] states) {
+    frontLeft.setDesiredState(states[0]);
+    frontRight.setDesiredState(states[1]);
+    backLeft.setDesiredState(states[2]);
+    backRight.setDesiredState(states[3]);
   }
 
   // Stops all Swerve Drive Motors
   public void stopMotors() {
+    desiredStates = null;
+    turnToAngle = false;
+  }
+
+  private void stopModules() {
     frontLeft.stopMotors();
     frontRight.stopMotors();
     backLeft.stopMotors();
     backRight.stopMotors();
-    turnToAngle = false;
-
   }
 
   /**
@@ -366,5 +648,7 @@ public class SwerveDrive extends SubsystemBase {
         .withPosition(6, 0)
         .withSize(2, 2);
     commandLayout.add(new CharacterizeSwerveDrive(this));
+    commandLayout.add(new ApplyFeedforwardGains(
+        "Drivetrain", SwerveModule.driveKs, SwerveModule.driveKv, SwerveModule.driveKa));
   }
 }
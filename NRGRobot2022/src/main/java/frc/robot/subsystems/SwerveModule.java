@@ -18,12 +18,12 @@ import edu.wpi.first.math.kinematics.SwerveModuleState;
 import edu.wpi.first.math.trajectory.TrapezoidProfile;
 import edu.wpi.first.util.sendable.Sendable;
 import edu.wpi.first.util.sendable.SendableBuilder;
-import edu.wpi.first.wpilibj.RobotController;
 import edu.wpi.first.wpilibj.shuffleboard.BuiltInLayouts;
 import edu.wpi.first.wpilibj.shuffleboard.BuiltInWidgets;
 import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardLayout;
 import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardTab;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.logging.MatchLog;
 import frc.robot.preferences.RobotPreferencesLayout;
 import frc.robot.preferences.RobotPreferencesValue;
 import frc.robot.preferences.RobotPreferences.DoubleValue;
@@ -54,6 +54,12 @@ public class SwerveModule extends SubsystemBase {
   private static final double DRIVE_PULSES_PER_METER = (ENCODER_RESOLUTION * DRIVE_GEAR_RATIO)
       / (2 * WHEEL_RADIUS * Math.PI); // pulses per meter
 
+  /**
+   * The names of the sensor values a module reads each control cycle, in the
+   * order {@link #readInputs} stores them.
+   */
+  public static final String[] INPUT_NAMES = { "WheelVelocity", "WheelDistance", "WheelAngle" };
+
   private static final double MODULE_MAX_ANGULAR_VELOCITY = SwerveDrive.MAX_ANGULAR_SPEED;
   private static final double MODULE_MAX_ANGULAR_ACCELERATION = 2 * Math.PI; // radians per second squared
 
@@ -63,15 +69,10 @@ public class SwerveModule extends SubsystemBase {
   private final CANCoder turningEncoder;
 
   // Gains are for example purposes only - must be determined for your own robot!
-  private final PIDController drivePIDController = new PIDController(driveP.getValue(), 0, 0);
+  private final PIDController drivePIDController;
 
   // Gains are for example purposes only - must be determined for your own robot!
-  private final ProfiledPIDController turningPIDController = new ProfiledPIDController(
-      turnP.getValue(),
-      0,
-      0,
-      new TrapezoidProfile.Constraints(
-          MODULE_MAX_ANGULAR_VELOCITY, MODULE_MAX_ANGULAR_ACCELERATION));
+  private final ProfiledPIDController turningPIDController;
 
   // Gains are for example purposes only - must be determined for your own robot!
   private final SimpleMotorFeedforward driveFeedforward = new SimpleMotorFeedforward(
@@ -83,6 +84,13 @@ public class SwerveModule extends SubsystemBase {
 
   private String moduleName;
 
+  private final int driveOutputChannel;
+  private final int turnOutputChannel;
+
+  private double wheelVelocity;
+  private double wheelDistance;
+  private double wheelAngle;
+
   /**
    * Constructs a SwerveModule with a drive motor, turning motor, drive encoder
    * and turning encoder.
@@ -90,8 +98,16 @@ public class SwerveModule extends SubsystemBase {
    * @param driveMotorChannel    CAN ID of the drive motor.
    * @param turningMotorChannel  CAN ID of the turning motor.
    * @param turningEncodeChannel CAN ID of the turning encoder
+   * @param moduleName           The name of the module.
+   * @param controlPeriod        The period in seconds at which
+   *                             {@link #setDesiredState} is called.
    */
-  public SwerveModule(int driveMotorChannel, int turningMotorChannel, int turningEncodeChannel, String moduleName) {
+  public SwerveModule(
+      int driveMotorChannel,
+      int turningMotorChannel,
+      int turningEncodeChannel,
+      String moduleName,
+      double controlPeriod) {
     driveMotor = new TalonFX(driveMotorChannel);
     driveMotor.setNeutralMode(NeutralMode.Brake);
     turningMotor = new TalonFX(turningMotorChannel);
@@ -101,18 +117,70 @@ public class SwerveModule extends SubsystemBase {
 
     this.moduleName = moduleName;
 
+    // The controllers step their profile and integrate and differentiate the
+    // error once per call, so they must know how often they are called.
+    drivePIDController = new PIDController(driveP.getValue(), 0, 0, controlPeriod);
+    turningPIDController = new ProfiledPIDController(
+        turnP.getValue(),
+        0,
+        0,
+        new TrapezoidProfile.Constraints(
+            MODULE_MAX_ANGULAR_VELOCITY, MODULE_MAX_ANGULAR_ACCELERATION),
+        controlPeriod);
+
+    driveOutputChannel = MatchLog.registerOutput("SwerveModule/" + moduleName + "/DriveOutput");
+    turnOutputChannel = MatchLog.registerOutput("SwerveModule/" + moduleName + "/TurnOutput");
+
     turningEncoder.configAbsoluteSensorRange(AbsoluteSensorRange.Signed_PlusMinus180);
     // Limit the PID Controller's input range between -pi and pi and set the input
     // to be continuous.
     turningPIDController.enableContinuousInput(-Math.PI, Math.PI);
     turningPIDController.reset(Math.toRadians(turningEncoder.getAbsolutePosition()));
 
+    readInputs(new double[INPUT_NAMES.length], 0);
+  }
+
+  /** Returns the name of the module. */
+  public String getModuleName() {
+    return moduleName;
+  }
+
+  /**
+   * Reads the module sensors. This is called once per control cycle by the
+   * drivetrain so that every calculation in the cycle uses the same sensor
+   * values, which the drivetrain records in the match log.
+   *
+   * @param sample The control cycle's sensor values.
+   * @param offset Where in the sample to store the module's values, in the
+   *               order of {@link #INPUT_NAMES}.
+   */
+  public void readInputs(double[] sample, int offset) {
+    // talonFX reports velocity in pulses per 100ms; multiply by 10 to convert to
+    // seconds
+    sample[offset] = (driveMotor.getSelectedSensorVelocity() * 10) / DRIVE_PULSES_PER_METER;
+    sample[offset + 1] = driveMotor.getSelectedSensorPosition() / DRIVE_PULSES_PER_METER;
+    sample[offset + 2] = turningEncoder.getAbsolutePosition();
+    setInputs(sample, offset);
+  }
+
+  /**
+   * Sets the sensor values for a control cycle, either just read or recorded
+   * in a match log being replayed.
+   *
+   * @param sample The control cycle's sensor values.
+   * @param offset Where in the sample the module's values are, in the order
+   *               of {@link #INPUT_NAMES}.
+   */
+  public void setInputs(double[] sample, int offset) {
+    wheelVelocity = sample[offset];
+    wheelDistance = sample[offset + 1];
+    wheelAngle = sample[offset + 2];
   }
 
   /** Resets the module. */
   public void reset() {
     stopMotors();
-    turningPIDController.reset(Math.toRadians(turningEncoder.getAbsolutePosition()));
+    turningPIDController.reset(Math.toRadians(getWheelAngle()));
   }
 
   /** Returns the current state of the module. */
@@ -122,14 +190,12 @@ public class SwerveModule extends SubsystemBase {
 
   /** Returns wheel velocity in meters per second. */
   public double getWheelVelocity() {
-    // talonFX reports velocity in pulses per 100ms; multiply by 10 to convert to
-    // seconds
-    return (driveMotor.getSelectedSensorVelocity() * 10) / DRIVE_PULSES_PER_METER;
+    return wheelVelocity;
   }
 
   /** Returns the distance the wheel has travelled in meters. */
   public double getWheelDistance() {
-    return driveMotor.getSelectedSensorPosition() / DRIVE_PULSES_PER_METER;
+    return wheelDistance;
   }
 
   /** Returns the module state set by the last call to setDesiredState. */
@@ -158,17 +224,16 @@ public class SwerveModule extends SubsystemBase {
     final double turnOutput = turningPIDController.calculate(currentAngle.getRadians(), state.angle.getRadians());
 
     final double turnFeedforward = this.turnFeedforward.calculate(turningPIDController.getSetpoint().velocity);
-    final double batteryVoltage = RobotController.getBatteryVoltage();
+    final double batteryVoltage = MatchLog.getBatteryVoltage();
 
-    driveMotor.set(ControlMode.PercentOutput, (driveOutput + driveFeedforward) / batteryVoltage);
-    turningMotor.set(ControlMode.PercentOutput, (turnOutput + turnFeedforward) / batteryVoltage);
+    setDriveMotorPower((driveOutput + driveFeedforward) / batteryVoltage);
+    setTurnMotorPower((turnOutput + turnFeedforward) / batteryVoltage);
   }
 
   /** Stops the drive and turn motors */
   public void stopMotors() {
-    driveMotor.set(ControlMode.PercentOutput, 0);
-    turningMotor.set(ControlMode.PercentOutput, 0);
-
+    setDriveMotorPower(0);
+    setTurnMotorPower(0);
   }
 
   /**
@@ -176,7 +241,7 @@ public class SwerveModule extends SubsystemBase {
    * [-180..180].
    */
   public double getWheelAngle() {
-    return turningEncoder.getAbsolutePosition();
+    return wheelAngle;
   }
 
   /** Returns the current whell angle as a Rotation2d object. */
@@ -187,11 +252,13 @@ public class SwerveModule extends SubsystemBase {
   /** Sets the driver motor power. */
   private void setDriveMotorPower(double power) {
     driveMotor.set(ControlMode.PercentOutput, power);
+    MatchLog.output(driveOutputChannel, power);
   }
 
   /** Sets the turn motor power. */
   private void setTurnMotorPower(double power) {
     turningMotor.set(ControlMode.PercentOutput, power);
+    MatchLog.output(turnOutputChannel, power);
   }
 
   /** Adds module widgets to the specified Shuffleboard tab. */
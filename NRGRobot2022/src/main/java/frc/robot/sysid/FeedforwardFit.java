@@ -0,0 +1,186 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.sysid;
+
+/**
+ * Fits feedforward gains to characterization data by ordinary least squares.
+ *
+ * <p>
+ * The model is the one used by SysId:
+ *
+ * <pre>
+ * V = kS * sgn(v) + kV * v + kA * a + kG * cos(angle)
+ * </pre>
+ *
+ * where the gravity term is only used for arms. Rather than storing the
+ * samples, the fit keeps the running sums of the normal equations (X'X, X'y
+ * and y'y), so adding a sample takes constant time and does not allocate.
+ * Sums from several tests can be added together to fit them all at once.
+ */
+public class FeedforwardFit {
+    private static final int MAX_TERMS = 4;
+
+    private final double[][] xtx = new double[MAX_TERMS][MAX_TERMS];
+    private final double[] xty = new double[MAX_TERMS];
+    private final double[] x = new double[MAX_TERMS];
+    private double yty;
+    private double ySum;
+    private int count;
+
+    /** The gains fitted to the data. */
+    public static class Result {
+        public final double kS;
+        public final double kV;
+        public final double kA;
+        public final double kG;
+        public final double rSquared;
+        public final int sampleCount;
+
+        private Result(double kS, double kV, double kA, double kG, double rSquared, int sampleCount) {
+            this.kS = kS;
+            this.kV = kV;
+            this.kA = kA;
+            this.kG = kG;
+            this.rSquared = rSquared;
+            this.sampleCount = sampleCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("kS: %f kV: %f kA: %f kG: %f R^2: %f (%d samples)",
+                    kS, kV, kA, kG, rSquared, sampleCount);
+        }
+    }
+
+    /** Removes all samples from the fit. */
+    public void reset() {
+        for (int i = 0; i < MAX_TERMS; ++i) {
+            for (int j = 0; j < MAX_TERMS; ++j) {
+                xtx[i][j] = 0;
+            }
+            xty[i] = 0;
+        }
+        yty = 0;
+        ySum = 0;
+        count = 0;
+    }
+
+    /** Returns the number of samples in the fit. */
+    public int getSampleCount() {
+        return count;
+    }
+
+    /**
+     * Adds a sample to the fit.
+     *
+     * @param voltage      The voltage applied to the mechanism.
+     * @param velocity     The velocity of the mechanism.
+     * @param acceleration The acceleration of the mechanism.
+     * @param angle        The angle of an arm from horizontal in radians. Pass 0
+     *                     for mechanisms that are not affected by gravity.
+     */
+    public void addSample(double voltage, double velocity, double acceleration, double angle) {
+        x[0] = Math.signum(velocity);
+        x[1] = velocity;
+        x[2] = acceleration;
+        x[3] = Math.cos(angle);
+
+        for (int i = 0; i < MAX_TERMS; ++i) {
+            for (int j = 0; j < MAX_TERMS; ++j) {
+                xtx[i][j] += x[i] * x[j];
+            }
+            xty[i] += x[i] * voltage;
+        }
+        yty += voltage * voltage;
+        ySum += voltage;
+        ++count;
+    }
+
+    /** Adds the samples of another fit to this one. */
+    public void add(FeedforwardFit other) {
+        for (int i = 0; i < MAX_TERMS; ++i) {
+            for (int j = 0; j < MAX_TERMS; ++j) {
+                xtx[i][j] += other.xtx[i][j];
+            }
+            xty[i] += other.xty[i];
+        }
+        yty += other.yty;
+        ySum += other.ySum;
+        count += other.count;
+    }
+
+    /**
+     * Solves for the feedforward gains.
+     *
+     * @param includeGravity Whether to fit the gravity term kG.
+     *
+     * @return The fitted gains, or null if there is not enough data to determine
+     *         them.
+     */
+    public Result solve(boolean includeGravity) {
+        int n = includeGravity ? 4 : 3;
+
+        if (count <= n) {
+            return null;
+        }
+
+        // Solve the normal equations (X'X) b = X'y by Gaussian elimination with
+        // partial pivoting on an augmented copy of the sums.
+        double[][] a = new double[n][n + 1];
+        for (int i = 0; i < n; ++i) {
+            for (int j = 0; j < n; ++j) {
+                a[i][j] = xtx[i][j];
+            }
+            a[i][n] = xty[i];
+        }
+
+        for (int col = 0; col < n; ++col) {
+            int pivot = col;
+            for (int row = col + 1; row < n; ++row) {
+                if (Math.abs(a[row][col]) > Math.abs(a[pivot][col])) {
+                    pivot = row;
+                }
+            }
+
+            if (Math.abs(a[pivot][col]) < 1e-12) {
+                return null;
+            }
+
+            double[] swap = a[col];
+            a[col] = a[pivot];
+            a[pivot] = swap;
+
+            for (int row = col + 1; row < n; ++row) {
+                double factor = a[row][col] / a[col][col];
+                for (int j = col; j <= n; ++j) {
+                    a[row][j] -= factor * a[col][j];
+                }
+            }
+        }
+
+        double[] b = new double[n];
+        for (int row = n - 1; row >= 0; --row) {
+            double sum = a[row][n];
+            for (int j = row + 1; j < n; ++j) {
+                sum -= a[row][j] * b[j];
+            }
+            b[row] = sum / a[row][row];
+        }
+
+        // The residual sum of squares follows from the sums:
+        // SSE = y'y - 2 b'X'y + b'X'X b
+        double sse = yty;
+        for (int i = 0; i < n; ++i) {
+            sse -= 2 * b[i] * xty[i];
+            for (int j = 0; j < n; ++j) {
+                sse += b[i] * xtx[i][j] * b[j];
+            }
+        }
+        double sst = yty - ySum * ySum / count;
+        double rSquared = sst > 0 ? 1.0 - sse / sst : 0.0;
+
+        return new Result(b[0], b[1], b[2], includeGravity ? b[3] : 0.0, rSquared, count);
+    }
+}
@@ -20,6 +20,7 @@ public class SysIdDrivetrainLogger extends SysIdLogger {
      *                          simulate expected data for a differential drive.
      */
     public SysIdDrivetrainLogger(double wheelModuleRadius) {
+        super(9, "Meters", 1.0);
         this.wheelModuleRadius = wheelModuleRadius;
     }
 
@@ -69,15 +70,22 @@ public class SysIdDrivetrainLogger extends SysIdLogger {
         //
         // SysID assumes a differential drivetrain, so left & right side data from the
         // Swerve drive is duplicated to match the expected data format.
-        addData(getTimestamp(),
-                primaryMotorVoltage,
+        addData(getTimestamp());
+        addData(primaryMotorVoltage);
+        addData(secondaryMotorVoltage);
+        addData(leftPosition);
+        addData(rightPosition);
+        addData((rotating ? -1 : 1) * measuredVelocity);
+        addData(measuredVelocity);
+        addData(measuredAngle);
+        addData(measuredAngularRate);
+
+        // Fit the gains of a single wheel, using the linear wheel speed when the
+        // robot is rotating.
+        addFitSample(
                 secondaryMotorVoltage,
-                leftPosition,
-                rightPosition,
-                (rotating ? -1 : 1) * measuredVelocity,
-                measuredVelocity,
-                measuredAngle,
-                measuredAngularRate);
+                rotating ? measuredAngularRate * wheelModuleRadius : measuredVelocity,
+                0.0);
 
         double motorVoltage = getMotorVoltage();
 
@@ -0,0 +1,238 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.sysid;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import edu.wpi.first.wpilibj.RobotBase;
+
+/**
+ * Streams SysId test data to disk in the JSON format saved by the SysId
+ * logger, so that the file can be loaded directly by the SysId analyzer.
+ *
+ * <p>
+ * Samples are handed to a background thread in fixed-size chunks and written
+ * as each test runs. When a test ends, the session file containing every test
+ * completed so far is rewritten, so runs survive a lost Driver Station
+ * connection and can be analyzed offline.
+ */
+public class SysIdFileWriter {
+    private static final int CHUNK_SAMPLES = 500;
+    private static final int POOLED_CHUNKS = 4;
+    private static final String[] TEST_NAMES = {
+            "fast-backward", "fast-forward", "slow-backward", "slow-forward" };
+
+    // All loggers share one writer thread since only one test runs at a time.
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "SysIdFileWriter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The current session and test. Only accessed from the writer thread.
+    private static Path sessionDirectory;
+    private static String sessionMechanism;
+    private static String sessionFileName;
+    private static String testName;
+    private static Writer testWriter;
+    private static boolean firstSample;
+
+    private final int sampleSize;
+    private final String units;
+    private final double unitsPerRotation;
+    private final BlockingQueue<double[]> freeChunks = new ArrayBlockingQueue<>(POOLED_CHUNKS);
+
+    private double[] chunk;
+    private int chunkSize;
+    private boolean testRunning;
+
+    /**
+     * Constructs an instance of this class.
+     *
+     * @param sampleSize       The number of values in each sample.
+     * @param units            The units of the position data, e.g. "Meters".
+     * @param unitsPerRotation The units per rotation of the mechanism.
+     */
+    public SysIdFileWriter(int sampleSize, String units, double unitsPerRotation) {
+        this.sampleSize = sampleSize;
+        this.units = units;
+        this.unitsPerRotation = unitsPerRotation;
+
+        for (int i = 0; i < POOLED_CHUNKS; ++i) {
+            freeChunks.offer(new double[CHUNK_SAMPLES * sampleSize]);
+        }
+    }
+
+    /**
+     * Returns the name SysId uses for a test, e.g. "slow-forward".
+     *
+     * @param testType       The test type, "Quasistatic" or "Dynamic".
+     * @param voltageCommand The commanded voltage (or ramp rate) of the test.
+     */
+    public static String getTestName(String testType, double voltageCommand) {
+        return (testType.equals("Quasistatic") ? "slow-" : "fast-")
+                + (voltageCommand >= 0 ? "forward" : "backward");
+    }
+
+    /**
+     * Starts writing a test.
+     *
+     * @param mechanism The mechanism being characterized, e.g. "Arm".
+     * @param testName  The SysId test name, e.g. "slow-forward".
+     */
+    public void startTest(String mechanism, String testName) {
+        chunk = nextChunk();
+        chunkSize = 0;
+        testRunning = true;
+        executor.execute(() -> openTest(mechanism, testName));
+    }
+
+    /** Appends a value to the current test. */
+    public void addData(double value) {
+        if (!testRunning) {
+            return;
+        }
+
+        chunk[chunkSize++] = value;
+        if (chunkSize == chunk.length) {
+            submitChunk();
+            chunk = nextChunk();
+        }
+    }
+
+    /** Finishes the current test and rewrites the session file. */
+    public void endTest() {
+        if (!testRunning) {
+            return;
+        }
+
+        testRunning = false;
+        submitChunk();
+        chunk = null;
+        executor.execute(() -> closeTest(units, unitsPerRotation));
+    }
+
+    private double[] nextChunk() {
+        double[] next = freeChunks.poll();
+        return next != null ? next : new double[CHUNK_SAMPLES * sampleSize];
+    }
+
+    private void submitChunk() {
+        double[] values = chunk;
+        int count = chunkSize - (chunkSize % sampleSize);
+        chunkSize = 0;
+
+        executor.execute(() -> {
+            writeSamples(values, count, sampleSize);
+            freeChunks.offer(values);
+        });
+    }
+
+    // The remaining methods run on the writer thread.
+
+    private static void openTest(String mechanism, String nextTestName) {
+        try {
+            if (testWriter != null) {
+                testWriter.close();
+            }
+
+            if (sessionDirectory == null || !mechanism.equals(sessionMechanism)) {
+                String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+                Path root = Paths.get(RobotBase.isReal() ? "/home/lvuser/sysid" : "sysid");
+                sessionDirectory = root.resolve(timestamp + "-" + mechanism.replaceAll("[^A-Za-z0-9]+", "_"));
+                sessionMechanism = mechanism;
+                sessionFileName = "sysid_data" + timestamp + ".json";
+                Files.createDirectories(sessionDirectory);
+            }
+
+            // The test is written to a ".part" file that is renamed once the test
+            // completes, so an interrupted test never ends up in the session file.
+            testName = nextTestName;
+            testWriter = Files.newBufferedWriter(sessionDirectory.resolve(testName + ".part"));
+            testWriter.write("[");
+            firstSample = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            testWriter = null;
+        }
+    }
+
+    private static void writeSamples(double[] values, int count, int sampleSize) {
+        if (testWriter == null) {
+            return;
+        }
+
+        try {
+            for (int i = 0; i < count; i += sampleSize) {
+                testWriter.write(firstSample ? "\n    [" : ",\n    [");
+                firstSample = false;
+                for (int j = 0; j < sampleSize; ++j) {
+                    if (j != 0) {
+                        testWriter.write(", ");
+                    }
+                    testWriter.write(Double.toString(values[i + j]));
+                }
+                testWriter.write("]");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void closeTest(String units, double unitsPerRotation) {
+        if (testWriter == null) {
+            return;
+        }
+
+        try {
+            testWriter.write("\n  ]");
+            testWriter.close();
+            testWriter = null;
+            Files.move(sessionDirectory.resolve(testName + ".part"), sessionDirectory.resolve(testName + ".done"),
+                    StandardCopyOption.REPLACE_EXISTING);
+            writeSessionFile(units, unitsPerRotation);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Combines the completed tests of the session into one SysId data file. */
+    private static void writeSessionFile(String units, double unitsPerRotation) throws IOException {
+        Path tempFile = sessionDirectory.resolve(sessionFileName + ".tmp");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile)) {
+            writer.write("{\n");
+            for (String name : TEST_NAMES) {
+                Path completedTest = sessionDirectory.resolve(name + ".done");
+                if (Files.exists(completedTest)) {
+                    writer.write("  \"" + name + "\": ");
+                    writer.write(Files.readString(completedTest));
+                    writer.write(",\n");
+                }
+            }
+            writer.write("  \"sysid\": true,\n");
+            writer.write("  \"test\": \"" + sessionMechanism + "\",\n");
+            writer.write("  \"units\": \"" + units + "\",\n");
+            writer.write("  \"unitsPerRotation\": " + unitsPerRotation + "\n");
+            writer.write("}\n");
+        }
+
+        Path sessionFile = sessionDirectory.resolve(sessionFileName);
+        Files.move(tempFile, sessionFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("Wrote SysId data to " + sessionFile.toAbsolutePath());
+    }
+}
@@ -9,6 +9,16 @@ public class SysIdGeneralMechanismLogger extends SysIdLogger {
 
     private double motorVoltage = 0;
 
+    /**
+     * Constructs an instance of a logger to gather data on a general mechanism.
+     * 
+     * @param units            The units of the measured position, e.g. "Radians".
+     * @param unitsPerRotation The position units per rotation of the mechanism.
+     */
+    public SysIdGeneralMechanismLogger(String units, double unitsPerRotation) {
+        super(4, units, unitsPerRotation);
+    }
+
     @Override
     protected boolean isWrongMechanism() {
         String mechanism = getMechanism();
@@ -20,7 +30,8 @@ public class SysIdGeneralMechanismLogger extends SysIdLogger {
      * Logs data for the SysID tool for a simple mechanism with a motor and one
      * degree of freedom (e.g. Arm, Elevator, etc.)
      * 
-     * @param measuredPosition The measured position of the mechanism.
+     * @param measuredPosition The measured position of the mechanism. For an arm,
+     *                         this must be the angle from horizontal in radians.
      * @param measuredVelocity The measured velocity of the mechanism.
      */
     public void log(double measuredPosition, double measuredVelocity) {
@@ -31,11 +42,20 @@ public class SysIdGeneralMechanismLogger extends SysIdLogger {
         //
         // SysID assumes a differential drivetrain, so left & right side data from the
         // Swerve drive is duplicated to match the expected data format.
-        addData(getTimestamp(), motorVoltage, measuredPosition, measuredVelocity);
+        addData(getTimestamp());
+        addData(motorVoltage);
+        addData(measuredPosition);
+        addData(measuredVelocity);
+        addFitSample(motorVoltage, measuredVelocity, isGravityAffected() ? measuredPosition : 0.0);
 
         motorVoltage = getMotorVoltage();
     }
 
+    @Override
+    protected boolean isGravityAffected() {
+        return getMechanism().equals("Arm");
+    }
+
     @Override
     public void reset() {
         super.reset();
@@ -4,15 +4,34 @@
 
 package frc.robot.sysid;
 
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import edu.wpi.first.wpilibj2.command.CommandBase;
 
 /** An abstract base class enabling SysId integration. */
 public abstract class SysIdLogger {
-    private static final int DATA_ARRAY_CAPACITY = 36000;
+    private static final int INITIAL_DATA_CAPACITY = 36000;
+
+    // The number of values converted to text per scheduler cycle while sending
+    // the data. This keeps each cycle well within the 20ms loop period.
+    private static final int SEND_CHUNK_SIZE = 2000;
+
+    // A generous estimate of the characters needed to format one value.
+    private static final int CHARS_PER_VALUE = 24;
+
+    // Samples slower than this are excluded from the feedforward fit since the
+    // direction of motion, and therefore the sign of kS, is unknown.
+    private static final double MIN_FIT_VELOCITY = 0.01;
+
+    // The least-squares sums of each test, by mechanism and test name. They are
+    // kept across test runs so the gains can be fitted to all of the tests, and
+    // re-running a test replaces its sums.
+    private static final Map<String, Map<String, FeedforwardFit>> testFits = new HashMap<>();
+    private static final Map<String, FeedforwardFit.Result> fitResults = new HashMap<>();
 
     private double voltageCommand;
     private double motorVoltage;
@@ -21,20 +40,78 @@ public abstract class SysIdLogger {
     boolean rotate;
     String testType;
     String mechanism;
-    ArrayList<Double> data = new ArrayList<Double>();
 
-    /** Construct an instance of this class. */
-    public SysIdLogger() {
+    private double[] data = new double[INITIAL_DATA_CAPACITY];
+    private int dataSize;
+
+    private final SysIdFileWriter fileWriter;
+
+    private FeedforwardFit testFit;
+    private boolean hasPreviousFitSample;
+    private double previousFitTime;
+    private double previousFitVelocity;
+
+    private final StringBuilder telemetry = new StringBuilder();
+    private final SendDataCommand sendDataCommand = new SendDataCommand();
+    private int sendIndex;
+
+    /**
+     * A command that converts the collected data to text a chunk at a time and
+     * then sends it to the SysId tool. It runs while the robot is disabled, after
+     * the test has ended.
+     */
+    private class SendDataCommand extends CommandBase {
+        @Override
+        public boolean runsWhenDisabled() {
+            return true;
+        }
+
+        @Override
+        public void execute() {
+            int end = Math.min(sendIndex + SEND_CHUNK_SIZE, dataSize);
+            for (; sendIndex < end; ++sendIndex) {
+                if (sendIndex != 0) {
+                    telemetry.append(',');
+                }
+                telemetry.append(data[sendIndex]);
+            }
+        }
+
+        @Override
+        public void end(boolean interrupted) {
+            if (!interrupted) {
+                SmartDashboard.putString("SysIdTelemetry", telemetry.toString());
+            }
+            reset();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return sendIndex >= dataSize;
+        }
+    }
+
+    /**
+     * Construct an instance of this class.
+     * 
+     * @param sampleSize       The number of values logged for each sample.
+     * @param units            The units of the logged position, e.g. "Meters".
+     * @param unitsPerRotation The position units per rotation of the mechanism.
+     */
+    public SysIdLogger(int sampleSize, String units, double unitsPerRotation) {
         // SmartDashboard.putNumber("SysIdVoltageCommand", 0.0);
         // SmartDashboard.putString("SysIdTestType", "");
         // SmartDashboard.putString("SysIdTest", "");
         // SmartDashboard.putBoolean("SysIdRotate", false);
-        // SmartDashboard.putBoolean("SysIdOverflow", false);
         // SmartDashboard.putBoolean("SysIdWrongMech", false);
+
+        fileWriter = new SysIdFileWriter(sampleSize, units, unitsPerRotation);
     }
 
     /** Initializes the logger. */
     public void init() {
+        sendDataCommand.cancel();
+
         mechanism = SmartDashboard.getString("SysIdTest", "");
 
         SmartDashboard.putBoolean("SysIdWrongMech", isWrongMechanism());
@@ -43,8 +120,18 @@ public abstract class SysIdLogger {
         rotate = SmartDashboard.getBoolean("SysIdRotate", false);
         voltageCommand = SmartDashboard.getNumber("SysIdVoltageCommand", 0.0);
         startTime = Timer.getFPGATimestamp();
-        data.ensureCapacity(DATA_ARRAY_CAPACITY);
-        data.clear();
+        dataSize = 0;
+
+        if (!isWrongMechanism()) {
+            String testName = SysIdFileWriter.getTestName(testType, voltageCommand);
+            fileWriter.startTest(mechanism, testName);
+            testFit = testFits.computeIfAbsent(mechanism, m -> new HashMap<>())
+                    .computeIfAbsent(testName, t -> new FeedforwardFit());
+            testFit.reset();
+        } else {
+            testFit = null;
+        }
+        hasPreviousFitSample = false;
     }
 
     public String getMechanism() {
@@ -83,26 +170,105 @@ public abstract class SysIdLogger {
         }
     }
 
-    /** Sends the data to the SysId tool. */
+    /**
+     * Sends the data to the SysId tool. The data is converted to text over
+     * several scheduler cycles so that the robot loop is not stalled. The data
+     * is also saved to disk by a {@link SysIdFileWriter}.
+     */
     public void sendData() {
-        System.out.println(String.format("Collected %d data points.", data.size()));
+        System.out.println(String.format("Collected %d data points.", dataSize));
+
+        fileWriter.endTest();
+        updateFit();
+
+        telemetry.setLength(0);
+        telemetry.ensureCapacity(dataSize * CHARS_PER_VALUE);
+        sendIndex = 0;
+        sendDataCommand.schedule();
+    }
+
+    /** Appends a value to the data buffer, growing it if necessary. */
+    protected void addData(double value) {
+        if (dataSize == data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+        data[dataSize++] = value;
+        fileWriter.addData(value);
+    }
+
+    /**
+     * Adds a sample to the feedforward fit. The acceleration is estimated from
+     * the change in velocity since the previous sample.
+     * 
+     * @param voltage  The voltage applied since the previous sample.
+     * @param velocity The measured velocity.
+     * @param angle    The angle of an arm from horizontal in radians, or 0 for
+     *                 mechanisms not affected by gravity.
+     */
+    protected void addFitSample(double voltage, double velocity, double angle) {
+        if (testFit == null) {
+            return;
+        }
 
-        SmartDashboard.putBoolean("SysIdOverflow", data.size() >= DATA_ARRAY_CAPACITY);
+        if (hasPreviousFitSample) {
+            double interval = timestamp - previousFitTime;
+            double averageVelocity = (velocity + previousFitVelocity) / 2;
 
-        StringBuilder b = new StringBuilder();
-        for (int i = 0; i < data.size(); ++i) {
-            if (i != 0)
-                b.append(",");
-            b.append(data.get(i));
+            if (interval > 0 && Math.abs(averageVelocity) >= MIN_FIT_VELOCITY) {
+                double acceleration = (velocity - previousFitVelocity) / interval;
+                testFit.addSample(voltage, averageVelocity, acceleration, angle);
+            }
         }
 
-        SmartDashboard.putString("SysIdTelemetry", b.toString());
+        hasPreviousFitSample = true;
+        previousFitTime = timestamp;
+        previousFitVelocity = velocity;
+    }
+
+    /**
+     * Fits the feedforward gains to all tests run on the mechanism so far and
+     * publishes them to the SmartDashboard.
+     */
+    private void updateFit() {
+        Map<String, FeedforwardFit> fits = testFits.get(mechanism);
+        if (testFit == null || fits == null) {
+            return;
+        }
+
+        FeedforwardFit combined = new FeedforwardFit();
+        fits.values().forEach(combined::add);
+
+        FeedforwardFit.Result result = combined.solve(isGravityAffected());
+        if (result == null) {
+            System.out.println("Not enough data to fit the " + mechanism + " feedforward gains.");
+            return;
+        }
+
+        fitResults.put(mechanism, result);
+        System.out.println(String.format("%s feedforward fit (%d tests) %s", mechanism, fits.size(), result));
+
+        String prefix = "SysIdFit/" + mechanism + "/";
+        SmartDashboard.putNumber(prefix + "kS", result.kS);
+        SmartDashboard.putNumber(prefix + "kV", result.kV);
+        SmartDashboard.putNumber(prefix + "kA", result.kA);
+        SmartDashboard.putNumber(prefix + "kG", result.kG);
+        SmartDashboard.putNumber(prefix + "R^2", result.rSquared);
+        SmartDashboard.putNumber(prefix + "Samples", result.sampleCount);
+    }
 
-        reset();
+    /**
+     * Returns the most recent feedforward fit for a mechanism, or null if no
+     * tests have been run on it.
+     * 
+     * @param mechanism The SysId mechanism name, e.g. "Arm".
+     */
+    public static FeedforwardFit.Result getFitResult(String mechanism) {
+        return fitResults.get(mechanism);
     }
 
-    protected void addData(Double... dataValue) {
-        data.addAll(Arrays.asList(dataValue));
+    /** Returns true if the mechanism needs a gravity term in its feedforward. */
+    protected boolean isGravityAffected() {
+        return false;
     }
 
     /** Resets the logger. */
@@ -110,7 +276,9 @@ public abstract class SysIdLogger {
         motorVoltage = 0.0;
         timestamp = 0.0;
         startTime = 0.0;
-        data.clear();
+        dataSize = 0;
+        sendIndex = 0;
+        telemetry.setLength(0);
     }
 
     /** Returns true if the wrong mechanism is being profiled. */
@@ -0,0 +1,180 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.utilities;
+
+import edu.wpi.first.wpilibj.AsynchronousInterrupt;
+import edu.wpi.first.wpilibj.DigitalInput;
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * Captures the rising and falling edges of a digital input with FPGA
+ * timestamps, using an interrupt rather than polling once per robot cycle.
+ *
+ * <p>
+ * The FPGA latches the time of each edge, and an interrupt thread queues it.
+ * Pulses much shorter than the robot loop are therefore seen, and their timing
+ * is accurate to microseconds. The robot code drains the queue once per cycle.
+ * The queue is a fixed-size ring buffer with one writer and one reader, so
+ * capturing an edge never allocates and the interrupt thread never waits for
+ * the robot loop. If the robot loop falls so far behind that the buffer fills,
+ * further edges are dropped and counted until it catches up.
+ *
+ * <p>
+ * The FPGA latches a rising and a falling edge independently. If both occur
+ * before the interrupt thread runs, both are queued in timestamp order. Since
+ * edges must alternate, if two edges in a row go the same way, the edge
+ * between them is queued with an estimated timestamp half way between its
+ * neighbours.
+ */
+public class EdgeCapture implements AutoCloseable {
+    /** A change of state of the input. */
+    public static final class Edge {
+        private boolean rising;
+        private double timestamp;
+        private boolean estimated;
+
+        private Edge() {
+        }
+
+        /** Returns whether the input changed from false to true. */
+        public boolean isRising() {
+            return rising;
+        }
+
+        /** Returns the FPGA timestamp of the edge in seconds. */
+        public double getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Returns whether the edge was not seen by the interrupt but inferred
+         * from the edges around it, so its timestamp is estimated.
+         */
+        public boolean isEstimated() {
+            return estimated;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Edge(%s, %.6f%s)", rising ? "rising" : "falling", timestamp,
+                    estimated ? ", estimated" : "");
+        }
+    }
+
+    // The number of edges the buffer holds. This must be a power of two.
+    private static final int CAPACITY = 64;
+
+    private final boolean[] edgeRising = new boolean[CAPACITY];
+    private final double[] edgeTimestamps = new double[CAPACITY];
+    private final boolean[] edgeEstimated = new boolean[CAPACITY];
+
+    // The counts of edges ever written and read. The slot of an edge is its
+    // count modulo the capacity. Each is only written by one thread, and the
+    // volatile write publishes the slots before it to the other thread.
+    private volatile int writeCount;
+    private volatile int readCount;
+    private volatile int droppedCount;
+
+    // The edge returned by poll(). Only used by the robot loop.
+    private final Edge edge = new Edge();
+
+    private final AsynchronousInterrupt interrupt;
+
+    // The input state after the last queued edge. Only used by the interrupt
+    // thread once capture starts.
+    private boolean level;
+    private double levelTimestamp;
+
+    /**
+     * Starts capturing the edges of a digital input.
+     *
+     * @param input The digital input.
+     */
+    public EdgeCapture(DigitalInput input) {
+        level = input.get();
+        levelTimestamp = Timer.getFPGATimestamp();
+
+        interrupt = new AsynchronousInterrupt(input, (rising, falling) -> onInterrupt(rising, falling));
+        interrupt.setInterruptEdges(true, true);
+        interrupt.enable();
+    }
+
+    /** Queues the edges reported by an interrupt. This runs on the interrupt thread. */
+    private void onInterrupt(boolean rising, boolean falling) {
+        if (rising && falling) {
+            double risingTimestamp = interrupt.getRisingTimestamp();
+            double fallingTimestamp = interrupt.getFallingTimestamp();
+
+            if (risingTimestamp <= fallingTimestamp) {
+                addEdge(true, risingTimestamp);
+                addEdge(false, fallingTimestamp);
+            } else {
+                addEdge(false, fallingTimestamp);
+                addEdge(true, risingTimestamp);
+            }
+        } else if (rising) {
+            addEdge(true, interrupt.getRisingTimestamp());
+        } else if (falling) {
+            addEdge(false, interrupt.getFallingTimestamp());
+        }
+    }
+
+    private void addEdge(boolean rising, double timestamp) {
+        if (rising == level) {
+            write(!rising, (levelTimestamp + timestamp) / 2, true);
+        }
+
+        write(rising, timestamp, false);
+        level = rising;
+        levelTimestamp = timestamp;
+    }
+
+    private void write(boolean rising, double timestamp, boolean estimated) {
+        int count = writeCount;
+        if (count - readCount >= CAPACITY) {
+            droppedCount = droppedCount + 1;
+            return;
+        }
+
+        int slot = count & (CAPACITY - 1);
+        edgeRising[slot] = rising;
+        edgeTimestamps[slot] = timestamp;
+        edgeEstimated[slot] = estimated;
+        writeCount = count + 1;
+    }
+
+    /**
+     * Removes and returns the oldest captured edge, or null if there are none.
+     * The returned edge is reused, so it is only valid until the next call.
+     */
+    public Edge poll() {
+        int count = readCount;
+        if (count == writeCount) {
+            return null;
+        }
+
+        int slot = count & (CAPACITY - 1);
+        edge.rising = edgeRising[slot];
+        edge.timestamp = edgeTimestamps[slot];
+        edge.estimated = edgeEstimated[slot];
+        readCount = count + 1;
+        return edge;
+    }
+
+    /** Returns whether there are captured edges waiting to be drained. */
+    public boolean isEmpty() {
+        return readCount == writeCount;
+    }
+
+    /** Returns the number of edges dropped because the buffer was full. */
+    public int getDroppedCount() {
+        return droppedCount;
+    }
+
+    @Override
+    public void close() {
+        interrupt.close();
+    }
+}
@@ -0,0 +1,214 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.utilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.wpilibj.Notifier;
+
+/**
+ * Measures the timing jitter of a periodic control loop on a Linux desktop,
+ * first run by a plain {@link Notifier} and then by a {@link RealTimeLoop}, to
+ * show what the real-time thread gains on the robot.
+ *
+ * <p>
+ * Both loops run on the simulated HAL and do a little work each cycle, as the
+ * control loop does, while load threads allocate garbage and compute, standing
+ * in for the garbage collector, NetworkTables and logging. As on the robot,
+ * only the control thread is pinned, and the load may run on any CPU. The
+ * period error is the difference between the time from one run to the next
+ * and the period.
+ *
+ * <p>
+ * Raising a thread to real-time priority needs root or CAP_SYS_NICE. Without
+ * it the RealTimeLoop warns that it could not, and only pins its thread.
+ *
+ * <pre>
+ * Usage:
+ *   ./gradlew jitterBenchmark [-PbenchmarkArgs="[--period MS] [--seconds S] [--load N] [--priority P] [--cpu N]"]
+ * </pre>
+ */
+public final class JitterBenchmark {
+    // The work done each cycle, about what the swerve control loop does.
+    private static final long WORK_NANOS = 200_000;
+
+    // The garbage each load thread allocates per iteration.
+    private static final int GARBAGE_BYTES = 64 * 1024;
+
+    private static volatile boolean loadRunning;
+    private static volatile long sink;
+
+    /** Records the time of each run of a loop, then does its work. */
+    private static final class Recorder implements Runnable {
+        private final long[] timestamps;
+        private volatile int count;
+
+        Recorder(int cycles) {
+            timestamps = new long[cycles];
+        }
+
+        @Override
+        public void run() {
+            if (count < timestamps.length) {
+                timestamps[count] = System.nanoTime();
+                count = count + 1;
+            }
+            work(WORK_NANOS);
+        }
+
+        boolean isDone() {
+            return count == timestamps.length;
+        }
+    }
+
+    private JitterBenchmark() {
+    }
+
+    public static void main(String... args) throws InterruptedException {
+        double periodMillis = 5;
+        double seconds = 10;
+        int loadThreads = LinuxThreads.getCpuCount();
+        int priority = 50;
+        int cpu = LinuxThreads.getCpuCount() - 1;
+
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "--period":
+                    periodMillis = Double.parseDouble(args[++i]);
+                    break;
+                case "--seconds":
+                    seconds = Double.parseDouble(args[++i]);
+                    break;
+                case "--load":
+                    loadThreads = Integer.parseInt(args[++i]);
+                    break;
+                case "--priority":
+                    priority = Integer.parseInt(args[++i]);
+                    break;
+                case "--cpu":
+                    cpu = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        if (!LinuxThreads.isSupported()) {
+            System.err.println("This benchmark needs Linux.");
+            System.exit(1);
+        }
+        if (!HAL.initialize(500, 0)) {
+            System.err.println("Could not initialize the HAL.");
+            System.exit(1);
+        }
+
+        double period = periodMillis / 1e3;
+        int cycles = (int) (seconds / period);
+
+        System.out.println(String.format("%d cycles of %.1f ms with %d load threads on %d CPUs",
+                cycles, periodMillis, loadThreads, LinuxThreads.getCpuCount()));
+
+        Recorder notifierRecorder = new Recorder(cycles);
+        Notifier notifier = new Notifier(notifierRecorder);
+        notifier.setName("Control");
+        long[] notifierErrors = run(() -> notifier.startPeriodic(period), notifier, notifierRecorder, period,
+                loadThreads);
+
+        Recorder loopRecorder = new Recorder(cycles);
+        RealTimeLoop loop = new RealTimeLoop("Control", period, priority, cpu, loopRecorder);
+        long[] loopErrors = run(loop::start, loop, loopRecorder, period, loadThreads);
+
+        System.out.println(String.format("%-24s %10s %10s %10s %10s", "Loop", "p50 (us)", "p99 (us)",
+                "max (us)", "late"));
+        report("Notifier", notifierErrors);
+        report(String.format("RealTimeLoop %d, CPU %d", priority, cpu), loopErrors);
+    }
+
+    /**
+     * Runs a control loop under load until it has recorded every cycle, and
+     * returns its period errors in nanoseconds, sorted.
+     */
+    private static long[] run(Runnable start, AutoCloseable loop, Recorder recorder, double period,
+            int loadThreads) throws InterruptedException {
+        loadRunning = true;
+        List<Thread> load = new ArrayList<>();
+        for (int i = 0; i < loadThreads; ++i) {
+            Thread thread = new Thread(JitterBenchmark::runLoad, "Load" + i);
+            thread.setDaemon(true);
+            thread.start();
+            load.add(thread);
+        }
+
+        start.run();
+        while (!recorder.isDone()) {
+            Thread.sleep(100);
+        }
+        try {
+            loop.close();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+
+        loadRunning = false;
+        for (Thread thread : load) {
+            thread.join();
+        }
+
+        long periodNanos = (long) (period * 1e9);
+        long[] timestamps = recorder.timestamps;
+        long[] errors = new long[timestamps.length - 1];
+        for (int i = 0; i < errors.length; ++i) {
+            errors[i] = Math.abs(timestamps[i + 1] - timestamps[i] - periodNanos);
+        }
+
+        Arrays.sort(errors);
+        return errors;
+    }
+
+    private static void runLoad() {
+        long total = 0;
+        while (loadRunning) {
+            byte[] garbage = new byte[GARBAGE_BYTES];
+            garbage[(int) (total & (GARBAGE_BYTES - 1))] = 1;
+            total += garbage.length + work(50_000);
+        }
+        sink = total;
+    }
+
+    /** Computes for about the given time. */
+    private static long work(long nanos) {
+        long end = System.nanoTime() + nanos;
+        long x = 0;
+        while (System.nanoTime() < end) {
+            x = x * 6364136223846793005L + 1442695040888963407L;
+        }
+        return x & 1;
+    }
+
+    private static void report(String name, long[] errors) {
+        int late = 0;
+        for (long error : errors) {
+            if (error > 1_000_000) {
+                ++late;
+            }
+        }
+
+        System.out.println(String.format("%-24s %10.0f %10.0f %10.0f %10s",
+                name,
+                percentile(errors, 0.50) / 1e3,
+                percentile(errors, 0.99) / 1e3,
+                errors[errors.length - 1] / 1e3,
+                String.format("%d > 1 ms", late)));
+    }
+
+    /** Returns a percentile of sorted values. */
+    private static double percentile(long[] sorted, double fraction) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.round(fraction * (sorted.length - 1)))];
+    }
+}
@@ -0,0 +1,112 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.utilities;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of durations in microseconds, with buckets whose width grows
+ * with the value, in the manner of an HDR histogram.
+ *
+ * <p>
+ * Values below 32 us have a bucket each. Above that, each power of two is
+ * split into 16 buckets, so any value is known to within about 6%, from 1 us
+ * up to 30 s. The buckets are allocated when the histogram is created, so
+ * recording a value allocates nothing and takes a few nanoseconds.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int EXACT_LIMIT = 2 * SUB_BUCKETS;
+    private static final int MAX_EXPONENT = 24;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1; // us
+
+    private final long[] counts = new long[EXACT_LIMIT + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS];
+    private long count;
+    private long total;
+    private long max;
+
+    /** Records a duration in microseconds. Values out of range are clamped. */
+    public void record(long micros) {
+        long value = Math.max(0, Math.min(micros, MAX_VALUE));
+        counts[getIndex(value)]++;
+        count++;
+        total += value;
+        max = Math.max(max, value);
+    }
+
+    /** Removes all the recorded values. */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+
+    /** Returns the number of values recorded. */
+    public long getCount() {
+        return count;
+    }
+
+    /** Returns the sum of the values recorded in microseconds. */
+    public long getTotal() {
+        return total;
+    }
+
+    /** Returns the mean value in microseconds, or 0 if there are none. */
+    public double getMean() {
+        return count > 0 ? (double) total / count : 0;
+    }
+
+    /** Returns the largest value recorded in microseconds. */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the value in microseconds that the given fraction of the values
+     * are at or below. The result is the top of the bucket holding it, so it
+     * errs high, but never above the largest value.
+     *
+     * @param fraction The fraction from 0 to 1, e.g. 0.99 for the 99th
+     *                 percentile.
+     */
+    public long getPercentile(double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(getUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static int getIndex(long value) {
+        if (value < EXACT_LIMIT) {
+            return (int) value;
+        }
+
+        // The top SUB_BUCKET_BITS + 1 bits select the bucket.
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >> shift) - SUB_BUCKETS;
+        return EXACT_LIMIT + (shift - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long getUpperBound(int index) {
+        if (index < EXACT_LIMIT) {
+            return index;
+        }
+
+        int shift = (index - EXACT_LIMIT) / SUB_BUCKETS + 1;
+        long subBucket = (index - EXACT_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
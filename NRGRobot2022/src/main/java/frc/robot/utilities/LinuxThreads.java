@@ -0,0 +1,92 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.utilities;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * Sets the CPU affinity and scheduling policy of threads on Linux.
+ *
+ * <p>
+ * Java has no API for either, so the Linux thread ID is read from
+ * /proc/thread-self and the util-linux taskset and chrt tools are run on it.
+ * Every method returns false rather than throwing where this is not possible,
+ * such as on another operating system, without the tools, or without the
+ * privilege to raise a thread to real-time priority.
+ */
+public final class LinuxThreads {
+    private static final Path THREAD_SELF = Paths.get("/proc/thread-self");
+
+    // Read once, since the JVM reports only the CPUs the process may use, which
+    // changes once it is pinned.
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+    private LinuxThreads() {
+    }
+
+    /** Returns whether threads can be controlled on this platform. */
+    public static boolean isSupported() {
+        return Files.isSymbolicLink(THREAD_SELF);
+    }
+
+    /** Returns the number of CPUs available when the program started. */
+    public static int getCpuCount() {
+        return CPU_COUNT;
+    }
+
+    /** Returns the Linux thread ID of the current thread, or -1 if unknown. */
+    public static long getCurrentThreadId() {
+        try {
+            // The link is to <pid>/task/<tid>.
+            return Long.parseLong(Files.readSymbolicLink(THREAD_SELF).getFileName().toString());
+        } catch (IOException | UnsupportedOperationException | NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Restricts the current thread to the given CPUs. Threads it creates
+     * afterwards inherit the restriction.
+     */
+    public static boolean setCurrentThreadAffinity(int... cpus) {
+        long tid = getCurrentThreadId();
+        return tid >= 0 && run("taskset", "-p", "-c", toList(cpus), Long.toString(tid));
+    }
+
+    /**
+     * Runs the current thread under the real-time FIFO scheduling policy.
+     *
+     * @param priority The real-time priority, from 1 to 99.
+     */
+    public static boolean setCurrentThreadRealTimePriority(int priority) {
+        long tid = getCurrentThreadId();
+        return tid >= 0 && run("chrt", "-f", "-p", Integer.toString(priority), Long.toString(tid));
+    }
+
+    private static String toList(int... cpus) {
+        return Arrays.stream(cpus).mapToObj(Integer::toString).collect(Collectors.joining(","));
+    }
+
+    /** Runs a command, returning whether it succeeded. */
+    private static boolean run(String... command) {
+        try {
+            Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            return process.waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
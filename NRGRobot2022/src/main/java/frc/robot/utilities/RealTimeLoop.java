@@ -0,0 +1,111 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.utilities;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.RobotBase;
+import edu.wpi.first.wpilibj.Threads;
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * Runs control tasks periodically on a dedicated real-time thread.
+ *
+ * <p>
+ * The tasks are run by a {@link Notifier}, whose HAL alarm keeps the period
+ * from drifting. The first time it runs, the notifier's thread raises itself to
+ * real-time priority, so it runs ahead of every normal thread including the
+ * garbage collector, NetworkTables and logging, and pins itself to one CPU.
+ * Only this thread is pinned; the others may still run on any CPU. The tasks
+ * must be safe to run alongside the main robot loop.
+ *
+ * <p>
+ * The simulated HAL does not change thread priorities, so on a desktop the
+ * priority is set through {@link LinuxThreads} instead, where permitted.
+ */
+public class RealTimeLoop implements AutoCloseable {
+    private final Notifier notifier;
+    private final String name;
+    private final double period;
+    private final int priority;
+    private final int cpu;
+    private final Runnable[] tasks;
+
+    private boolean threadConfigured;
+    private double previousTimestamp = Double.NaN;
+    private double maxPeriodError;
+
+    /**
+     * Constructs an instance of this class.
+     *
+     * @param name     The name of the thread.
+     * @param period   The period in seconds.
+     * @param priority The real-time priority, from 1 to 99.
+     * @param cpu      The CPU to run on, or -1 to run on any.
+     * @param tasks    The tasks to run each period, in order.
+     */
+    public RealTimeLoop(String name, double period, int priority, int cpu, Runnable... tasks) {
+        this.name = name;
+        this.period = period;
+        this.priority = priority;
+        this.cpu = cpu;
+        this.tasks = tasks.clone();
+        notifier = new Notifier(this::run);
+        notifier.setName(name);
+    }
+
+    /** Starts running the tasks. */
+    public void start() {
+        notifier.startPeriodic(period);
+    }
+
+    @Override
+    public void close() {
+        notifier.close();
+    }
+
+    private void run() {
+        if (!threadConfigured) {
+            configureThread();
+            threadConfigured = true;
+        }
+
+        double now = Timer.getFPGATimestamp();
+        if (!Double.isNaN(previousTimestamp)) {
+            double error = Math.abs(now - previousTimestamp - period);
+            synchronized (this) {
+                maxPeriodError = Math.max(maxPeriodError, error);
+            }
+        }
+        previousTimestamp = now;
+
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+
+    private void configureThread() {
+        boolean prioritized = RobotBase.isReal()
+                ? Threads.setCurrentThreadPriority(true, priority)
+                : LinuxThreads.isSupported() && LinuxThreads.setCurrentThreadRealTimePriority(priority);
+        if (!prioritized) {
+            DriverStation.reportWarning(name + ": could not set real-time priority", false);
+        }
+
+        if (cpu >= 0 && LinuxThreads.isSupported() && !LinuxThreads.setCurrentThreadAffinity(cpu)) {
+            DriverStation.reportWarning(name + ": could not pin to CPU " + cpu, false);
+        }
+    }
+
+    /**
+     * Returns the largest difference in seconds between the time between two
+     * runs and the period since this was last called.
+     */
+    public synchronized double takeMaxPeriodError() {
+        double error = maxPeriodError;
+        maxPeriodError = 0;
+        return error;
+    }
+}
@@ -0,0 +1,138 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.utilities;
+
+/**
+ * Estimates the parameters of a linear model y = x'theta one sample at a time
+ * using recursive least squares with exponential forgetting.
+ *
+ * <p>
+ * A forgetting factor lambda slightly less than 1 weights each sample by
+ * lambda^k, where k is its age in samples, so the estimate tracks parameters
+ * that drift slowly.
+ * When the inputs stop exciting the model, forgetting makes the covariance
+ * grow without bound ("windup"). To prevent this, forgetting is suspended
+ * whenever the covariance trace exceeds a limit.
+ *
+ * <p>
+ * All storage is allocated when the estimator is constructed, so updates do
+ * not allocate and can run at the robot loop rate.
+ */
+public class RecursiveLeastSquares {
+    private final int size;
+    private final double[] theta;
+    private final double[][] covariance;
+    private final double[] px;
+    private final double[] gain;
+    private final double initialCovariance;
+    private final double maxCovarianceTrace;
+    private double forgettingFactor;
+    private int sampleCount;
+
+    /**
+     * Constructs an instance of this class.
+     *
+     * @param size               The number of parameters in the model.
+     * @param forgettingFactor   The forgetting factor lambda, in the range (0, 1].
+     * @param initialCovariance  The initial variance of each parameter. Larger
+     *                           values let the first samples move the estimate
+     *                           further from its initial value.
+     * @param maxCovarianceTrace The covariance trace above which forgetting is
+     *                           suspended.
+     */
+    public RecursiveLeastSquares(
+            int size, double forgettingFactor, double initialCovariance, double maxCovarianceTrace) {
+        this.size = size;
+        this.theta = new double[size];
+        this.covariance = new double[size][size];
+        this.px = new double[size];
+        this.gain = new double[size];
+        this.initialCovariance = initialCovariance;
+        this.maxCovarianceTrace = maxCovarianceTrace;
+        setForgettingFactor(forgettingFactor);
+        reset(new double[size]);
+    }
+
+    /**
+     * Resets the estimate.
+     *
+     * @param initialEstimate The initial parameter values.
+     */
+    public void reset(double[] initialEstimate) {
+        for (int i = 0; i < size; ++i) {
+            theta[i] = initialEstimate[i];
+            for (int j = 0; j < size; ++j) {
+                covariance[i][j] = i == j ? initialCovariance : 0.0;
+            }
+        }
+        sampleCount = 0;
+    }
+
+    /** Sets the forgetting factor lambda, in the range (0, 1]. */
+    public void setForgettingFactor(double forgettingFactor) {
+        if (forgettingFactor <= 0.0 || forgettingFactor > 1.0) {
+            throw new IllegalArgumentException("Forgetting factor must be in the range (0, 1]: " + forgettingFactor);
+        }
+        this.forgettingFactor = forgettingFactor;
+    }
+
+    /**
+     * Updates the estimate with a new sample.
+     *
+     * @param x The model inputs (regressors) of the sample.
+     * @param y The measured output of the sample.
+     *
+     * @return The prediction error of the sample before the update.
+     */
+    public double update(double[] x, double y) {
+        double trace = 0.0;
+        for (int i = 0; i < size; ++i) {
+            trace += covariance[i][i];
+        }
+        double lambda = trace > maxCovarianceTrace ? 1.0 : forgettingFactor;
+
+        // px = P x, denominator = lambda + x' P x
+        double denominator = lambda;
+        double prediction = 0.0;
+        for (int i = 0; i < size; ++i) {
+            double sum = 0.0;
+            for (int j = 0; j < size; ++j) {
+                sum += covariance[i][j] * x[j];
+            }
+            px[i] = sum;
+            denominator += x[i] * sum;
+            prediction += theta[i] * x[i];
+        }
+
+        double error = y - prediction;
+
+        for (int i = 0; i < size; ++i) {
+            gain[i] = px[i] / denominator;
+            theta[i] += gain[i] * error;
+        }
+
+        // P = (P - k x' P) / lambda, kept symmetric against rounding errors.
+        for (int i = 0; i < size; ++i) {
+            for (int j = i; j < size; ++j) {
+                double value = (covariance[i][j] - gain[i] * px[j]) / lambda;
+                covariance[i][j] = value;
+                covariance[j][i] = value;
+            }
+        }
+
+        ++sampleCount;
+        return error;
+    }
+
+    /** Returns the current estimate of a parameter. */
+    public double getParameter(int index) {
+        return theta[index];
+    }
+
+    /** Returns the number of samples used since the estimator was reset. */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+}
@@ -0,0 +1,86 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.utilities;
+
+/**
+ * The mean and standard deviation of the most recent samples of a signal.
+ *
+ * <p>
+ * The samples are kept in a ring buffer with their running sum and sum of
+ * squares, so adding a sample and reading the statistics take constant time
+ * whatever the window size.
+ */
+public class RollingStatistics {
+    private final double[] samples;
+    private int count;
+    private int next;
+    private double sum;
+    private double sumOfSquares;
+
+    /**
+     * Constructs an instance of this class.
+     *
+     * @param windowSize The number of most recent samples to keep.
+     */
+    public RollingStatistics(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be at least 1");
+        }
+        samples = new double[windowSize];
+    }
+
+    /** Adds a sample, dropping the oldest if the window is full. */
+    public void add(double sample) {
+        if (count == samples.length) {
+            double oldest = samples[next];
+            sum -= oldest;
+            sumOfSquares -= oldest * oldest;
+        } else {
+            count++;
+        }
+
+        samples[next] = sample;
+        sum += sample;
+        sumOfSquares += sample * sample;
+        next = (next + 1) % samples.length;
+    }
+
+    /** Removes all the samples. */
+    public void clear() {
+        count = 0;
+        next = 0;
+        sum = 0;
+        sumOfSquares = 0;
+    }
+
+    /** Returns the number of samples in the window. */
+    public int getCount() {
+        return count;
+    }
+
+    /** Returns whether the window is full. */
+    public boolean isFull() {
+        return count == samples.length;
+    }
+
+    /** Returns the mean of the samples, or NaN if there are none. */
+    public double getMean() {
+        return count > 0 ? sum / count : Double.NaN;
+    }
+
+    /**
+     * Returns the population standard deviation of the samples, or NaN if there
+     * are none.
+     */
+    public double getStandardDeviation() {
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        double mean = sum / count;
+        // Rounding in the running sums can leave a tiny negative variance.
+        return Math.sqrt(Math.max(sumOfSquares / count - mean * mean, 0));
+    }
+}
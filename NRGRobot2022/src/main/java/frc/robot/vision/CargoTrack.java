@@ -0,0 +1,170 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.vision;
+
+import edu.wpi.first.math.geometry.Translation2d;
+
+/**
+ * A cargo being tracked in field coordinates.
+ *
+ * <p>
+ * The cargo's position and velocity are estimated by a constant-velocity
+ * Kalman filter. The x and y axes are filtered independently with the same
+ * noise parameters, so they share a single 2x2 covariance matrix and updates
+ * are a handful of scalar operations.
+ */
+public class CargoTrack {
+    private final int id;
+
+    // The filter state at the time of the last measurement.
+    private double timestamp;
+    private double x;
+    private double y;
+    private double vx;
+    private double vy;
+
+    // The position/velocity covariance of each axis.
+    private double p00;
+    private double p01;
+    private double p11;
+
+    private final double processNoise;
+    private int hits;
+    private double lastUpdateTimestamp;
+
+    /**
+     * Constructs a track from its first measurement.
+     *
+     * @param id                  A unique identifier for the track.
+     * @param timestamp           The FPGA timestamp of the measurement.
+     * @param position            The measured field position of the cargo.
+     * @param measurementVariance The variance of the measured position, in
+     *                            square meters.
+     * @param velocityVariance    The initial variance of the velocity, in square
+     *                            meters per second squared.
+     * @param processNoise        The spectral density of the random acceleration
+     *                            of the cargo, in m^2/s^3.
+     */
+    CargoTrack(
+            int id,
+            double timestamp,
+            Translation2d position,
+            double measurementVariance,
+            double velocityVariance,
+            double processNoise) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.lastUpdateTimestamp = timestamp;
+        this.x = position.getX();
+        this.y = position.getY();
+        this.p00 = measurementVariance;
+        this.p11 = velocityVariance;
+        this.processNoise = processNoise;
+        this.hits = 1;
+    }
+
+    /** Returns the track's unique identifier. */
+    public int getId() {
+        return id;
+    }
+
+    /** Returns the number of measurements associated with the track. */
+    public int getHits() {
+        return hits;
+    }
+
+    /** Returns the FPGA timestamp of the last measurement of the track. */
+    public double getLastUpdateTimestamp() {
+        return lastUpdateTimestamp;
+    }
+
+    /**
+     * Returns the predicted field position of the cargo.
+     *
+     * @param time The FPGA timestamp at which to predict the position.
+     */
+    public Translation2d getPosition(double time) {
+        double dt = time - timestamp;
+        return new Translation2d(x + vx * dt, y + vy * dt);
+    }
+
+    /** Returns the estimated field velocity of the cargo in meters per second. */
+    public Translation2d getVelocity() {
+        return new Translation2d(vx, vy);
+    }
+
+    /**
+     * Returns the variance of the predicted position along each axis.
+     *
+     * @param time The FPGA timestamp at which to predict the position.
+     */
+    public double getPositionVariance(double time) {
+        double dt = Math.max(time - timestamp, 0.0);
+        return p00 + dt * (2 * p01 + dt * p11) + processNoise * dt * dt * dt / 3;
+    }
+
+    /**
+     * Returns the squared Mahalanobis distance of a measurement from the track's
+     * predicted position.
+     *
+     * @param time                The FPGA timestamp of the measurement.
+     * @param position            The measured field position.
+     * @param measurementVariance The variance of the measurement.
+     */
+    double getMahalanobisDistance(double time, Translation2d position, double measurementVariance) {
+        double dt = time - timestamp;
+        double ex = position.getX() - (x + vx * dt);
+        double ey = position.getY() - (y + vy * dt);
+        return (ex * ex + ey * ey) / (getPositionVariance(time) + measurementVariance);
+    }
+
+    /**
+     * Updates the track with a measurement. Measurements older than the previous
+     * one are ignored.
+     *
+     * @param time                The FPGA timestamp of the measurement.
+     * @param position            The measured field position.
+     * @param measurementVariance The variance of the measurement.
+     */
+    void update(double time, Translation2d position, double measurementVariance) {
+        double dt = time - timestamp;
+        if (dt < 0) {
+            return;
+        }
+
+        // Predict the state and covariance forward to the measurement time.
+        x += vx * dt;
+        y += vy * dt;
+        double q = processNoise;
+        p00 += dt * (2 * p01 + dt * p11) + q * dt * dt * dt / 3;
+        p01 += dt * p11 + q * dt * dt / 2;
+        p11 += q * dt;
+
+        // Correct the state with the measured position.
+        double s = p00 + measurementVariance;
+        double k0 = p00 / s;
+        double k1 = p01 / s;
+        double ex = position.getX() - x;
+        double ey = position.getY() - y;
+
+        x += k0 * ex;
+        y += k0 * ey;
+        vx += k1 * ex;
+        vy += k1 * ey;
+
+        p11 -= k1 * p01;
+        p01 *= 1 - k0;
+        p00 *= 1 - k0;
+
+        timestamp = time;
+        lastUpdateTimestamp = time;
+        ++hits;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CargoTrack(%d, x: %.2f, y: %.2f, vx: %.2f, vy: %.2f, hits: %d)", id, x, y, vx, vy, hits);
+    }
+}
@@ -0,0 +1,179 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.vision;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import frc.robot.Constants.VisionConstants;
+
+/**
+ * Tracks the cargo seen by the vision pipeline in field coordinates.
+ *
+ * <p>
+ * Each detection is converted to a field position using the robot pose at the
+ * time the frame was captured, then associated with the nearest existing track
+ * whose predicted position is statistically consistent with it. Detections
+ * that match no track start a new one. A track is confirmed once it has been
+ * seen several times, and is dropped when it has not been seen for a while.
+ *
+ * <p>
+ * Because each track predicts where its cargo is at any time, commands can keep
+ * driving to a cargo through dropped frames, and can choose among all of the
+ * cargo seen recently rather than only the one in the latest frame.
+ */
+public class CargoTracker {
+    // The chi-squared value for 2 degrees of freedom at 99% confidence.
+    private static final double ASSOCIATION_GATE = 9.21;
+
+    private static final int CONFIRMATION_HITS = 3;
+    private static final double TRACK_TIMEOUT = 1.0; // seconds
+
+    // The measurement standard deviation is a fixed amount plus a fraction of the
+    // distance, since the distance estimate degrades as the cargo gets smaller in
+    // the image.
+    private static final double MEASUREMENT_STD_DEV = 0.05; // meters
+    private static final double MEASUREMENT_STD_DEV_PER_METER = 0.05;
+    private static final double INITIAL_VELOCITY_VARIANCE = 1.0; // (m/s)^2
+    private static final double PROCESS_NOISE = 0.5; // m^2/s^3
+
+    // Converts the heading change needed to face a cargo into an equivalent
+    // distance when choosing the best cargo.
+    private static final double TURN_COST = 0.5; // meters per radian
+
+    private final List<CargoTrack> tracks = new ArrayList<>();
+    private final List<CargoTrack> unmodifiableTracks = Collections.unmodifiableList(tracks);
+    private final Translation2d cameraOffset = new Translation2d(
+            VisionConstants.kCameraOffsetX, VisionConstants.kCameraOffsetY);
+    private final Rotation2d cameraYaw = Rotation2d.fromDegrees(VisionConstants.kCameraYawDegrees);
+    private int nextTrackId;
+
+    /**
+     * Converts a detection from a camera frame to a field position.
+     *
+     * @param robotPose The robot pose when the frame was captured.
+     * @param distance  The distance from the camera to the cargo in meters.
+     * @param angle     The angle from the camera to the cargo in degrees,
+     *                  counter-clockwise positive.
+     */
+    public Translation2d toFieldPosition(Pose2d robotPose, double distance, double angle) {
+        Rotation2d robotRotation = robotPose.getRotation();
+        Translation2d cameraPosition = robotPose.getTranslation().plus(cameraOffset.rotateBy(robotRotation));
+        Translation2d cameraToCargo = new Translation2d(distance, Rotation2d.fromDegrees(angle))
+                .rotateBy(robotRotation.plus(cameraYaw));
+        return cameraPosition.plus(cameraToCargo);
+    }
+
+    /**
+     * Adds the detection in a vision snapshot.
+     *
+     * @param snapshot  The vision snapshot. Snapshots without a target are
+     *                  ignored.
+     * @param robotPose The robot pose when the snapshot's frame was captured.
+     */
+    public void addSnapshot(VisionSnapshot snapshot, Pose2d robotPose) {
+        if (snapshot.hasTarget()) {
+            addDetection(
+                    snapshot.getCaptureTimestamp(),
+                    toFieldPosition(robotPose, snapshot.getDistance(), snapshot.getAngle()),
+                    snapshot.getDistance());
+        }
+    }
+
+    /**
+     * Adds a detected cargo.
+     *
+     * @param timestamp     The FPGA timestamp of the frame.
+     * @param fieldPosition The field position of the cargo.
+     * @param distance      The distance from the camera to the cargo in meters.
+     */
+    public void addDetection(double timestamp, Translation2d fieldPosition, double distance) {
+        double stdDev = MEASUREMENT_STD_DEV + MEASUREMENT_STD_DEV_PER_METER * Math.abs(distance);
+        double measurementVariance = stdDev * stdDev;
+
+        CargoTrack nearest = null;
+        double nearestDistance = ASSOCIATION_GATE;
+
+        for (CargoTrack track : tracks) {
+            double d = track.getMahalanobisDistance(timestamp, fieldPosition, measurementVariance);
+            if (d < nearestDistance) {
+                nearest = track;
+                nearestDistance = d;
+            }
+        }
+
+        if (nearest != null) {
+            nearest.update(timestamp, fieldPosition, measurementVariance);
+        } else {
+            tracks.add(new CargoTrack(
+                    nextTrackId++,
+                    timestamp,
+                    fieldPosition,
+                    measurementVariance,
+                    INITIAL_VELOCITY_VARIANCE,
+                    PROCESS_NOISE));
+        }
+    }
+
+    /**
+     * Removes tracks that have not been seen recently.
+     *
+     * @param now The current FPGA timestamp.
+     */
+    public void removeStaleTracks(double now) {
+        tracks.removeIf(track -> now - track.getLastUpdateTimestamp() > TRACK_TIMEOUT);
+    }
+
+    /** Removes all tracks. */
+    public void reset() {
+        tracks.clear();
+    }
+
+    /** Returns all current tracks, including unconfirmed ones. */
+    public List<CargoTrack> getTracks() {
+        return unmodifiableTracks;
+    }
+
+    /** Returns whether a track has been seen often enough to be trusted. */
+    public static boolean isConfirmed(CargoTrack track) {
+        return track.getHits() >= CONFIRMATION_HITS;
+    }
+
+    /**
+     * Returns the confirmed cargo that is quickest to reach, considering both its
+     * distance and how far the robot must turn to face it.
+     *
+     * @param robotPose The current robot pose.
+     * @param now       The current FPGA timestamp.
+     *
+     * @return The best track, or null if there are no confirmed tracks.
+     */
+    public CargoTrack getBestTrack(Pose2d robotPose, double now) {
+        CargoTrack best = null;
+        double bestCost = Double.POSITIVE_INFINITY;
+
+        for (CargoTrack track : tracks) {
+            if (!isConfirmed(track)) {
+                continue;
+            }
+
+            Translation2d robotToCargo = track.getPosition(now).minus(robotPose.getTranslation());
+            double turn = Math.abs(new Rotation2d(robotToCargo.getX(), robotToCargo.getY())
+                    .minus(robotPose.getRotation()).getRadians());
+            double cost = robotToCargo.getNorm() + TURN_COST * turn;
+
+            if (cost < bestCost) {
+                best = track;
+                bestCost = cost;
+            }
+        }
+
+        return best;
+    }
+}
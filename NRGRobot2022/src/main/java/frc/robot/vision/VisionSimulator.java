@@ -0,0 +1,333 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.vision;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.wpilibj.smartdashboard.Field2d;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import frc.robot.Constants.VisionConstants;
+import frc.robot.subsystems.RaspberryPiVision;
+
+/**
+ * Simulates the Raspberry Pi vision pipeline on the desktop.
+ *
+ * <p>
+ * The simulator places red and blue cargo on the field, which may be rolling,
+ * and, at the camera's
+ * frame rate, finds the nearest cargo of the color selected by the vision
+ * pipeline that is within the camera's field of view. The result is published
+ * to the same NetworkTables entry as the Pi after a simulated processing
+ * latency, with measurement noise and randomly dropped frames.
+ *
+ * <p>
+ * Pipeline requests are read from the same NetworkTables entry as the Pi reads
+ * them, and handled the same way: a new request takes effect at the first
+ * frame captured after a switching delay, and is then acknowledged and echoed
+ * in every frame.
+ *
+ * <p>
+ * All randomness comes from a single seeded generator, so a scenario can be
+ * repeated exactly by setting the VISION_SIM_SEED environment variable:
+ *
+ * <pre>
+ * VISION_SIM_SEED=42 ./gradlew simulateJava
+ * </pre>
+ */
+public class VisionSimulator {
+    /** The environment variable holding the scenario seed. */
+    public static final String SEED_ENV = "VISION_SIM_SEED";
+
+    private static final double FRAME_PERIOD = 1.0 / 30.0; // seconds
+    private static final double HORIZONTAL_FOV = 60.0; // degrees
+    private static final double MIN_RANGE = 0.4; // meters, closer cargo is below the camera
+    private static final double MAX_RANGE = 6.0; // meters
+    private static final double LATENCY = 0.040; // seconds
+    private static final double LATENCY_JITTER = 0.010; // seconds
+    private static final double DISTANCE_NOISE = 0.03; // fraction of the distance
+    private static final double ANGLE_NOISE = 1.0; // degrees
+    private static final double DROPOUT_PROBABILITY = 0.05;
+    private static final double PIPELINE_SWITCH_DELAY = 0.1; // seconds
+
+    // Cargo within this distance of the front of the robot is picked up.
+    private static final double PICKUP_RANGE = 0.5; // meters
+    private static final double PICKUP_ANGLE = 30.0; // degrees
+
+    private static final int CARGO_COUNT = 8;
+
+    /** A simulated cargo. */
+    private static class Cargo {
+        Translation2d position;
+        final Translation2d velocity;
+        final boolean isRed;
+
+        Cargo(Translation2d position, Translation2d velocity, boolean isRed) {
+            this.position = position;
+            this.velocity = velocity;
+            this.isRed = isRed;
+        }
+    }
+
+    /** A frame waiting for its processing latency to elapse. */
+    private static class PendingFrame {
+        final double publishTime;
+        final double[] values;
+        final double[] ack;
+        final String activePipeline;
+
+        PendingFrame(double publishTime, double[] values, double[] ack, String activePipeline) {
+            this.publishTime = publishTime;
+            this.values = values;
+            this.ack = ack;
+            this.activePipeline = activePipeline;
+        }
+    }
+
+    private final Random random;
+    private final List<Cargo> cargo = new ArrayList<>();
+    private final Queue<PendingFrame> pendingFrames = new ArrayDeque<>();
+    private final NetworkTableEntry frameEntry = NetworkTableInstance.getDefault()
+            .getEntry(RaspberryPiVision.TARGET_FRAME_KEY);
+    private final NetworkTableEntry requestEntry = NetworkTableInstance.getDefault()
+            .getEntry(RaspberryPiVision.TARGET_PIPELINE_REQUEST_KEY);
+    private final NetworkTableEntry ackEntry = NetworkTableInstance.getDefault()
+            .getEntry(RaspberryPiVision.PIPELINE_ACK_KEY);
+    private final NetworkTableEntry activePipelineEntry = NetworkTableInstance.getDefault()
+            .getEntry(RaspberryPiVision.ACTIVE_PIPELINE_KEY);
+    private final Translation2d cameraOffset = new Translation2d(
+            VisionConstants.kCameraOffsetX, VisionConstants.kCameraOffsetY);
+    private final Rotation2d cameraYaw = Rotation2d.fromDegrees(VisionConstants.kCameraYawDegrees);
+    private final Field2d field = new Field2d();
+
+    private double lastUpdateTime = Double.NaN;
+    private double nextFrameTime = Double.NaN;
+    private long sequence;
+    private int framesDropped;
+    private int cargoPickedUp;
+
+    // The most recent pipeline request, and the one the simulated Pi is using.
+    // Like the Pi, the simulator starts with request 0, which the robot never
+    // makes, so its frames are ignored until the robot's first request is seen.
+    private long requestedPipeline = 0;
+    private String requestedPipelineName = RaspberryPiVision.BLUE_CARGO_PIPELINE;
+    private double pipelineSwitchTime;
+    private long activePipeline = 0;
+    private String activePipelineName = RaspberryPiVision.BLUE_CARGO_PIPELINE;
+    private double[] pendingAck;
+
+    /**
+     * Constructs a simulator with cargo placed at random in front of the robot.
+     *
+     * @param seed      The seed of the scenario.
+     * @param startPose The robot's starting pose.
+     */
+    public VisionSimulator(long seed, Pose2d startPose) {
+        this(seed);
+
+        for (int i = 0; i < CARGO_COUNT; ++i) {
+            Translation2d offset = new Translation2d(1.0 + 5.0 * random.nextDouble(), 6.0 * random.nextDouble() - 3.0);
+            addCargo(startPose.getTranslation().plus(offset.rotateBy(startPose.getRotation())), i % 2 == 0);
+        }
+
+        System.out.println(String.format("Vision simulator started with seed %d", seed));
+    }
+
+    /**
+     * Constructs a simulator with no cargo, to which cargo can be added.
+     *
+     * @param seed The seed of the scenario.
+     */
+    public VisionSimulator(long seed) {
+        random = new Random(seed);
+        SmartDashboard.putData("Vision Sim", field);
+    }
+
+    /** Returns the scenario seed from the environment, or 0 if it is not set. */
+    public static long getSeedFromEnvironment() {
+        String seed = System.getenv(SEED_ENV);
+        return seed != null ? Long.parseLong(seed) : 0;
+    }
+
+    /**
+     * Adds a cargo to the field.
+     *
+     * @param position The field position of the cargo.
+     * @param isRed    Whether the cargo is red. Otherwise it is blue.
+     */
+    public void addCargo(Translation2d position, boolean isRed) {
+        addCargo(position, new Translation2d(), isRed);
+    }
+
+    /**
+     * Adds a rolling cargo to the field.
+     *
+     * @param position The field position of the cargo.
+     * @param velocity The field velocity of the cargo in meters per second.
+     * @param isRed    Whether the cargo is red. Otherwise it is blue.
+     */
+    public void addCargo(Translation2d position, Translation2d velocity, boolean isRed) {
+        cargo.add(new Cargo(position, velocity, isRed));
+    }
+
+    /** Returns the number of frames dropped so far. */
+    public int getFramesDropped() {
+        return framesDropped;
+    }
+
+    /** Returns the number of cargo the robot has driven over. */
+    public int getCargoPickedUp() {
+        return cargoPickedUp;
+    }
+
+    /**
+     * Updates the simulation. This should be called once per robot cycle.
+     *
+     * @param now       The current FPGA timestamp.
+     * @param robotPose The current (true) pose of the robot.
+     */
+    public void update(double now, Pose2d robotPose) {
+        if (!Double.isNaN(lastUpdateTime)) {
+            for (Cargo c : cargo) {
+                c.position = c.position.plus(c.velocity.times(now - lastUpdateTime));
+            }
+        }
+        lastUpdateTime = now;
+
+        pickUpCargo(robotPose);
+        readPipelineRequest(now);
+
+        if (Double.isNaN(nextFrameTime)) {
+            nextFrameTime = now;
+        }
+
+        // Capture every frame that was due since the last update.
+        while (nextFrameTime <= now) {
+            captureFrame(nextFrameTime, robotPose);
+            nextFrameTime += FRAME_PERIOD;
+        }
+
+        // Publish the frames whose processing has finished.
+        while (!pendingFrames.isEmpty() && pendingFrames.peek().publishTime <= now) {
+            PendingFrame frame = pendingFrames.remove();
+            if (frame.ack != null) {
+                activePipelineEntry.setString(frame.activePipeline);
+                ackEntry.setDoubleArray(frame.ack);
+            }
+            frameEntry.setDoubleArray(frame.values);
+        }
+
+        field.setRobotPose(robotPose);
+        List<Pose2d> cargoPoses = new ArrayList<>();
+        for (Cargo c : cargo) {
+            cargoPoses.add(new Pose2d(c.position, new Rotation2d()));
+        }
+        field.getObject("Cargo").setPoses(cargoPoses);
+    }
+
+    /**
+     * Reads the pipeline name and request number, which arrive together, and
+     * starts switching if the request is new.
+     */
+    private void readPipelineRequest(double now) {
+        String[] request = requestEntry.getStringArray(null);
+        if (request == null || request.length <= RaspberryPiVision.REQUEST_NUMBER) {
+            return;
+        }
+
+        long number;
+        try {
+            number = Long.parseLong(request[RaspberryPiVision.REQUEST_NUMBER]);
+        } catch (NumberFormatException e) {
+            return;
+        }
+
+        if (number != requestedPipeline) {
+            requestedPipeline = number;
+            requestedPipelineName = request[RaspberryPiVision.REQUEST_PIPELINE_NAME];
+            pipelineSwitchTime = now + PIPELINE_SWITCH_DELAY;
+        }
+    }
+
+    private void captureFrame(double captureTime, Pose2d robotPose) {
+        long frameSequence = sequence++;
+
+        // The first frame captured after the switching delay uses the new
+        // pipeline. The acknowledgement goes out with the next published frame.
+        if (activePipeline != requestedPipeline && captureTime >= pipelineSwitchTime) {
+            activePipeline = requestedPipeline;
+            activePipelineName = requestedPipelineName;
+            pendingAck = new double[] { activePipeline, frameSequence };
+        }
+        boolean findRed = activePipelineName.equals(RaspberryPiVision.RED_CARGO_PIPELINE);
+
+        double latency = LATENCY + LATENCY_JITTER * random.nextDouble();
+        boolean dropped = random.nextDouble() < DROPOUT_PROBABILITY;
+        double noiseDistance = random.nextGaussian();
+        double noiseAngle = random.nextGaussian();
+
+        if (dropped) {
+            ++framesDropped;
+            return;
+        }
+
+        Rotation2d robotRotation = robotPose.getRotation();
+        Translation2d cameraPosition = robotPose.getTranslation().plus(cameraOffset.rotateBy(robotRotation));
+        Rotation2d cameraRotation = robotRotation.plus(cameraYaw);
+
+        boolean hasTarget = false;
+        double bestDistance = MAX_RANGE;
+        double bestAngle = 0;
+
+        for (Cargo c : cargo) {
+            if (c.isRed != findRed) {
+                continue;
+            }
+
+            Translation2d toCargo = c.position.minus(cameraPosition).rotateBy(cameraRotation.unaryMinus());
+            double distance = toCargo.getNorm();
+            double angle = Math.toDegrees(Math.atan2(toCargo.getY(), toCargo.getX()));
+
+            if (distance >= MIN_RANGE && distance <= bestDistance && Math.abs(angle) <= HORIZONTAL_FOV / 2) {
+                hasTarget = true;
+                bestDistance = distance;
+                bestAngle = angle;
+            }
+        }
+
+        double[] values = new double[] {
+                frameSequence,
+                latency * 1000.0,
+                hasTarget ? 1 : 0,
+                hasTarget ? bestDistance * (1.0 + DISTANCE_NOISE * noiseDistance) : 0,
+                hasTarget ? bestAngle + ANGLE_NOISE * noiseAngle : 0,
+                activePipeline };
+
+        pendingFrames.add(new PendingFrame(captureTime + latency, values, pendingAck, activePipelineName));
+        pendingAck = null;
+    }
+
+    /** Removes cargo that the robot's intake has driven over. */
+    private void pickUpCargo(Pose2d robotPose) {
+        cargo.removeIf(c -> {
+            Translation2d toCargo = c.position.minus(robotPose.getTranslation())
+                    .rotateBy(robotPose.getRotation().unaryMinus());
+            boolean pickedUp = toCargo.getNorm() < PICKUP_RANGE
+                    && Math.abs(Math.toDegrees(Math.atan2(toCargo.getY(), toCargo.getX()))) < PICKUP_ANGLE;
+            if (pickedUp) {
+                ++cargoPickedUp;
+            }
+            return pickedUp;
+        });
+    }
+}
@@ -0,0 +1,113 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.vision;
+
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * The vision target results of a single camera frame. All values come from
+ * the same frame, and the frame's capture time is known, so consumers can
+ * tell how old the result is.
+ */
+public final class VisionSnapshot {
+    /** The snapshot used before any frames have been received. */
+    public static final VisionSnapshot NONE = new VisionSnapshot(-1, -1, false, 0, 0, 0, Double.NEGATIVE_INFINITY);
+
+    private final long sequence;
+    private final long pipelineRequest;
+    private final boolean hasTarget;
+    private final double distance;
+    private final double angle;
+    private final double latency;
+    private final double captureTimestamp;
+
+    /**
+     * Constructs an instance of this class.
+     *
+     * @param sequence         The frame sequence number assigned by the Pi.
+     * @param pipelineRequest  The pipeline request that was in effect for the
+     *                         frame, or -1 if the Pi did not report it.
+     * @param hasTarget        Whether a target was found in the frame.
+     * @param distance         The distance to the target in meters.
+     * @param angle            The angle to the target in degrees.
+     * @param latency          The time in seconds from frame capture until the
+     *                         result was published by the Pi.
+     * @param captureTimestamp The FPGA timestamp at which the frame was captured.
+     */
+    public VisionSnapshot(
+            long sequence,
+            long pipelineRequest,
+            boolean hasTarget,
+            double distance,
+            double angle,
+            double latency,
+            double captureTimestamp) {
+        this.sequence = sequence;
+        this.pipelineRequest = pipelineRequest;
+        this.hasTarget = hasTarget;
+        this.distance = distance;
+        this.angle = angle;
+        this.latency = latency;
+        this.captureTimestamp = captureTimestamp;
+    }
+
+    /** Returns the frame sequence number, or -1 if no frame has been received. */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the pipeline request that was in effect for the frame, or -1 if the
+     * Pi did not report it.
+     */
+    public long getPipelineRequest() {
+        return pipelineRequest;
+    }
+
+    /** Returns whether a target was found in the frame. */
+    public boolean hasTarget() {
+        return hasTarget;
+    }
+
+    /** Returns the distance to the target in meters. */
+    public double getDistance() {
+        return distance;
+    }
+
+    /** Returns the angle to the target in degrees. */
+    public double getAngle() {
+        return angle;
+    }
+
+    /** Returns the Pi's processing latency in seconds. */
+    public double getLatency() {
+        return latency;
+    }
+
+    /** Returns the FPGA timestamp at which the frame was captured. */
+    public double getCaptureTimestamp() {
+        return captureTimestamp;
+    }
+
+    /** Returns the time in seconds since the frame was captured. */
+    public double getAge() {
+        return Timer.getFPGATimestamp() - captureTimestamp;
+    }
+
+    /**
+     * Returns whether the frame is too old to be used.
+     *
+     * @param maxAge The maximum age in seconds.
+     */
+    public boolean isStale(double maxAge) {
+        return getAge() > maxAge;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("VisionSnapshot(%d, pipelineRequest: %d, hasTarget: %b, distance: %.3f, angle: %.2f, latency: %.3f)",
+                sequence, pipelineRequest, hasTarget, distance, angle, latency);
+    }
+}
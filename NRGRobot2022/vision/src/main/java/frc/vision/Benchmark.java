@@ -0,0 +1,198 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.vision;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Runs the cargo pipeline over folders of recorded images and reports its
+ * throughput and the latency of each stage.
+ *
+ * <p>
+ * The images are loaded before timing starts so disk speed does not affect the
+ * results. They are then split among worker threads, each with its own
+ * pipeline, and processed the requested number of times.
+ */
+public class Benchmark {
+    private final List<File> imageFiles = new ArrayList<>();
+    private final String pipelineName;
+    private final int threads;
+    private final int iterations;
+    private final double horizontalFov;
+    private final double cameraHeight;
+
+    /**
+     * Constructs an instance of this class.
+     *
+     * @param folders       The folders containing the images.
+     * @param pipelineName  The pipeline to run.
+     * @param threads       The number of worker threads.
+     * @param iterations    The number of times to process each image.
+     * @param horizontalFov The camera's horizontal field of view in degrees.
+     * @param cameraHeight  The camera height in meters.
+     */
+    public Benchmark(
+            List<File> folders,
+            String pipelineName,
+            int threads,
+            int iterations,
+            double horizontalFov,
+            double cameraHeight) {
+        this.pipelineName = pipelineName;
+        this.threads = threads;
+        this.iterations = iterations;
+        this.horizontalFov = horizontalFov;
+        this.cameraHeight = cameraHeight;
+
+        for (File folder : folders) {
+            File[] files = folder.isDirectory() ? folder.listFiles() : new File[] { folder };
+            if (files == null) {
+                continue;
+            }
+            Arrays.sort(files);
+            for (File file : files) {
+                String name = file.getName().toLowerCase();
+                if (name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png")) {
+                    imageFiles.add(file);
+                }
+            }
+        }
+    }
+
+    /** The timings collected by one worker thread. */
+    private static class WorkerResult {
+        final long[][] stageNanos;
+        final long[] frameNanos;
+        int targets;
+
+        WorkerResult(int frames) {
+            stageNanos = new long[CargoPipeline.STAGE_NAMES.length][frames];
+            frameNanos = new long[frames];
+        }
+    }
+
+    /** Runs the benchmark and prints the results. */
+    public void run() throws InterruptedException, ExecutionException {
+        List<Mat> images = new ArrayList<>();
+        for (File file : imageFiles) {
+            Mat image = Imgcodecs.imread(file.getPath());
+            if (image.empty()) {
+                System.err.println("Could not read " + file);
+                continue;
+            }
+            images.add(image);
+        }
+
+        if (images.isEmpty()) {
+            System.err.println("No images found.");
+            return;
+        }
+
+        System.out.println(String.format("Running %s over %d images x %d iterations on %d threads",
+                pipelineName, images.size(), iterations, threads));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<WorkerResult>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+
+        for (int t = 0; t < threads; ++t) {
+            int first = t;
+            futures.add(executor.submit(() -> process(images, first)));
+        }
+
+        List<WorkerResult> results = new ArrayList<>();
+        for (Future<WorkerResult> future : futures) {
+            results.add(future.get());
+        }
+
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        int frames = 0;
+        int targets = 0;
+        for (WorkerResult result : results) {
+            frames += result.frameNanos.length;
+            targets += result.targets;
+        }
+
+        System.out.println(String.format("%d frames in %.3f s: %.1f frames per second, %d with a target",
+                frames, elapsed / 1e9, frames / (elapsed / 1e9), targets));
+
+        System.out.println(String.format("%-10s %10s %10s %10s %10s", "Stage (ms)", "mean", "p50", "p95", "max"));
+        for (int stage = 0; stage < CargoPipeline.STAGE_NAMES.length; ++stage) {
+            int s = stage;
+            printLatency(CargoPipeline.STAGE_NAMES[stage], results, r -> r.stageNanos[s]);
+        }
+        printLatency("Total", results, r -> r.frameNanos);
+    }
+
+    /** Processes every image whose index is congruent to first modulo threads. */
+    private WorkerResult process(List<Mat> images, int first) {
+        CargoPipeline pipeline = new CargoPipeline(pipelineName, horizontalFov, cameraHeight);
+        CargoPipeline.Result result = new CargoPipeline.Result();
+
+        int perIteration = (images.size() - first + threads - 1) / threads;
+        WorkerResult timings = new WorkerResult(perIteration * iterations);
+        int frame = 0;
+
+        for (int iteration = 0; iteration < iterations; ++iteration) {
+            for (int i = first; i < images.size(); i += threads) {
+                pipeline.process(images.get(i), result);
+
+                long total = 0;
+                for (int stage = 0; stage < result.stageNanos.length; ++stage) {
+                    timings.stageNanos[stage][frame] = result.stageNanos[stage];
+                    total += result.stageNanos[stage];
+                }
+                timings.frameNanos[frame] = total;
+                if (result.hasTarget) {
+                    ++timings.targets;
+                }
+                ++frame;
+            }
+        }
+
+        return timings;
+    }
+
+    private interface TimingSelector {
+        long[] select(WorkerResult result);
+    }
+
+    private static void printLatency(String name, List<WorkerResult> results, TimingSelector selector) {
+        int count = 0;
+        for (WorkerResult result : results) {
+            count += selector.select(result).length;
+        }
+
+        long[] all = new long[count];
+        int index = 0;
+        long sum = 0;
+        for (WorkerResult result : results) {
+            for (long nanos : selector.select(result)) {
+                all[index++] = nanos;
+                sum += nanos;
+            }
+        }
+        Arrays.sort(all);
+
+        System.out.println(String.format("%-10s %10.3f %10.3f %10.3f %10.3f",
+                name,
+                sum / 1e6 / count,
+                all[count / 2] / 1e6,
+                all[Math.min((int) (count * 0.95), count - 1)] / 1e6,
+                all[count - 1] / 1e6));
+    }
+}
@@ -0,0 +1,198 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.vision;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Finds the nearest cargo of one alliance color in a camera image.
+ *
+ * <p>
+ * The pipeline has three stages:
+ * <ol>
+ * <li>Threshold: the image is converted to HSV and thresholded on the cargo
+ * color, then opened to remove speckle.</li>
+ * <li>Contours: the outlines of the thresholded blobs are found and filtered on
+ * size, fill ratio and aspect ratio to reject things that are not balls.</li>
+ * <li>Solve: the distance to the largest remaining ball is found from its
+ * apparent radius, and the angle to it from its horizontal position.</li>
+ * </ol>
+ *
+ * <p>
+ * The time taken by each stage is recorded in the {@link Result}. A pipeline
+ * reuses its working images, so each thread needs its own instance.
+ */
+public class CargoPipeline {
+    /** The pipeline names used by the robot code. */
+    public static final String RED_CARGO_PIPELINE = "RedCargoPipeline";
+    public static final String BLUE_CARGO_PIPELINE = "BlueCargoPipeline";
+
+    /** The names of the pipeline stages, in order. */
+    public static final String[] STAGE_NAMES = { "Threshold", "Contours", "Solve" };
+
+    private static final double CARGO_RADIUS = 0.2413 / 2; // meters
+
+    // Contour filters.
+    private static final double MIN_AREA_FRACTION = 0.0002;
+    private static final double MIN_FILL_RATIO = 0.5;
+    private static final double MAX_ASPECT_RATIO = 2.0;
+
+    /** The result of processing one image. */
+    public static class Result {
+        public boolean hasTarget;
+        public double distance;
+        public double angle;
+        public final long[] stageNanos = new long[STAGE_NAMES.length];
+
+        /** The center and radius of the target in pixels, for drawing. */
+        public final Point center = new Point();
+        public double radius;
+    }
+
+    private final boolean isRed;
+    private final double horizontalFov;
+    private final double cameraHeight;
+
+    private final Mat hsv = new Mat();
+    private final Mat mask = new Mat();
+    private final Mat mask2 = new Mat();
+    private final Mat hierarchy = new Mat();
+    private final Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(5, 5));
+    private final List<MatOfPoint> contours = new ArrayList<>();
+    private final MatOfPoint2f contour2f = new MatOfPoint2f();
+    private final Point circleCenter = new Point();
+    private final float[] circleRadius = new float[1];
+
+    /**
+     * Constructs an instance of this class.
+     *
+     * @param pipelineName  The pipeline name, {@link #RED_CARGO_PIPELINE} or
+     *                      {@link #BLUE_CARGO_PIPELINE}.
+     * @param horizontalFov The horizontal field of view of the camera in degrees.
+     * @param cameraHeight  The height of the camera lens above the floor in
+     *                      meters.
+     */
+    public CargoPipeline(String pipelineName, double horizontalFov, double cameraHeight) {
+        this.isRed = pipelineName.equals(RED_CARGO_PIPELINE);
+        this.horizontalFov = horizontalFov;
+        this.cameraHeight = cameraHeight;
+    }
+
+    /** Returns whether the pipeline finds red cargo. */
+    public boolean isRed() {
+        return isRed;
+    }
+
+    /**
+     * Processes an image.
+     *
+     * @param image  A BGR image from the camera.
+     * @param result The result to fill in.
+     */
+    public void process(Mat image, Result result) {
+        long start = System.nanoTime();
+        threshold(image);
+        long thresholdEnd = System.nanoTime();
+        MatOfPoint best = findBestContour(image.width() * image.height());
+        long contoursEnd = System.nanoTime();
+        solve(best, image.width(), result);
+        long solveEnd = System.nanoTime();
+
+        result.stageNanos[0] = thresholdEnd - start;
+        result.stageNanos[1] = contoursEnd - thresholdEnd;
+        result.stageNanos[2] = solveEnd - contoursEnd;
+    }
+
+    private void threshold(Mat image) {
+        Imgproc.cvtColor(image, hsv, Imgproc.COLOR_BGR2HSV);
+
+        if (isRed) {
+            // Red wraps around the end of the hue range.
+            Core.inRange(hsv, new Scalar(0, 120, 70), new Scalar(10, 255, 255), mask);
+            Core.inRange(hsv, new Scalar(170, 120, 70), new Scalar(180, 255, 255), mask2);
+            Core.bitwise_or(mask, mask2, mask);
+        } else {
+            Core.inRange(hsv, new Scalar(95, 100, 50), new Scalar(125, 255, 255), mask);
+        }
+
+        Imgproc.morphologyEx(mask, mask, Imgproc.MORPH_OPEN, kernel);
+    }
+
+    private MatOfPoint findBestContour(int imageArea) {
+        for (MatOfPoint contour : contours) {
+            contour.release();
+        }
+        contours.clear();
+        Imgproc.findContours(mask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+
+        MatOfPoint best = null;
+        double bestRadius = 0;
+
+        for (MatOfPoint contour : contours) {
+            double area = Imgproc.contourArea(contour);
+            if (area < MIN_AREA_FRACTION * imageArea) {
+                continue;
+            }
+
+            Rect bounds = Imgproc.boundingRect(contour);
+            double aspectRatio = (double) bounds.width / bounds.height;
+            if (aspectRatio > MAX_ASPECT_RATIO || aspectRatio < 1.0 / MAX_ASPECT_RATIO) {
+                continue;
+            }
+
+            contour.convertTo(contour2f, CvType.CV_32FC2);
+            Imgproc.minEnclosingCircle(contour2f, circleCenter, circleRadius);
+            double radius = circleRadius[0];
+            if (area / (Math.PI * radius * radius) < MIN_FILL_RATIO) {
+                continue;
+            }
+
+            if (radius > bestRadius) {
+                best = contour;
+                bestRadius = radius;
+            }
+        }
+
+        return best;
+    }
+
+    private void solve(MatOfPoint contour, int imageWidth, Result result) {
+        result.hasTarget = contour != null;
+        if (contour == null) {
+            result.distance = 0;
+            result.angle = 0;
+            result.radius = 0;
+            return;
+        }
+
+        contour.convertTo(contour2f, CvType.CV_32FC2);
+        Imgproc.minEnclosingCircle(contour2f, result.center, circleRadius);
+        result.radius = circleRadius[0];
+
+        // Pinhole camera model: the focal length in pixels follows from the field
+        // of view, and the range from the ball's apparent size.
+        double focalLength = (imageWidth / 2.0) / Math.tan(Math.toRadians(horizontalFov / 2));
+        double range = CARGO_RADIUS * focalLength / result.radius;
+        double height = cameraHeight - CARGO_RADIUS;
+
+        result.distance = Math.sqrt(Math.max(range * range - height * height, 0));
+
+        // The angle is counter-clockwise positive, so cargo left of center has a
+        // positive angle.
+        result.angle = Math.toDegrees(Math.atan2(imageWidth / 2.0 - result.center.x, focalLength));
+    }
+}
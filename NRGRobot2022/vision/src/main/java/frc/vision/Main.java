@@ -0,0 +1,105 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.vision;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.wpi.first.cscore.CameraServerCvJNI;
+import edu.wpi.first.cscore.CameraServerJNI;
+
+/**
+ * The entry point of the vision coprocessor program.
+ *
+ * <pre>
+ * Usage:
+ *   run [--team N] [--server HOST] [--camera N] [--width W] [--height H] [--fps N]
+ *       [--fov DEGREES] [--camera-height METERS]
+ *   benchmark [--pipeline NAME] [--threads N] [--iterations N]
+ *       [--fov DEGREES] [--camera-height METERS] FOLDER...
+ * </pre>
+ */
+public final class Main {
+    private static final int DEFAULT_TEAM = 948;
+
+    private Main() {
+    }
+
+    public static void main(String... args) throws Exception {
+        if (args.length == 0 || (!args[0].equals("run") && !args[0].equals("benchmark"))) {
+            System.err.println("Usage: run [options] | benchmark [options] FOLDER...");
+            System.exit(1);
+        }
+
+        loadNativeLibraries();
+
+        String server = null;
+        int team = DEFAULT_TEAM;
+        int camera = 0;
+        int width = 320;
+        int height = 240;
+        int fps = 30;
+        double fov = 61.0;
+        double cameraHeight = 0.5;
+        String pipeline = CargoPipeline.BLUE_CARGO_PIPELINE;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int iterations = 1;
+        List<File> folders = new ArrayList<>();
+
+        for (int i = 1; i < args.length; ++i) {
+            switch (args[i]) {
+                case "--team":
+                    team = Integer.parseInt(args[++i]);
+                    break;
+                case "--server":
+                    server = args[++i];
+                    break;
+                case "--camera":
+                    camera = Integer.parseInt(args[++i]);
+                    break;
+                case "--width":
+                    width = Integer.parseInt(args[++i]);
+                    break;
+                case "--height":
+                    height = Integer.parseInt(args[++i]);
+                    break;
+                case "--fps":
+                    fps = Integer.parseInt(args[++i]);
+                    break;
+                case "--fov":
+                    fov = Double.parseDouble(args[++i]);
+                    break;
+                case "--camera-height":
+                    cameraHeight = Double.parseDouble(args[++i]);
+                    break;
+                case "--pipeline":
+                    pipeline = args[++i];
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    folders.add(new File(args[i]));
+                    break;
+            }
+        }
+
+        if (args[0].equals("run")) {
+            new VisionServer(server, team, camera, width, height, fps, fov, cameraHeight).run();
+        } else {
+            new Benchmark(folders, pipeline, threads, iterations, fov, cameraHeight).run();
+        }
+    }
+
+    private static void loadNativeLibraries() throws IOException {
+        CameraServerJNI.forceLoad();
+        CameraServerCvJNI.forceLoad();
+    }
+}
@@ -0,0 +1,176 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.vision;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import edu.wpi.first.cameraserver.CameraServer;
+import edu.wpi.first.cscore.CvSink;
+import edu.wpi.first.cscore.CvSource;
+import edu.wpi.first.cscore.MjpegServer;
+import edu.wpi.first.cscore.UsbCamera;
+import edu.wpi.first.cscore.VideoMode;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.util.WPIUtilJNI;
+
+/**
+ * Runs the cargo pipeline on live camera frames and publishes the results to
+ * the robot.
+ *
+ * <p>
+ * Each result is published as one number array containing the frame sequence
+ * number, the latency from capture to publication in milliseconds, whether a
+ * target was found, the distance in meters, the angle in degrees and the
+ * pipeline request the frame was processed for. The
+ * NetworkTables connection is flushed after every frame so results are not
+ * held back by the periodic update. The raw camera stream is served on port
+ * 1181 and the annotated stream on port 1182.
+ *
+ * <p>
+ * The robot selects a pipeline by publishing a string array containing its
+ * name and a new request number to {@link #TARGET_PIPELINE_REQUEST_KEY}, so
+ * the two are always read together. The switch happens before the next frame
+ * is processed, after which
+ * the pipeline name is echoed to {@link #ACTIVE_PIPELINE_KEY} and the request
+ * number and the sequence number of the first frame it applies to are
+ * published to {@link #PIPELINE_ACK_KEY}. Until the robot makes a request the
+ * frames carry request number 0, which the robot never uses.
+ */
+public class VisionServer {
+    public static final String TARGET_FRAME_KEY = "Vision/Target/Frame";
+    public static final String TARGET_PIPELINE_REQUEST_KEY = "Vision/Target/PipelineRequest";
+    public static final String ACTIVE_PIPELINE_KEY = "Vision/Target/ActivePipeline";
+    public static final String PIPELINE_ACK_KEY = "Vision/Target/PipelineAck";
+    public static final int PROCESSED_STREAM_PORT = 1182;
+
+    // The elements of the pipeline request array.
+    private static final int REQUEST_PIPELINE_NAME = 0;
+    private static final int REQUEST_NUMBER = 1;
+
+    private final String server;
+    private final int team;
+    private final int cameraDevice;
+    private final int width;
+    private final int height;
+    private final int fps;
+    private final double horizontalFov;
+    private final double cameraHeight;
+
+    /**
+     * Constructs an instance of this class.
+     *
+     * @param server        The NetworkTables server address, or null to find the
+     *                      robot using the team number.
+     * @param team          The team number.
+     * @param cameraDevice  The USB camera device number.
+     * @param width         The image width in pixels.
+     * @param height        The image height in pixels.
+     * @param fps           The camera frame rate.
+     * @param horizontalFov The camera's horizontal field of view in degrees.
+     * @param cameraHeight  The camera height in meters.
+     */
+    public VisionServer(
+            String server,
+            int team,
+            int cameraDevice,
+            int width,
+            int height,
+            int fps,
+            double horizontalFov,
+            double cameraHeight) {
+        this.server = server;
+        this.team = team;
+        this.cameraDevice = cameraDevice;
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        this.horizontalFov = horizontalFov;
+        this.cameraHeight = cameraHeight;
+    }
+
+    /** Processes camera frames until the program is stopped. */
+    public void run() {
+        NetworkTableInstance networkTables = NetworkTableInstance.getDefault();
+        if (server != null) {
+            networkTables.startClient(server);
+        } else {
+            networkTables.startClientTeam(team);
+        }
+
+        NetworkTableEntry frameEntry = networkTables.getEntry(TARGET_FRAME_KEY);
+        NetworkTableEntry requestEntry = networkTables.getEntry(TARGET_PIPELINE_REQUEST_KEY);
+        NetworkTableEntry activePipelineEntry = networkTables.getEntry(ACTIVE_PIPELINE_KEY);
+        NetworkTableEntry ackEntry = networkTables.getEntry(PIPELINE_ACK_KEY);
+
+        UsbCamera camera = CameraServer.startAutomaticCapture(cameraDevice);
+        camera.setResolution(width, height);
+        camera.setFPS(fps);
+        CvSink sink = CameraServer.getVideo(camera);
+
+        CvSource output = new CvSource("Processed", VideoMode.PixelFormat.kMJPEG, width, height, fps);
+        MjpegServer processedServer = new MjpegServer("Processed", PROCESSED_STREAM_PORT);
+        processedServer.setSource(output);
+
+        Mat image = new Mat();
+        CargoPipeline.Result result = new CargoPipeline.Result();
+        CargoPipeline pipeline = null;
+        long sequence = 0;
+        long activeRequest = -1;
+
+        while (!Thread.interrupted()) {
+            long frameTime = sink.grabFrame(image);
+            if (frameTime == 0) {
+                System.err.println("Camera error: " + sink.getError());
+                continue;
+            }
+
+            // The request number changes on every request, even one for the
+            // pipeline already running, so every request is acknowledged.
+            String[] requestValue = requestEntry.getStringArray(new String[0]);
+            long request = 0;
+            String pipelineName = CargoPipeline.BLUE_CARGO_PIPELINE;
+            if (requestValue.length > REQUEST_NUMBER) {
+                try {
+                    request = Long.parseLong(requestValue[REQUEST_NUMBER]);
+                    pipelineName = requestValue[REQUEST_PIPELINE_NAME];
+                } catch (NumberFormatException e) {
+                    request = Math.max(activeRequest, 0);
+                }
+            }
+            if (pipeline == null || request != activeRequest) {
+                if (pipeline == null || pipeline.isRed() != pipelineName.equals(CargoPipeline.RED_CARGO_PIPELINE)) {
+                    pipeline = new CargoPipeline(pipelineName, horizontalFov, cameraHeight);
+                }
+                activeRequest = request;
+                activePipelineEntry.setString(pipelineName);
+                ackEntry.setDoubleArray(new double[] { activeRequest, sequence });
+                System.out.println(String.format("Switched to %s for request %d at frame %d",
+                        pipelineName, activeRequest, sequence));
+            }
+
+            pipeline.process(image, result);
+
+            // The frame time and WPIUtilJNI.now() share the same microsecond clock.
+            double latency = (WPIUtilJNI.now() - frameTime) / 1000.0;
+
+            frameEntry.setDoubleArray(new double[] {
+                    sequence++,
+                    latency,
+                    result.hasTarget ? 1 : 0,
+                    result.distance,
+                    result.angle,
+                    activeRequest });
+            networkTables.flush();
+
+            if (result.hasTarget) {
+                Imgproc.circle(image, result.center, (int) result.radius, new Scalar(0, 255, 0), 2);
+            }
+            output.putFrame(image);
+        }
+    }
+}